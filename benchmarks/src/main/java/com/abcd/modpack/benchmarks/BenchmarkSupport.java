@@ -0,0 +1,56 @@
+package com.abcd.modpack.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ベンチマーク共通の処理
+ */
+final class BenchmarkSupport {
+    
+    private BenchmarkSupport() {
+    }
+    
+    /**
+     * 本体のコンソール出力を破棄します
+     * 展開やファイル削除のたびに出力されるログが計測結果に影響しないようにします
+     */
+    static void silenceConsole() {
+        PrintStream nullStream = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(nullStream);
+        System.setErr(nullStream);
+    }
+    
+    /**
+     * ベンチマーク用の一時ディレクトリを作成します
+     * @param prefix ディレクトリ名の接頭辞
+     * @return 一時ディレクトリ
+     * @throws IOException ディレクトリ作成エラー
+     */
+    static Path createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("abcd-bench-" + prefix);
+    }
+    
+    /**
+     * ディレクトリを中身ごと削除します
+     * @param dir 削除するディレクトリ
+     * @throws IOException ファイル操作エラー
+     */
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (var stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.utils.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * パック定義ファイルの "-" 行で使われるワイルドカード処理のベンチマーク
+ * mods ディレクトリに大量のファイルがある場合の削除コストを計測します
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilePatternBenchmark {
+    private static final int MATCHING_FILES = 20;
+    
+    @Param({ "100", "1000", "10000" })
+    public int fileCount;
+    
+    private Path gameDir;
+    private FileIndex index;
+    
+    @Setup(Level.Trial)
+    public void createDirectory() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        gameDir = BenchmarkSupport.createTempDir("pattern");
+        Path modsDir = Files.createDirectories(gameDir.resolve("mods"));
+        for (int i = 0; i < fileCount; i++) {
+            Files.createFile(modsDir.resolve("mod-" + i + "-fabric-1.21.jar"));
+        }
+        index = FileIndex.open(gameDir);
+    }
+    
+    @Setup(Level.Invocation)
+    public void createMatchingFiles() throws IOException {
+        Path modsDir = gameDir.resolve("mods");
+        for (int i = 0; i < MATCHING_FILES; i++) {
+            Path file = modsDir.resolve("sodium-fabric-0." + i + ".jar");
+            if (!Files.exists(file)) {
+                Files.createFile(file);
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        BenchmarkSupport.deleteRecursively(gameDir);
+    }
+    
+    @Benchmark
+    public Pattern convertWildcardToRegex() {
+        return Pattern.compile(FileUtils.convertWildcardToRegex("sodium-fabric-*+mc1.21.?.jar"));
+    }
+    
+    /**
+     * 一致するファイルが無いパターン（ディレクトリの走査のみ）
+     */
+    @Benchmark
+    public void removeFilesWithPatternNoMatch() throws IOException {
+        FileUtils.removeFilesWithPattern(gameDir, "mods/no-such-mod-*.jar");
+    }
+    
+    /**
+     * 一致するファイルが無いパターン（索引のファイル名一覧を使用し、ディレクトリの更新日時のみ確認）
+     */
+    @Benchmark
+    public void removeFilesWithPatternNoMatchIndexed() throws IOException {
+        FileUtils.removeFilesWithPattern(gameDir, "mods/no-such-mod-*.jar", index);
+    }
+    
+    /**
+     * 一致するファイルを削除するパターン
+     */
+    @Benchmark
+    public void removeFilesWithPatternMatch() throws IOException {
+        FileUtils.removeFilesWithPattern(gameDir, "mods/sodium-fabric-*.jar");
+    }
+}
@@ -0,0 +1,83 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.profile.LauncherProfilesPatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * launcher_profiles.json の書き換え（ProfileManager が使用する LauncherProfilesPatcher）のベンチマーク
+ * アイコン付きのプロファイルが大量にある大きなファイルを想定します
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LauncherProfilesBenchmark {
+    
+    @Param({ "10", "100", "1000" })
+    public int profileCount;
+    
+    private String json;
+    private Map<String, String> newProfile;
+    
+    @Setup(Level.Trial)
+    public void createProfiles() {
+        BenchmarkSupport.silenceConsole();
+        Random random = new Random(42);
+        byte[] icon = new byte[8 * 1024];
+        
+        StringBuilder sb = new StringBuilder("{\n  \"profiles\" : {\n");
+        for (int i = 0; i < profileCount; i++) {
+            random.nextBytes(icon);
+            sb.append("    \"profile-").append(i).append("\" : {\n")
+                .append("      \"created\" : \"2024-01-01T00:00:00.000Z\",\n")
+                .append("      \"icon\" : \"data:image/png;base64,").append(Base64.getEncoder().encodeToString(icon)).append("\",\n")
+                .append("      \"lastUsed\" : \"2024-01-01T00:00:00.000Z\",\n")
+                .append("      \"lastVersionId\" : \"1.21.").append(i % 10).append("\",\n")
+                .append("      \"name\" : \"Profile ").append(i).append("\",\n")
+                .append("      \"type\" : \"custom\"\n")
+                .append("    },\n");
+        }
+        sb.append("    \"fabric-loader-1.21\" : {\n      \"name\" : \"fabric\"\n    },\n");
+        sb.append("    \"A-B-C-D\" : {\n      \"created\" : \"2024-01-01T00:00:00.000Z\",\n      \"name\" : \"A-B-C-D 1.20\"\n    }\n");
+        sb.append("  },\n  \"settings\" : {\n    \"enableSnapshots\" : false\n  },\n  \"version\" : 3\n}\n");
+        json = sb.toString();
+        
+        newProfile = new LinkedHashMap<>();
+        newProfile.put("created", "2024-01-01T00:00:00.000Z");
+        newProfile.put("gameDir", "C:\\Users\\player\\AppData\\Roaming\\.minecraft_abcd");
+        newProfile.put("lastUsed", "2025-01-01T00:00:00.000Z");
+        newProfile.put("lastVersionId", "fabric-loader-0.16.0-1.21");
+        newProfile.put("name", "A-B-C-D 1.21");
+        newProfile.put("type", "custom");
+    }
+    
+    @Benchmark
+    public boolean patch() throws IOException {
+        return LauncherProfilesPatcher.patch(new StringReader(json), Writer.nullWriter(), "A-B-C-D",
+            Set.of("fabric-loader-1.21"), newProfile).isChanged();
+    }
+}
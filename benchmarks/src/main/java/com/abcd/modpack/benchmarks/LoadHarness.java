@@ -0,0 +1,205 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.modpack.ModpackProcessor;
+import com.abcd.modpack.progress.ProgressSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ModpackProcessor.processModpackList のエンドツーエンド負荷試験
+ * ローカルの {@link StandInServer} から合成したパック定義ファイル・JAR・ZIP を配信し、
+ * エントリ数ごとの実行時間、転送量、ヒープ割り当て量を計測します
+ *
+ * 実行方法: java -cp benchmarks/target/benchmarks.jar com.abcd.modpack.benchmarks.LoadHarness [オプション]
+ *   --entries=10,100,1000,10000  計測するパックのエントリ数（カンマ区切り）
+ *   --runs=3                     エントリ数ごとの計測回数
+ *   --warmup=1                   計測前に最小のエントリ数で実行する回数
+ *   --jar-size=32768             JAR 1 つあたりのバイト数
+ *   --zip-every=10               ZIP を含める間隔（n エントリごとに 1 つ。0 の場合は含めない）
+ *   --zip-entries=20             ZIP 1 つあたりのエントリ数
+ *   --latency-ms=0               サーバーの応答遅延（ミリ秒）
+ *   --bandwidth-kbps=0           サーバーの送信速度の上限（KiB/秒。0 の場合は無制限）
+ *   --error-rate=0               HTTP 503 を返す割合（0.0～1.0）
+ *   --server-threads=16          サーバーのスレッド数
+ *   --verbose                    アップデーターのログを出力する
+ */
+public final class LoadHarness {
+    private static final String MINECRAFT_VERSION = "1.21";
+    
+    private LoadHarness() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<Integer> entryCounts = new ArrayList<>();
+        for (String value : options.getOrDefault("entries", "10,100,1000,10000").split(",")) {
+            entryCounts.add(Integer.parseInt(value.trim()));
+        }
+        int runs = intOption(options, "runs", 3);
+        int warmup = intOption(options, "warmup", 1);
+        int jarSize = intOption(options, "jar-size", 32 * 1024);
+        int zipEvery = intOption(options, "zip-every", 10);
+        int zipEntries = intOption(options, "zip-entries", 20);
+        Duration latency = Duration.ofMillis(intOption(options, "latency-ms", 0));
+        long bytesPerSecond = intOption(options, "bandwidth-kbps", 0) * 1024L;
+        double errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+        int serverThreads = intOption(options, "server-threads", 16);
+        
+        PrintStream report = System.out;
+        if (!options.containsKey("verbose")) {
+            BenchmarkSupport.silenceConsole();
+        }
+        
+        byte[] jar = createPayload(jarSize);
+        byte[] zip = createZip(zipEntries);
+        
+        try (StandInServer server = new StandInServer(serverThreads, latency, bytesPerSecond, errorRate, 42)) {
+            Endpoints.configure(new Endpoints(server.getBaseUrl(), null, server.getBaseUrl(), server.getBaseUrl()));
+            
+            report.println("スタンドイン: " + server.getBaseUrl()
+                + " 遅延=" + latency.toMillis() + "ms 帯域=" + (bytesPerSecond > 0 ? ProgressSnapshot.formatBytes(bytesPerSecond) + "/s" : "無制限")
+                + " エラー率=" + errorRate);
+            report.printf("%8s %4s %10s %12s %12s %9s %8s %12s %12s  %s%n",
+                "entries", "run", "wall(ms)", "bytes", "throughput", "requests", "errors", "alloc", "alloc/entry", "result");
+            
+            int smallest = entryCounts.stream().mapToInt(Integer::intValue).min().orElse(10);
+            for (int i = 0; i < warmup; i++) {
+                runOnce(server, smallest, jar, zip, zipEvery);
+            }
+            
+            for (int entries : entryCounts) {
+                for (int run = 1; run <= runs; run++) {
+                    Result result = runOnce(server, entries, jar, zip, zipEvery);
+                    double seconds = result.wallNanos / 1_000_000_000.0;
+                    report.printf("%8d %4d %10.1f %12s %12s %9d %8d %12s %12s  %s%n",
+                        entries, run, result.wallNanos / 1_000_000.0,
+                        ProgressSnapshot.formatBytes(result.bytes),
+                        ProgressSnapshot.formatBytes((long) (result.bytes / Math.max(seconds, 1e-9))) + "/s",
+                        result.requests, result.errors,
+                        ProgressSnapshot.formatBytes(result.allocatedBytes),
+                        ProgressSnapshot.formatBytes(result.allocatedBytes / entries),
+                        result.failure == null ? "OK" : "失敗: " + result.failure);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 合成パックを 1 回処理して計測します
+     * @param server スタンドインサーバー
+     * @param entries パックのエントリ数
+     * @param jar JAR として配信する内容
+     * @param zip ZIP として配信する内容
+     * @param zipEvery ZIP を含める間隔
+     * @return 計測結果
+     * @throws IOException 作業ディレクトリの操作エラー
+     */
+    private static Result runOnce(StandInServer server, int entries, byte[] jar, byte[] zip, int zipEvery) throws IOException {
+        server.reset();
+        StringBuilder packs = new StringBuilder("# 合成パック: " + entries + " エントリ\n");
+        packs.append("-mods/old-mod-*.jar\n");
+        for (int i = 0; i < entries; i++) {
+            if (zipEvery > 0 && i % zipEvery == zipEvery - 1) {
+                String name = String.format("config-%05d.zip", i);
+                server.putFile(name, zip);
+                packs.append('+').append(name).append('\n');
+            } else {
+                String name = String.format("mods/mod-%05d.jar", i);
+                server.putFile(name, jar);
+                packs.append('+').append(name).append('\n');
+            }
+        }
+        server.putFile("abcd-update-packs-" + MINECRAFT_VERSION + ".txt", packs.toString().getBytes(StandardCharsets.UTF_8));
+        
+        Path gameDir = BenchmarkSupport.createTempDir("load");
+        try {
+            System.gc();
+            long serverAllocatedBefore = server.getAllocatedBytes();
+            long allocatedBefore = totalAllocatedBytes();
+            long start = System.nanoTime();
+            String failure = null;
+            try {
+                ModpackProcessor.processModpackList(gameDir, MINECRAFT_VERSION);
+            } catch (Exception e) {
+                failure = e.getMessage();
+            }
+            long wallNanos = System.nanoTime() - start;
+            long allocated = totalAllocatedBytes() - allocatedBefore - (server.getAllocatedBytes() - serverAllocatedBefore);
+            return new Result(wallNanos, server.getBytesSent(), server.getRequests(), server.getInjectedErrors(),
+                Math.max(0, allocated), failure);
+        } finally {
+            BenchmarkSupport.deleteRecursively(gameDir);
+        }
+    }
+    
+    /**
+     * JVM 全体（終了したスレッドを含む）のヒープ割り当て量を取得します
+     * ダウンロードは HttpClient とスレッドプールの別スレッドで行われるため、計測スレッドのみの値では不足します
+     * @return 割り当てバイト数（計測できない場合は 0）
+     */
+    private static long totalAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return Math.max(0, bean.getTotalThreadAllocatedBytes());
+        }
+        return 0;
+    }
+    
+    private static byte[] createPayload(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+    
+    private static byte[] createZip(int entries) throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[1024];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < entries; i++) {
+                random.nextBytes(data);
+                zos.putNextEntry(new ZipEntry("config/synthetic/file-" + i + ".json"));
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("不明な引数です: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+    
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    
+    private record Result(long wallNanos, long bytes, long requests, long errors, long allocatedBytes, String failure) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.utils.OptionsPatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * options.txt の更新（OptionsPatcher）のベンチマーク
+ * 値が変わらない場合（書き込みなし）と、毎回書き換えが発生する場合を計測します
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionsBenchmark {
+    private static final int OPTION_LINES = 250;
+    
+    @Param({ "10", "500" })
+    public int resourcePackCount;
+    
+    Path gameDir;
+    List<String> originalLines;
+    
+    @Setup(Level.Trial)
+    public void createGameDir() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        gameDir = BenchmarkSupport.createTempDir("options");
+        Path resourcePacksDir = Files.createDirectories(gameDir.resolve("resourcepacks"));
+        for (int i = 0; i < resourcePackCount; i++) {
+            Files.createFile(resourcePacksDir.resolve("pack-" + i + ".zip"));
+        }
+        Files.createFile(resourcePacksDir.resolve("Faithful-64x-Java-1.21.6.zip"));
+        Files.createFile(resourcePacksDir.resolve("AngelWing.zip"));
+        
+        // 実際の options.txt と同程度の行数にする
+        originalLines = new ArrayList<>();
+        originalLines.add("version:4435");
+        originalLines.add("resourcePacks:[\"vanilla\"]");
+        originalLines.add("lang:en_us");
+        originalLines.add("soundCategory_master:1.0");
+        for (int i = originalLines.size(); i < OPTION_LINES; i++) {
+            originalLines.add("key_key.option" + i + ":key.keyboard." + (char) ('a' + i % 26));
+        }
+        
+        // applyUnchanged 用に、更新済みの options.txt を用意する
+        Files.write(gameDir.resolve("options.txt"), originalLines);
+        OptionsPatcher.fromResource().apply(gameDir);
+    }
+    
+    /**
+     * 書き換えが発生する場合の計測用に、呼び出しのたびに options.txt を元の内容に戻す状態
+     */
+    @State(Scope.Thread)
+    public static class ResetOptions {
+        @Setup(Level.Invocation)
+        public void reset(OptionsBenchmark benchmark) throws IOException {
+            Files.write(benchmark.gameDir.resolve("options.txt"), benchmark.originalLines);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteGameDir() throws IOException {
+        BenchmarkSupport.deleteRecursively(gameDir);
+    }
+    
+    /**
+     * 既に更新済みで書き込みが発生しない場合
+     */
+    @Benchmark
+    public boolean applyUnchanged() throws IOException {
+        return OptionsPatcher.fromResource().apply(gameDir);
+    }
+    
+    /**
+     * 既定値の options.txt を書き換える場合
+     */
+    @Benchmark
+    public boolean applyChanged(ResetOptions reset) throws IOException {
+        return OptionsPatcher.fromResource().apply(gameDir);
+    }
+}
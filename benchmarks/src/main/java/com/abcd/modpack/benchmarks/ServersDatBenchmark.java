@@ -0,0 +1,83 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.utils.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * servers.dat（NBT）の読み込みと書き込みのベンチマーク
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServersDatBenchmark {
+    private static final String ADDRESS = "mc.a-b-c-d.com";
+    
+    @Param({ "1", "100" })
+    public int serverCount;
+    
+    private Path workDir;
+    private Path baseServersDat;
+    private Path serversDat;
+    
+    @Setup(Level.Trial)
+    public void createServersDat() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        workDir = BenchmarkSupport.createTempDir("servers");
+        baseServersDat = workDir.resolve("servers-base.dat");
+        for (int i = 0; i < serverCount; i++) {
+            FileUtils.addServerEntry(baseServersDat, "server" + i + ".example.com", "Server " + i);
+        }
+        serversDat = workDir.resolve("servers.dat");
+    }
+    
+    @Setup(Level.Invocation)
+    public void resetServersDat() throws IOException {
+        Files.copy(baseServersDat, serversDat, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteServersDat() throws IOException {
+        BenchmarkSupport.deleteRecursively(workDir);
+    }
+    
+    /**
+     * サーバーエントリが無いことを確認して追加する（初回起動時の処理）
+     */
+    @Benchmark
+    public boolean roundTrip() {
+        if (!FileUtils.containsServerEntry(serversDat, ADDRESS)) {
+            FileUtils.addServerEntry(serversDat, ADDRESS, "A-B-C-D Server");
+        }
+        return FileUtils.containsServerEntry(serversDat, ADDRESS);
+    }
+    
+    /**
+     * サーバーエントリの確認のみ（2 回目以降の起動時の処理）
+     */
+    @Benchmark
+    public boolean containsOnly() {
+        return FileUtils.containsServerEntry(serversDat, ADDRESS);
+    }
+}
@@ -0,0 +1,193 @@
+package com.abcd.modpack.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 負荷試験用のローカル HTTP サーバー
+ * 本番サーバーの代わりに、登録された合成ファイルを配信します
+ * 応答の遅延、全体の帯域制限、一定の割合でのエラー応答を設定できます
+ */
+final class StandInServer implements AutoCloseable {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    
+    static {
+        // 既定では Nagle アルゴリズムと遅延 ACK の組み合わせで応答ごとに数十ミリ秒待たされ、
+        // アップデーターではなくスタンドイン側の遅延を計測してしまうため無効にする
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Thread> workerThreads = new CopyOnWriteArrayList<>();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Duration latency;
+    private final long bytesPerSecond;
+    private final double errorRate;
+    private final Random random;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private long nextSendNanos;
+    
+    /**
+     * サーバーを起動します
+     * @param threads リクエストを処理するスレッド数
+     * @param latency 応答ヘッダーを返すまでの遅延
+     * @param bytesPerSecond 全リクエスト合計の送信速度の上限（0 以下の場合は無制限）
+     * @param errorRate HTTP 503 を返す割合（0.0～1.0）
+     * @param seed エラーを発生させるリクエストを決める乱数のシード
+     * @throws IOException サーバーの起動エラー
+     */
+    StandInServer(int threads, Duration latency, long bytesPerSecond, double errorRate, long seed) throws IOException {
+        this.latency = latency;
+        this.bytesPerSecond = bytesPerSecond;
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "stand-in-server");
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    /**
+     * 配信するファイルを登録します
+     * @param path ベース URL からの相対パス
+     * @param content ファイルの内容（複数のパスで同じ配列を共有できます）
+     */
+    void putFile(String path, byte[] content) {
+        files.put(path, content);
+    }
+    
+    /**
+     * 登録されたファイルをすべて削除し、統計をリセットします
+     */
+    void reset() {
+        files.clear();
+        bytesSent.set(0);
+        requests.set(0);
+        injectedErrors.set(0);
+    }
+    
+    /**
+     * サーバーのベース URL を取得します
+     * @return 末尾が "/" の URL
+     */
+    String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/";
+    }
+    
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+    
+    long getRequests() {
+        return requests.get();
+    }
+    
+    long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+    
+    /**
+     * サーバーのスレッドがこれまでに割り当てたヒープのバイト数を取得します
+     * アップデーター側の割り当て量を求めるため、JVM 全体の割り当て量から差し引くのに使用します
+     * @return 割り当てバイト数（計測できない場合は 0）
+     */
+    long getAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)) {
+            return 0;
+        }
+        long[] ids = workerThreads.stream().mapToLong(Thread::threadId).toArray();
+        long total = 0;
+        for (long bytes : bean.getThreadAllocatedBytes(ids)) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            if (!latency.isZero()) {
+                LockSupport.parkNanos(latency.toNanos());
+            }
+            
+            String path = exchange.getRequestURI().getPath().substring(1);
+            byte[] content = files.get(path);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (errorRate > 0 && nextErrorRoll() < errorRate) {
+                injectedErrors.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+                    int length = Math.min(CHUNK_SIZE, content.length - offset);
+                    throttle(length);
+                    out.write(content, offset, length);
+                    bytesSent.addAndGet(length);
+                }
+            }
+        }
+    }
+    
+    private synchronized double nextErrorRoll() {
+        return random.nextDouble();
+    }
+    
+    /**
+     * 全リクエスト合計の送信速度が上限を超えないよう、送信枠を予約して待機します
+     * @param length 送信するバイト数
+     */
+    private void throttle(int length) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long sendAt;
+        synchronized (this) {
+            long now = System.nanoTime();
+            sendAt = Math.max(now, nextSendNanos);
+            nextSendNanos = sendAt + TimeUnit.SECONDS.toNanos(length) / bytesPerSecond;
+        }
+        long wait = sendAt - System.nanoTime();
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.abcd.modpack.benchmarks;
+
+import com.abcd.modpack.utils.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * FileUtils.unzip のベンチマーク
+ * エントリ数の異なる合成パック（config ファイルのような小さいファイルが中心）を展開します
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UnzipBenchmark {
+    
+    @Param({ "10", "1000", "10000" })
+    public int entryCount;
+    
+    @Param({ "4096" })
+    public int entrySize;
+    
+    private Path workDir;
+    private Path zipFile;
+    private Path destinationDir;
+    
+    @Setup(Level.Trial)
+    public void createPack() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        workDir = BenchmarkSupport.createTempDir("unzip");
+        zipFile = workDir.resolve("pack.zip");
+        
+        Random random = new Random(42);
+        byte[] data = new byte[entrySize];
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (int i = 0; i < entryCount; i++) {
+                // 圧縮が効くよう、ランダムなデータと繰り返しのデータを半分ずつにする
+                random.nextBytes(data);
+                for (int j = data.length / 2; j < data.length; j++) {
+                    data[j] = (byte) ('a' + j % 26);
+                }
+                zos.putNextEntry(new ZipEntry("config/mod" + (i % 50) + "/file-" + i + ".json"));
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+    }
+    
+    @Setup(Level.Invocation)
+    public void prepareDestination() throws IOException {
+        destinationDir = workDir.resolve("extracted");
+        BenchmarkSupport.deleteRecursively(destinationDir);
+    }
+    
+    @TearDown(Level.Trial)
+    public void deletePack() throws IOException {
+        BenchmarkSupport.deleteRecursively(workDir);
+    }
+    
+    @Benchmark
+    public Path unzip() throws IOException {
+        FileUtils.unzip(zipFile, destinationDir);
+        return destinationDir;
+    }
+    
+    /**
+     * 展開先に書き込まない場合の ZIP の読み込みのみのコスト（比較用）
+     */
+    @Benchmark
+    public long readOnly() throws IOException {
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        try (var zis = new ZipInputStream(Files.newInputStream(zipFile))) {
+            while (zis.getNextEntry() != null) {
+                int read;
+                while ((read = zis.read(buffer)) != -1) {
+                    total += read;
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -1,45 +1,141 @@
 package com.abcd.modpack;
 
 import com.abcd.modpack.certificate.CertificateManager;
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.config.UpdaterConfig;
+import com.abcd.modpack.daemon.PrefetchDaemon;
 import com.abcd.modpack.fabric.FabricInstaller;
 import com.abcd.modpack.gui.GuiManager;
+import com.abcd.modpack.index.FileIndex;
 import com.abcd.modpack.java.JavaDetector;
+import com.abcd.modpack.modpack.ModpackBundle;
 import com.abcd.modpack.modpack.ModpackProcessor;
+import com.abcd.modpack.modpack.StagedUpdate;
+import com.abcd.modpack.modpack.UpdateJournal;
+import com.abcd.modpack.network.HttpCache;
+import com.abcd.modpack.network.MirrorSet;
+import com.abcd.modpack.network.PeerCache;
+import com.abcd.modpack.process.MinecraftProcessWatcher;
 import com.abcd.modpack.process.ProcessManager;
+import com.abcd.modpack.progress.ConsoleProgressListener;
+import com.abcd.modpack.progress.ProgressListener;
 import com.abcd.modpack.profile.ProfileManager;
+import com.abcd.modpack.snapshot.SnapshotManager;
+import com.abcd.modpack.store.ContentStore;
+import com.abcd.modpack.store.ContentStoreServer;
+import com.abcd.modpack.utils.AsyncLogWriter;
 import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.utils.OptionsPatcher;
+import com.abcd.modpack.utils.ProcessLock;
 import com.abcd.modpack.utils.TeeOutputStream;
+import com.abcd.modpack.verify.ModpackVerifier;
 import com.abcd.modpack.version.VersionManager;
 
 import java.awt.Desktop;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 /**
  * A-B-C-D Modpack Updater のメインクラス
  * Minecraft modpack の自動更新とインストールを管理します
  */
 public class Updater {
+    private static final String GAME_DIR_NAME = ".minecraft_abcd";
+    private static final Pattern INSTANCE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    
+    private static AsyncLogWriter logWriter;
+    private static ProcessLock instanceLock;
+    private static ProcessLock daemonLock;
+    
     public static void main(String[] args) throws Exception {
+        // --instance オプションの処理（以降のオプションの判定から取り除く）
+        String instanceName = null;
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        int instanceIndex = argList.indexOf("--instance");
+        if (instanceIndex >= 0) {
+            instanceName = instanceIndex + 1 < argList.size() ? argList.remove(instanceIndex + 1) : "";
+            argList.remove(instanceIndex);
+            if (!INSTANCE_NAME_PATTERN.matcher(instanceName).matches()) {
+                showStartupError("インスタンス名が不正です: " + instanceName + "\n英数字、- と _ の 32 文字以内で指定してください。");
+                return;
+            }
+            args = argList.toArray(String[]::new);
+        }
+        
+        // --peer オプションの処理（LAN キャッシュサーバーの URL。設定の peer.url より優先する）
+        String peerUrl = null;
+        int peerIndex = argList.indexOf("--peer");
+        if (peerIndex >= 0) {
+            peerUrl = peerIndex + 1 < argList.size() ? argList.remove(peerIndex + 1) : "";
+            argList.remove(peerIndex);
+            if (!peerUrl.startsWith("http://") && !peerUrl.startsWith("https://")) {
+                showStartupError("LAN キャッシュサーバーの URL が不正です: " + peerUrl + "\n例: --peer http://192.168.0.10:8770/");
+                return;
+            }
+            args = argList.toArray(String[]::new);
+        }
+        
         // 作業ディレクトリの作成（ログ出力のため最初に実行）
-        Path gameDir = Paths.get(System.getenv("APPDATA"), ".minecraft_abcd");
+        Path gameDir = getGameDir(instanceName);
         FileUtils.ensureDirectoryExists(gameDir);
         
+        // --daemon オプションの処理（GUI を表示せず、バックグラウンドで更新を事前取得する）
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            runDaemon(gameDir, peerUrl, Arrays.asList(args).contains("--once"));
+            return;
+        }
+        
+        // --serve-cache オプションの処理（インスタンスを更新しないため、インスタンスのロックは取得しない）
+        if (args.length > 0 && args[0].equals("--serve-cache")) {
+            handleServeCache(gameDir, args.length > 1 ? args[1] : null);
+            return;
+        }
+        
+        // 同じインスタンスのアップデーターが実行中の場合は終了（ログファイルを上書きしないよう、ログの設定より先に確認する）
+        // ロックはプロセスの終了時に解放される。別のインスタンスのアップデーターは同時に実行できる
+        // 事前取得デーモンがロックを保持している場合は、GUI を表示してから処理が終わるのを待つ
+        Path updaterLockFile = FileUtils.getUpdaterDir(gameDir, "").resolve("updater.lock");
+        instanceLock = ProcessLock.tryAcquire(updaterLockFile);
+        if (instanceLock == null && !isDaemonRunning(gameDir)) {
+            showStartupError("このインスタンスのアップデーターは既に実行中です: " + gameDir);
+            return;
+        }
+        
+        // 設定ファイルの読み込み（ログ出力の設定にも使用するため先に読み込む）
+        UpdaterConfig config = UpdaterConfig.load(gameDir);
+        
         // ログファイルの設定
-        setupLogFile(gameDir);
+        setupLogFile(gameDir, config, "updater.log");
+        
+        // 接続先の設定（本番以外のサーバーを使用する場合のみ）
+        Endpoints.configure(Endpoints.fromConfig(config));
+        MirrorSet.configureHedging(config.getBoolean("download.hedge", false), (int) config.getLong("download.hedge.percentile", 95));
+        PeerCache.configure(peerUrl != null ? peerUrl : config.getString("peer.url", null));
         
         // GUI マネージャーを初期化
         GuiManager guiManager = new GuiManager();
         guiManager.showWindow();
 
         try {
+            // 事前取得デーモンの処理が終わるのを待つ（ダウンロード済みの内容はこの後の更新でそのまま使用する）
+            if (instanceLock == null) {
+                instanceLock = ProcessLock.acquire(updaterLockFile, false);
+            }
+            
             // --uninstall-ca オプションの処理
             if (args.length > 0 && args[0].equals("--uninstall-ca")) {
-                handleUninstallCA(guiManager);
+                handleUninstallCA(gameDir, guiManager);
                 return;
             }
 
@@ -55,16 +151,41 @@ public class Updater {
                 return;
             }
 
+            // --verify / --repair オプションの処理
+            if (args.length > 0 && (args[0].equals("--verify") || args[0].equals("--repair"))) {
+                handleVerify(gameDir, config, args[0].equals("--repair"), guiManager);
+                return;
+            }
+            
+            // --rollback オプションの処理
+            if (args.length > 0 && args[0].equals("--rollback")) {
+                handleRollback(gameDir, config, getRollbackNumber(gameDir, args), guiManager);
+                return;
+            }
+            
+            // --export-bundle / --import-bundle オプションの処理
+            if (args.length > 0 && args[0].equals("--export-bundle")) {
+                handleExportBundle(gameDir, config, getBundleFile(args), guiManager);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("--import-bundle")) {
+                handleImportBundle(gameDir, config, getBundleFile(args), guiManager);
+                return;
+            }
+            
             // メインの更新処理を実行
-            runMainUpdateProcess(gameDir, guiManager);
+            boolean offline = Arrays.asList(args).contains("--offline") || config.getBoolean("offline", false);
+            runMainUpdateProcess(gameDir, config, offline, guiManager);
 
         } catch (Exception e) {
             System.err.println("予期しないエラーが発生しました: " + e.getMessage());
             e.printStackTrace();
+            syncLog();
             guiManager.showErrorDialog("予期しないエラーが発生しました:\n" + e.getMessage(), "エラー");
         } catch (Throwable e) {
             System.err.println("予期しないエラーが発生しました: " + e.getMessage());
             e.printStackTrace();
+            syncLog();
             guiManager.showErrorDialog("予期しないエラーが発生しました:\n" + e.getMessage(), "エラー");
         } finally {
             //guiManager.showInfoDialog("終了します", "通知");
@@ -73,26 +194,160 @@ public class Updater {
         }
     }
 
+    /**
+     * インスタンスのゲームディレクトリを取得します
+     * @param instanceName インスタンス名（既定のインスタンスの場合は null）
+     * @return %APPDATA%/.minecraft_abcd、またはインスタンスを指定した場合は %APPDATA%/.minecraft_abcd-&lt;インスタンス名&gt;
+     */
+    private static Path getGameDir(String instanceName) {
+        String dirName = instanceName == null ? GAME_DIR_NAME : GAME_DIR_NAME + "-" + instanceName;
+        return Paths.get(System.getenv("APPDATA"), dirName);
+    }
+    
+    /**
+     * ゲームディレクトリからインスタンス名を取得します
+     * @param gameDir ゲームディレクトリ
+     * @return インスタンス名（既定のインスタンスの場合は null）
+     */
+    private static String getInstanceName(Path gameDir) {
+        String dirName = gameDir.getFileName().toString();
+        return dirName.startsWith(GAME_DIR_NAME + "-") ? dirName.substring(GAME_DIR_NAME.length() + 1) : null;
+    }
+    
+    /**
+     * すべてのインスタンスで共有するディレクトリ（コンテンツストアとランチャーのファイルのロック）を取得します
+     */
+    private static Path getSharedDir(UpdaterConfig config) {
+        return Paths.get(config.getString("store.dir", Paths.get(System.getenv("APPDATA"), ".abcd-store").toString()));
+    }
+    
+    /**
+     * .minecraft のファイル（ランチャーの起動構成と Fabric のプロファイル）を変更するときに取得するロックのファイルを取得します
+     */
+    private static Path getLauncherLockFile(UpdaterConfig config) {
+        return getSharedDir(config).resolve("launcher.lock");
+    }
+    
+    /**
+     * .minecraft のファイルはすべてのインスタンスで共有するため、他のインスタンスのアップデーターと排他して処理を実行します
+     * @param config アップデーターの設定
+     * @param action ランチャーのファイルを変更する処理
+     * @return 処理の戻り値
+     * @throws Exception 処理で発生したエラー
+     */
+    private static <T> T withLauncherLock(UpdaterConfig config, Callable<T> action) throws Exception {
+        ProcessLock launcherLock = ProcessLock.acquire(getLauncherLockFile(config), false);
+        try {
+            return action.call();
+        } finally {
+            launcherLock.close();
+        }
+    }
+    
+    /**
+     * このインスタンスの事前取得デーモンが実行中かどうかを判定します
+     */
+    private static boolean isDaemonRunning(Path gameDir) throws IOException {
+        try (ProcessLock probe = ProcessLock.tryAcquire(FileUtils.getUpdaterDir(gameDir, "").resolve("daemon.lock"))) {
+            return probe == null;
+        }
+    }
+    
+    /**
+     * バックグラウンドで更新を事前取得するデーモンを実行します
+     * GUI は表示せず、ログは通常の更新のログを上書きしないよう updater-daemon.log に出力します
+     * @param once 確認を 1 回だけ行って終了する場合は true（タスクスケジューラーから定期的に起動する場合）
+     */
+    private static void runDaemon(Path gameDir, String peerUrl, boolean once) throws Exception {
+        daemonLock = ProcessLock.tryAcquire(FileUtils.getUpdaterDir(gameDir, "").resolve("daemon.lock"));
+        if (daemonLock == null) {
+            System.err.println("このインスタンスの事前取得デーモンは既に実行中です: " + gameDir);
+            return;
+        }
+        UpdaterConfig config = UpdaterConfig.load(gameDir);
+        setupLogFile(gameDir, config, "updater-daemon.log");
+        Endpoints.configure(Endpoints.fromConfig(config));
+        MirrorSet.configureHedging(config.getBoolean("download.hedge", false), (int) config.getLong("download.hedge.percentile", 95));
+        PeerCache.configure(peerUrl != null ? peerUrl : config.getString("peer.url", null));
+        
+        PrefetchDaemon daemon = new PrefetchDaemon(gameDir, config, getLauncherLockFile(config));
+        try {
+            if (once) {
+                daemon.runOnce();
+            } else {
+                daemon.run();
+            }
+        } finally {
+            syncLog();
+        }
+    }
+    
+    /**
+     * コンテンツストアのファイルを LAN 内の他の PC に配信するキャッシュサーバーを実行します
+     * ダイアログの OK ボタンを押すまで配信を続けます
+     * @param port 待ち受けるポート番号（null の場合は設定の serve.port）
+     */
+    private static void handleServeCache(Path gameDir, String port) throws Exception {
+        UpdaterConfig config = UpdaterConfig.load(gameDir);
+        setupLogFile(gameDir, config, "updater-serve.log");
+        GuiManager guiManager = new GuiManager();
+        guiManager.showWindow();
+        try {
+            InetSocketAddress address = new InetSocketAddress(config.getString("serve.address", "0.0.0.0"),
+                port != null ? Integer.parseInt(port) : (int) config.getLong("serve.port", 8770));
+            try (ContentStoreServer server = ContentStoreServer.start(ContentStore.open(getSharedDir(config)), address,
+                    (int) config.getLong("serve.threads", 16))) {
+                String message = "LAN キャッシュサーバーを実行中です（ポート " + server.getPort() + "）。\n" +
+                    "他の PC では --peer http://<この PC の IP アドレス>:" + server.getPort() + "/ を指定して更新してください。\n" +
+                    "OK を押すと停止します。";
+                System.out.println(message);
+                guiManager.showInfoDialog(message, "LAN キャッシュサーバー");
+            }
+        } catch (Exception e) {
+            System.err.println("LAN キャッシュサーバーを開始できません: " + e.getMessage());
+            syncLog();
+            guiManager.showErrorDialog("LAN キャッシュサーバーを開始できません:\n" + e.getMessage(), "エラー");
+        } finally {
+            guiManager.closeWindow();
+        }
+    }
+    
+    /**
+     * ログの設定より前に発生したエラーをダイアログで表示します
+     */
+    private static void showStartupError(String message) {
+        System.err.println(message);
+        GuiManager guiManager = new GuiManager();
+        guiManager.showWindow();
+        guiManager.showErrorDialog(message, "エラー");
+        guiManager.closeWindow();
+    }
+    
     /**
      * ログファイルの設定を行います
      * TeeOutputStream を使用してコンソールとログファイルの両方に出力します
+     * ログファイルへの書き込みは {@link AsyncLogWriter} のスレッドがまとめて行うため、出力元のスレッドはディスク I/O を待ちません
+     * @param fileName ゲームディレクトリに作成するログファイルの名前
      */
-    private static void setupLogFile(Path gameDir) {
+    private static void setupLogFile(Path gameDir, UpdaterConfig config, String fileName) {
         try {
-            Path logFilePath = gameDir.resolve("updater.log");
+            Path logFilePath = gameDir.resolve(fileName);
             
             // ログファイルを強制的に作成・上書き
-            FileOutputStream logFile = new FileOutputStream(logFilePath.toFile(), false); // 上書きモード
+            AsyncLogWriter.OverflowPolicy overflowPolicy =
+                "drop".equalsIgnoreCase(config.getString("log.overflow", "block"))
+                    ? AsyncLogWriter.OverflowPolicy.DROP : AsyncLogWriter.OverflowPolicy.BLOCK;
+            logWriter = new AsyncLogWriter(logFilePath, (int) config.getLong("log.queue.capacity", 8192), overflowPolicy);
             
             // 元の System.out と System.err を保存
             OutputStream originalOut = System.out;
             OutputStream originalErr = System.err;
             
             // TeeOutputStream を使用して、コンソールとログファイルの両方に出力
-            TeeOutputStream teeOut = new TeeOutputStream(originalOut, logFile);
-            TeeOutputStream teeErr = new TeeOutputStream(originalErr, logFile);
+            TeeOutputStream teeOut = new TeeOutputStream(originalOut, logWriter);
+            TeeOutputStream teeErr = new TeeOutputStream(originalErr, logWriter);
             
-            // UTF-8 エンコーディングで PrintStream を作成（autoFlush = true）
+            // UTF-8 エンコーディングで PrintStream を作成（ログファイルへのフラッシュは AsyncLogWriter がまとめて行う）
             PrintStream teePrintStreamOut = new PrintStream(teeOut, true, "UTF-8");
             PrintStream teePrintStreamErr = new PrintStream(teeErr, true, "UTF-8");
             
@@ -102,7 +357,6 @@ public class Updater {
             
             System.out.println("ログ出力を開始しました: " + logFilePath);
             System.out.println("ログファイル設定完了");
-            System.out.flush(); // 強制的にフラッシュ
             
         } catch (Exception e) {
             // ログファイル設定に失敗した場合は標準出力にエラーを表示
@@ -110,13 +364,166 @@ public class Updater {
             e.printStackTrace();
         }
     }
+    
+    /**
+     * ここまでのログをファイルに書き込みます
+     * エラー発生時など、直後にプロセスが終了する可能性がある場合に呼び出します
+     */
+    private static void syncLog() {
+        if (logWriter != null) {
+            logWriter.sync(Duration.ofSeconds(2));
+        }
+    }
 
     /**
      * CA 証明書のアンインストールを処理します
      */
-    private static void handleUninstallCA(GuiManager guiManager) {
+    private static void handleUninstallCA(Path gameDir, GuiManager guiManager) throws Exception {
         System.out.println("CA証明書のアンインストールを実行します。");
-        CertificateManager.uninstallCACertificate(guiManager);
+        CertificateManager.uninstallCACertificate(guiManager, getCACheckCacheFile(gameDir));
+    }
+    
+    /**
+     * Modpack の検証（--verify）と修復（--repair）を処理します
+     * 修復はゲームディレクトリに書き込むため、Minecraft の終了を待ってから行います
+     */
+    private static void handleVerify(Path gameDir, UpdaterConfig config, boolean repair, GuiManager guiManager) throws Exception {
+        System.out.println(repair ? "Modpack の検証と修復を実行します。" : "Modpack の検証を実行します。");
+        
+        VersionManager versionManager = new VersionManager();
+        HttpCache httpCache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+        versionManager.fetchLatestVersionInfo(httpCache, config.getMinutes("version.cache.ttl.minutes", 30), false);
+        
+        if (repair) {
+            MinecraftProcessWatcher watcher = new MinecraftProcessWatcher(Pattern.compile(
+                config.getString("minecraft.process.pattern", MinecraftProcessWatcher.DEFAULT_COMMAND_PATTERN)));
+            ProcessManager.waitForMinecraftExit(guiManager, watcher, config.getMinutes("minecraft.exit.timeout.minutes", 0));
+        }
+        
+        FileIndex fileIndex = FileIndex.open(gameDir);
+        ModpackVerifier.Result result = ModpackVerifier.verify(gameDir, versionManager.getMinecraftVersion(),
+            httpCache, fileIndex, repair);
+        fileIndex.save();
+        
+        guiManager.showInfoDialog(result.getSummary(), repair ? "Modpack の修復" : "Modpack の検証");
+    }
+    
+    /**
+     * スナップショットへのロールバック（--rollback）を処理します
+     * ゲームディレクトリのディレクトリを入れ替えるため、Minecraft の終了を待ってから行います
+     */
+    private static void handleRollback(Path gameDir, UpdaterConfig config, int number, GuiManager guiManager) throws Exception {
+        System.out.println("スナップショット " + number + " へのロールバックを実行します。");
+        
+        MinecraftProcessWatcher watcher = new MinecraftProcessWatcher(Pattern.compile(
+            config.getString("minecraft.process.pattern", MinecraftProcessWatcher.DEFAULT_COMMAND_PATTERN)));
+        ProcessManager.waitForMinecraftExit(guiManager, watcher, config.getMinutes("minecraft.exit.timeout.minutes", 0));
+        
+        FileIndex fileIndex = FileIndex.open(gameDir);
+        SnapshotManager.Snapshot snapshot = SnapshotManager.rollback(gameDir, number, fileIndex);
+        fileIndex.save();
+        
+        guiManager.showInfoDialog("Modpack を " + snapshot + " の状態に戻しました。\n"
+            + "元に戻す場合は --rollback 1 を実行してください。\n"
+            + "次回の通常起動では最新の Modpack に更新されます。", "ロールバック");
+    }
+    
+    /**
+     * --rollback に指定されたスナップショットの番号を取得します
+     * 番号が指定されていない場合は 1（最新）を返します
+     */
+    private static int getRollbackNumber(Path gameDir, String[] args) throws IOException {
+        if (args.length < 2) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("スナップショットの番号が正しくありません: " + args[1] + "\n例: --rollback 1\n"
+                + SnapshotManager.describe(SnapshotManager.list(gameDir)));
+        }
+    }
+    
+    /**
+     * --export-bundle / --import-bundle に指定されたバンドルのファイルを取得します
+     */
+    private static Path getBundleFile(String[] args) {
+        if (args.length < 2 || args[1].startsWith("--")) {
+            throw new RuntimeException("バンドルのファイルを指定してください。\n例: " + args[0] + " abcd-modpack.zip");
+        }
+        return Path.of(args[1]).toAbsolutePath();
+    }
+    
+    /**
+     * 配信中の Modpack のバンドルの作成（--export-bundle）を処理します
+     * ゲームディレクトリには書き込まないため、Minecraft の実行中でも行えます
+     */
+    private static void handleExportBundle(Path gameDir, UpdaterConfig config, Path bundleFile, GuiManager guiManager) throws Exception {
+        VersionManager versionManager = new VersionManager();
+        HttpCache httpCache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+        versionManager.fetchLatestVersionInfo(httpCache, Duration.ZERO, false);
+        if (versionManager.isUpdateRequired()) {
+            String message = versionManager.generateUpdateMessage();
+            System.out.println(message);
+            guiManager.showInfoDialog(message, "通知");
+            return;
+        }
+        
+        List<ProgressListener> progressListeners = List.of(guiManager.createProgressListener(),
+            new ConsoleProgressListener(config.getSeconds("progress.log.interval.seconds", 5)));
+        ModpackBundle.export(gameDir, bundleFile, versionManager.getMinecraftVersion(), httpCache,
+            (int) config.getLong("download.parallelism", 4), progressListeners);
+        guiManager.showInfoDialog("バンドルを作成しました:\n" + bundleFile + "\n\n"
+            + "他の PC では --import-bundle <ファイル> を指定して起動すると、ネットワークに接続せずに適用できます。", "バンドルの作成");
+    }
+    
+    /**
+     * バンドルからの Modpack の適用（--import-bundle）を処理します
+     * 通常の更新と同じ準備フェーズとコミットフェーズで適用し、ネットワークには接続しません。
+     * 適用後はバンドルのマニフェストで --verify と同じ検証を行います
+     */
+    private static void handleImportBundle(Path gameDir, UpdaterConfig config, Path bundleFile, GuiManager guiManager) throws Exception {
+        try (ModpackBundle bundle = ModpackBundle.open(bundleFile)) {
+            String minecraftVersion = bundle.getMinecraftVersion();
+            
+            // 3. バンドルを先頭から読み込みながらステージング
+            List<ProgressListener> progressListeners = List.of(guiManager.createProgressListener(),
+                new ConsoleProgressListener(config.getSeconds("progress.log.interval.seconds", 5)));
+            StagedUpdate stagedUpdate = bundle.stage(gameDir, progressListeners);
+            
+            // 4. Minecraft プロセスの確認
+            MinecraftProcessWatcher watcher = new MinecraftProcessWatcher(Pattern.compile(
+                config.getString("minecraft.process.pattern", MinecraftProcessWatcher.DEFAULT_COMMAND_PATTERN)));
+            ProcessManager.waitForMinecraftExit(guiManager, watcher, config.getMinutes("minecraft.exit.timeout.minutes", 0));
+            
+            // 5. Fabric のバージョンプロファイルはバンドルに含まれる内容を書き込む
+            // 6. ランチャープロファイルの更新
+            withLauncherLock(config, () -> {
+                FabricInstaller.writeFabricProfile(minecraftVersion, bundle.getLoaderVersion(), bundle.getFabricProfileJson());
+                ProfileManager.updateLauncherProfiles(minecraftVersion, bundle.getLoaderVersion(), gameDir,
+                    getInstanceName(gameDir));
+                return null;
+            });
+            stagedUpdate.getJournal().recordStep("profile");
+            
+            // 7. スナップショットの作成と Modpack 更新の適用
+            FileIndex fileIndex = commitUpdate(gameDir, config, stagedUpdate, minecraftVersion);
+            
+            ModpackVerifier.Result result = ModpackVerifier.verify(gameDir, bundle.getManifest(), fileIndex);
+            if (!result.isInSync()) {
+                guiManager.showInfoDialog(result.getSummary(), "Modpack の検証");
+            }
+            
+            finishAndLaunch(gameDir, config, new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http")), fileIndex,
+                stagedUpdate.getJournal(), minecraftVersion, guiManager);
+        }
+    }
+    
+    /**
+     * CA 証明書のインストール済み確認結果を保存するファイルのパスを取得します
+     */
+    private static Path getCACheckCacheFile(Path gameDir) throws Exception {
+        return FileUtils.getUpdaterDir(gameDir, "cache").resolve("ca-certificate.properties");
     }
 
     /**
@@ -151,6 +558,16 @@ public class Updater {
         System.out.println("  --help          このヘルプを表示");
         System.out.println("  --version       バージョン情報を表示");
         System.out.println("  --uninstall-ca  CA証明書をアンインストール");
+        System.out.println("  --offline       サーバーに接続できない場合、前回取得した情報で起動");
+        System.out.println("  --verify        Modpack が配信内容と一致しているか検証");
+        System.out.println("  --repair        Modpack を検証し、不足・破損したファイルのみ修復");
+        System.out.println("  --rollback [n]  Modpack を n 番目（既定は 1 = 最新）の更新前スナップショットに戻す");
+        System.out.println("  --export-bundle <ファイル> 配信中の Modpack をオフライン適用用のバンドルに書き出す");
+        System.out.println("  --import-bundle <ファイル> バンドルから Modpack をネットワークに接続せずに適用する");
+        System.out.println("  --instance <名前> 既定とは別のインスタンス（.minecraft_abcd-<名前>）を対象にする");
+        System.out.println("  --daemon [--once] GUI を表示せず、バックグラウンドで Modpack の更新を事前取得する");
+        System.out.println("  --serve-cache [ポート] コンテンツストアを LAN 内の他の PC に配信する");
+        System.out.println("  --peer <URL>    LAN キャッシュサーバーから先にファイルを取得する（他のオプションと組み合わせ可能）");
         System.out.println("");
         System.out.println("オプションを指定しない場合は通常の更新処理を実行します。");
         
@@ -161,7 +578,17 @@ public class Updater {
             "オプション:\n" +
             "  --help          このヘルプを表示\n" +
             "  --version       バージョン情報を表示\n" +
-            "  --uninstall-ca  CA証明書をアンインストール\n\n" +
+            "  --uninstall-ca  CA証明書をアンインストール\n" +
+            "  --offline       サーバーに接続できない場合、前回取得した情報で起動\n" +
+            "  --verify        Modpack が配信内容と一致しているか検証\n" +
+            "  --repair        Modpack を検証し、不足・破損したファイルのみ修復\n" +
+            "  --rollback [n]  Modpack を n 番目（既定は 1 = 最新）の更新前スナップショットに戻す\n" +
+            "  --export-bundle <ファイル> 配信中の Modpack をオフライン適用用のバンドルに書き出す\n" +
+            "  --import-bundle <ファイル> バンドルから Modpack をネットワークに接続せずに適用する\n" +
+            "  --instance <名前> 既定とは別のインスタンス（.minecraft_abcd-<名前>）を対象にする\n" +
+            "  --daemon [--once] GUI を表示せず、バックグラウンドで Modpack の更新を事前取得する\n" +
+            "  --serve-cache [ポート] コンテンツストアを LAN 内の他の PC に配信する\n" +
+            "  --peer <URL>    LAN キャッシュサーバーから先にファイルを取得する（他のオプションと組み合わせ可能）\n\n" +
             "オプションを指定しない場合は通常の更新処理を実行します。",
             "ヘルプ"
         );
@@ -170,12 +597,13 @@ public class Updater {
     /**
      * メインの更新処理を実行します
      */
-    private static void runMainUpdateProcess(Path gameDir, GuiManager guiManager) throws Exception {
+    private static void runMainUpdateProcess(Path gameDir, UpdaterConfig config, boolean offline, GuiManager guiManager) throws Exception {
         System.out.println("A-B-C-D Modpack Updater を開始します...");
 
-        // 2. バージョン確認
+        // 2. バージョン確認（TTL 内であれば前回の結果を再利用）
         VersionManager versionManager = new VersionManager();
-        versionManager.fetchLatestVersionInfo();
+        HttpCache httpCache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+        versionManager.fetchLatestVersionInfo(httpCache, config.getMinutes("version.cache.ttl.minutes", 30), offline);
 
         if (versionManager.isUpdateRequired()) {
             String message = versionManager.generateUpdateMessage();
@@ -187,30 +615,129 @@ public class Updater {
             return;
         }
 
-        // 3. Minecraft プロセスの確認
-        ProcessManager.waitForMinecraftExit(guiManager);
-
-        // 4. Java 実行ファイルの検出
-        Path javaExe = JavaDetector.detectJava();
-        if (javaExe == null) {
-            String errorMessage = "Java 実行ファイルが見つかりません。\n" +
-                "Minecraft Java Edition または Java Development Kit (JDK) をインストールしてください。";
-            System.err.println(errorMessage);
-            guiManager.showErrorDialog(errorMessage, "Java 実行環境エラー");
-            return;
+        // 3. Modpack 更新の準備（ダウンロードと展開をステージングするため、Minecraft の実行中でも行える）
+        StagedUpdate stagedUpdate = null;
+        if (!versionManager.isCachedOnly()) {
+            // 進捗はプログレスバーに表示し、遅い環境の調査のため一定間隔でログにも出力する
+            List<ProgressListener> progressListeners = List.of(guiManager.createProgressListener(),
+                new ConsoleProgressListener(config.getSeconds("progress.log.interval.seconds", 5)));
+            stagedUpdate = ModpackProcessor.prepareModpackList(gameDir, versionManager.getMinecraftVersion(),
+                (int) config.getLong("download.parallelism", 4), progressListeners);
         }
 
-        // 5. Fabric インストーラーの取得と実行
-        String fabricVersion = FabricInstaller.fetchLatestFabricVersion();
-        Path fabricJar = FabricInstaller.downloadFabricInstaller(gameDir, fabricVersion);
-        String loaderVersion = FabricInstaller.runFabricInstaller(javaExe, fabricJar, versionManager.getMinecraftVersion());
+        // 4. Minecraft プロセスの確認（ここから先がゲームディレクトリへの書き込み）
+        MinecraftProcessWatcher watcher = new MinecraftProcessWatcher(Pattern.compile(
+            config.getString("minecraft.process.pattern", MinecraftProcessWatcher.DEFAULT_COMMAND_PATTERN)));
+        ProcessManager.waitForMinecraftExit(guiManager, watcher, config.getMinutes("minecraft.exit.timeout.minutes", 0));
 
-        // 6. ランチャープロファイルの更新
-        ProfileManager.updateLauncherProfiles(versionManager.getMinecraftVersion(), loaderVersion, gameDir);
+        if (versionManager.isCachedOnly()) {
+            // サーバーに接続できないため、ダウンロードを伴う処理を省略して現在のインストール内容で起動する
+            System.out.println("オフラインモードのため、Fabric と Modpack の更新を省略します。");
+            finishAndLaunch(gameDir, config, httpCache, FileIndex.open(gameDir), null, versionManager.getMinecraftVersion(), guiManager);
+            return;
+        }
 
-        // 7. Modpack リストの処理
-        ModpackProcessor.processModpackList(gameDir, versionManager.getMinecraftVersion());
+        // 完了したジャーナルは削除済みだが、途中で中断した場合もファイルを開いたままにしない
+        try {
+            // 5. Fabric のインストール（プロセス内で実行し、失敗時のみインストーラーを起動）
+            // 6. ランチャープロファイルの更新
+            String loaderVersion = withLauncherLock(config, () -> {
+                String installedVersion = installFabric(gameDir, versionManager.getMinecraftVersion(), guiManager);
+                if (installedVersion != null) {
+                    ProfileManager.updateLauncherProfiles(versionManager.getMinecraftVersion(), installedVersion, gameDir,
+                        getInstanceName(gameDir));
+                }
+                return installedVersion;
+            });
+            if (loaderVersion == null) {
+                return;
+            }
+            stagedUpdate.getJournal().recordStep("profile");
+            
+            // 7. スナップショットの作成と Modpack 更新の適用
+            FileIndex fileIndex = commitUpdate(gameDir, config, stagedUpdate, versionManager.getMinecraftVersion());
+            
+            finishAndLaunch(gameDir, config, httpCache, fileIndex, stagedUpdate.getJournal(), versionManager.getMinecraftVersion(),
+                guiManager);
+        } finally {
+            stagedUpdate.getJournal().close();
+        }
+        
+        // 14. 次の Minecraft バージョンの予告が取り消されていれば、事前準備した内容を破棄する
+        // 準備自体はゲームの動作を妨げないよう、事前取得デーモン（--daemon）が低い優先度で行う
+        discardNextVersion(gameDir, versionManager);
+    }
+    
+    /**
+     * 更新前のスナップショットを作成し（ハードリンクのため、ファイルのコピーは行わない）、
+     * ステージング済みの Modpack 更新を適用します（削除対象は前回の起動で保存した索引から探す）
+     * @return 適用後のゲームディレクトリの索引
+     */
+    private static FileIndex commitUpdate(Path gameDir, UpdaterConfig config, StagedUpdate stagedUpdate,
+            String minecraftVersion) throws Exception {
+        takeSnapshot(gameDir, config, minecraftVersion, stagedUpdate.getJournal());
+        // mods と resourcepacks のファイルはインスタンス間で共有するコンテンツストアを経由して配置する
+        FileIndex fileIndex = FileIndex.open(gameDir);
+        ContentStore store = config.getBoolean("store.enabled", true) ? ContentStore.open(getSharedDir(config)) : null;
+        ProcessLock storeLock = store != null ? store.lock(true) : null;
+        try {
+            ModpackProcessor.commitStagedUpdate(stagedUpdate, fileIndex, store);
+            if (store != null) {
+                store.writeRefs(gameDir, ContentStore.collectHashes(fileIndex));
+            }
+        } finally {
+            if (storeLock != null) {
+                storeLock.close();
+            }
+        }
+        if (store != null) {
+            // 整理に失敗してもストアに不要なファイルが残るだけなので、処理は続行する
+            try {
+                store.collectGarbage();
+            } catch (IOException e) {
+                System.err.println("コンテンツストアの整理に失敗しました: " + e.getMessage());
+            }
+        }
+        return fileIndex;
+    }
+    
+    /**
+     * 次の Minecraft バージョンの予告が取り消された、または変更された場合に、事前準備した内容を破棄します
+     * 破棄に失敗しても、次回の確認で破棄し直すだけなので処理は続行します
+     */
+    private static void discardNextVersion(Path gameDir, VersionManager versionManager) {
+        try {
+            ModpackProcessor.discardNextVersion(gameDir, versionManager.getNextMinecraftVersion());
+        } catch (IOException e) {
+            System.err.println("事前準備した Modpack の破棄に失敗しました: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Modpack 更新を適用する前のスナップショットを作成します
+     * 中断された更新を再開する場合は、前回の実行で更新前の状態を保存済みのため作成しません。
+     * スナップショットを作成できなくても更新は続行します
+     */
+    private static void takeSnapshot(Path gameDir, UpdaterConfig config, String minecraftVersion,
+            UpdateJournal journal) throws IOException {
+        int keep = (int) config.getLong("snapshot.keep", 3);
+        if (keep <= 0 || journal.isStepDone("snapshot")) {
+            return;
+        }
+        try {
+            SnapshotManager.create(gameDir, minecraftVersion, keep);
+        } catch (IOException e) {
+            System.err.println("スナップショットの作成に失敗しました: " + e.getMessage());
+        }
+        journal.recordStep("snapshot");
+    }
+    
+    /**
+     * ローカルの設定ファイルを更新し、ランチャーを起動します
+     * 更新のジャーナルがある場合は、options.txt の更新まで終えた時点で完了として削除します
+     */
+    private static void finishAndLaunch(Path gameDir, UpdaterConfig config, HttpCache httpCache, FileIndex fileIndex,
+            UpdateJournal journal, String minecraftVersion, GuiManager guiManager) throws Exception {
         // 8. NBTファイルの servers.dat に mc.a-b-c-d.com へのサーバーが無ければ追加
         Path serverDatPath = gameDir.resolve("servers.dat");
         if (!FileUtils.containsServerEntry(serverDatPath, "mc.a-b-c-d.com")) {
@@ -220,15 +747,31 @@ public class Updater {
             System.out.println("servers.dat に既に mc.a-b-c-d.com のサーバーエントリが存在します。");
         }
 
-        // 9. options.txt の更新
-        FileUtils.updateOptions(gameDir);
+        // 9. options.txt の更新（書き換え内容は options-modify.txt で定義）
+        try {
+            OptionsPatcher.load(httpCache, config.getString("options.modify.url", null),
+                config.getMinutes("version.cache.ttl.minutes", 30)).apply(gameDir, fileIndex);
+        } catch (IOException e) {
+            System.err.println("options.txt の更新に失敗しました: " + e.getMessage());
+        }
 
+        // 索引の保存に失敗しても次回の起動でディレクトリを走査し直すだけなので、処理は続行する
+        try {
+            fileIndex.save();
+        } catch (IOException e) {
+            System.err.println("ファイル索引の保存に失敗しました: " + e.getMessage());
+        }
+        if (journal != null) {
+            journal.recordStep("options");
+            journal.complete();
+        }
+        
         // 10. CA 証明書の確認とインストール
-        CertificateManager.checkAndInstallCACertificate(guiManager);
+        CertificateManager.checkAndInstallCACertificate(guiManager, getCACheckCacheFile(gameDir));
 
         // 12. 完了メッセージ
-        String completionMessage = "マインクラフトのランチャーを起動します。\n起動構成「A-B-C-D " + 
-            versionManager.getMinecraftVersion() + "」からプレイしてください。";
+        String completionMessage = "マインクラフトのランチャーを起動します。\n起動構成「" +
+            ProfileManager.getProfileName(minecraftVersion, getInstanceName(gameDir)) + "」からプレイしてください。";
         System.out.println(completionMessage);
         guiManager.showInfoDialog(completionMessage, "正常に完了しました。");
 
@@ -236,4 +779,33 @@ public class Updater {
         new ProcessBuilder("explorer.exe", "shell:AppsFolder\\Microsoft.4297127D64EC6_8wekyb3d8bbwe!Minecraft").start();
 
     }
+
+    /**
+     * Fabric Loader をインストールします
+     * 通常は Fabric Meta から直接プロファイルを書き込み、失敗した場合のみ Fabric インストーラーを別プロセスで実行します
+     * @return インストールされた Fabric Loader のバージョン。Java が見つからず続行できない場合は null
+     */
+    private static String installFabric(Path gameDir, String minecraftVersion, GuiManager guiManager) throws Exception {
+        try {
+            return FabricInstaller.installFabricProfile(minecraftVersion);
+        } catch (Exception e) {
+            System.err.println("プロセス内での Fabric インストールに失敗しました。インストーラーを使用します: " + e.getMessage());
+        }
+
+        // Java 実行ファイルの検出
+        Path javaExe = JavaDetector.detectJava(
+            FileUtils.getUpdaterDir(gameDir, "cache").resolve("java-runtimes.properties"), 17);
+        if (javaExe == null) {
+            String errorMessage = "Java 実行ファイルが見つかりません。\n" +
+                "Minecraft Java Edition または Java Development Kit (JDK) をインストールしてください。";
+            System.err.println(errorMessage);
+            guiManager.showErrorDialog(errorMessage, "Java 実行環境エラー");
+            return null;
+        }
+
+        // Fabric インストーラーの取得と実行
+        String fabricVersion = FabricInstaller.fetchLatestFabricVersion(gameDir);
+        Path fabricJar = FabricInstaller.downloadFabricInstaller(gameDir, fabricVersion);
+        return FabricInstaller.runFabricInstaller(javaExe, fabricJar, minecraftVersion);
+    }
 }
@@ -4,14 +4,21 @@ import com.abcd.modpack.gui.GuiManager;
 
 import javax.swing.JOptionPane;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.concurrent.TimeUnit;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Properties;
 
 /**
  * CA 証明書の管理を行うクラス
@@ -21,29 +28,56 @@ public class CertificateManager {
     private static final String CA_CERTIFICATE_SUBJECT = "ABCD Development CA";
     private static final String CA_CERTIFICATE_RESOURCE_PATH = "/ca-certificate.pem";
     private static final String DEV_CERTIFICATE_PATH = "certificates/ca-certificate.pem";
-    private static final int POWERSHELL_TIMEOUT_SECONDS = 5;
+    private static final Duration INSTALLED_CACHE_TTL = Duration.ofDays(7);
     
     /**
      * CA 証明書の確認とインストールを行います
      * @param guiManager GUI マネージャー
      */
     public static void checkAndInstallCACertificate(GuiManager guiManager) {
+        checkAndInstallCACertificate(guiManager, TrustStore.forPlatform(), null);
+    }
+    
+    /**
+     * CA 証明書の確認とインストールを行います
+     * @param guiManager GUI マネージャー
+     * @param cacheFile インストール済みと確認できた結果を保存するファイル。null の場合は保存しない
+     */
+    public static void checkAndInstallCACertificate(GuiManager guiManager, Path cacheFile) {
+        checkAndInstallCACertificate(guiManager, TrustStore.forPlatform(), cacheFile);
+    }
+    
+    /**
+     * CA 証明書の確認とインストールを行います
+     * 確認は証明書ストアの SHA-256 フィンガープリントを JVM 内で照合して行い、PowerShell はインストール時のみ起動します
+     * @param guiManager GUI マネージャー
+     * @param trustStore 確認する証明書ストア
+     * @param cacheFile インストール済みと確認できた結果を保存するファイル。null の場合は保存しない
+     */
+    public static void checkAndInstallCACertificate(GuiManager guiManager, TrustStore trustStore, Path cacheFile) {
         try {
             System.out.println("CA証明書の確認を開始します...");
             
-            // CA 証明書のパスを取得
-            Path certPath = getCACertificatePath();
-            if (certPath == null || !Files.exists(certPath)) {
+            // CA 証明書を読み込み
+            byte[] certPem = loadCACertificate();
+            if (certPem == null) {
                 System.out.println("CA証明書ファイルが見つかりません。");
                 return;
             }
+            String fingerprint = computeFingerprint(certPem);
+            System.out.println("CA証明書の SHA-256 フィンガープリント: " + fingerprint);
             
-            System.out.println("CA証明書ファイルが見つかりました: " + certPath);
+            // 前回インストール済みと確認できていれば、証明書ストアの確認を省略
+            if (isCachedAsInstalled(cacheFile, fingerprint)) {
+                System.out.println("CA証明書は既にインストールされています（前回の確認結果を使用）。");
+                return;
+            }
             
             // 証明書がインストール済みかチェック
             boolean isInstalled = false;
             try {
-                isInstalled = isCACertificateInstalled();
+                System.out.println("証明書ストアを確認中: " + trustStore.describe());
+                isInstalled = trustStore.contains(fingerprint);
             } catch (Exception e) {
                 System.err.println("証明書確認でエラーが発生しました。インストールを試行します: " + e.getMessage());
                 isInstalled = false;
@@ -51,6 +85,7 @@ public class CertificateManager {
             
             if (isInstalled) {
                 System.out.println("CA証明書は既にインストールされています。");
+                storeInstalledCache(cacheFile, fingerprint);
                 return;
             }
             
@@ -58,7 +93,7 @@ public class CertificateManager {
             
             // ユーザーに確認
             if (showInstallConfirmDialog(guiManager)) {
-                installCACertificate(certPath, guiManager);
+                installCACertificate(writeTempCertificate(certPem), guiManager);
             } else {
                 System.out.println("CA証明書のインストールをスキップしました。");
             }
@@ -74,8 +109,20 @@ public class CertificateManager {
      * @param guiManager GUI マネージャー
      */
     public static void uninstallCACertificate(GuiManager guiManager) {
+        uninstallCACertificate(guiManager, null);
+    }
+    
+    /**
+     * CA 証明書をアンインストールし、インストール済みの確認結果を破棄します
+     * @param guiManager GUI マネージャー
+     * @param cacheFile インストール済みの確認結果を保存したファイル。null の場合は何もしない
+     */
+    public static void uninstallCACertificate(GuiManager guiManager, Path cacheFile) {
         try {
             System.out.println("CA証明書をアンインストールしています...");
+            if (cacheFile != null) {
+                Files.deleteIfExists(cacheFile);
+            }
             
             // PowerShell コマンドで証明書をアンインストール
             ProcessBuilder pb = new ProcessBuilder(
@@ -111,35 +158,28 @@ public class CertificateManager {
     }
     
     /**
-     * CA 証明書ファイルのパスを取得します
-     * @return 証明書ファイルのパス。見つからない場合は null
+     * CA 証明書（PEM 形式）を読み込みます
+     * JAR ファイル内のリソース、開発環境のパス、実行ディレクトリの順に探します
+     * @return 証明書の内容。見つからない場合は null
      */
-    private static Path getCACertificatePath() {
-        try {
-            // JAR ファイル内の ca-certificate.pem を一時ファイルにコピー
-            InputStream certStream = CertificateManager.class.getResourceAsStream(CA_CERTIFICATE_RESOURCE_PATH);
+    private static byte[] loadCACertificate() {
+        try (InputStream certStream = CertificateManager.class.getResourceAsStream(CA_CERTIFICATE_RESOURCE_PATH)) {
             if (certStream != null) {
-                Path tempCert = Files.createTempFile("ca-certificate", ".pem");
-                Files.copy(certStream, tempCert, StandardCopyOption.REPLACE_EXISTING);
-                certStream.close();
-                return tempCert;
+                return certStream.readAllBytes();
             }
         } catch (IOException e) {
             System.err.println("JARファイル内からCA証明書を読み込めませんでした: " + e.getMessage());
         }
         
-        // JAR ファイル内にない場合は、開発環境のパスを試す
-        Path devCertPath = Paths.get(DEV_CERTIFICATE_PATH);
-        if (Files.exists(devCertPath)) {
-            return devCertPath;
-        }
-        
-        // 実行ファイルと同じディレクトリを確認
+        // JAR ファイル内にない場合は、開発環境のパスと実行ファイルと同じディレクトリを確認
         try {
-            Path currentDir = Paths.get(System.getProperty("user.dir"));
-            Path certPath = currentDir.resolve("ca-certificate.pem");
+            Path devCertPath = Paths.get(DEV_CERTIFICATE_PATH);
+            if (Files.exists(devCertPath)) {
+                return Files.readAllBytes(devCertPath);
+            }
+            Path certPath = Paths.get(System.getProperty("user.dir")).resolve("ca-certificate.pem");
             if (Files.exists(certPath)) {
-                return certPath;
+                return Files.readAllBytes(certPath);
             }
         } catch (Exception e) {
             System.err.println("証明書パスの解決に失敗しました: " + e.getMessage());
@@ -149,57 +189,67 @@ public class CertificateManager {
     }
     
     /**
-     * CA 証明書がインストール済みかどうかを確認します
-     * @return インストール済みの場合は true
+     * 証明書の SHA-256 フィンガープリントを計算します
+     * @param certPem PEM 形式の証明書
+     * @return 小文字 16 進数のフィンガープリント
+     * @throws Exception 証明書の解析エラー
      */
-    private static boolean isCACertificateInstalled() {
-        try {
-            System.out.println("証明書ストアを確認中...");
-            
-            // PowerShell コマンドで証明書ストアを確認
-            ProcessBuilder pb = new ProcessBuilder(
-                "powershell.exe", "-ExecutionPolicy", "Bypass", "-Command",
-                "(Get-ChildItem Cert:\\LocalMachine\\Root | Where-Object {$_.Subject -match '" + CA_CERTIFICATE_SUBJECT + "'}).Count"
-            );
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            
-            System.out.println("PowerShellプロセスを開始しました...");
-            
-            String output = "";
-            
-            // 短いタイムアウトで読み取り
-            boolean finished = process.waitFor(POWERSHELL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            if (!finished) {
-                System.err.println("PowerShellコマンドがタイムアウトしました。証明書チェックをスキップします。");
-                process.destroyForcibly();
-                return false; // タイムアウト時は未インストールとして扱う
-            }
-            
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output += line.trim();
-                    System.out.println("PowerShell出力: " + line);
-                }
-            }
-            
-            int exitCode = process.exitValue();
-            System.out.println("PowerShell終了コード: " + exitCode);
-            System.out.println("証明書確認結果: " + output);
-            
-            // 数値が0より大きければ証明書がインストール済み
-            try {
-                int count = Integer.parseInt(output.trim());
-                return count > 0;
-            } catch (NumberFormatException e) {
-                System.err.println("PowerShell出力の解析に失敗しました: " + output);
-                return false; // 解析失敗時は未インストールとして扱う
-            }
-            
-        } catch (Exception e) {
-            System.err.println("証明書インストール状況の確認に失敗しました: " + e.getMessage());
-            return false; // エラー時は未インストールとして扱う
+    private static String computeFingerprint(byte[] certPem) throws Exception {
+        Certificate certificate = CertificateFactory.getInstance("X.509")
+            .generateCertificate(new ByteArrayInputStream(certPem));
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+    }
+    
+    /**
+     * インストール用に証明書を一時ファイルに書き出します
+     * @param certPem PEM 形式の証明書
+     * @return 一時ファイルのパス
+     * @throws IOException ファイル書き込みエラー
+     */
+    private static Path writeTempCertificate(byte[] certPem) throws IOException {
+        Path tempCert = Files.createTempFile("ca-certificate", ".pem");
+        Files.write(tempCert, certPem);
+        return tempCert;
+    }
+    
+    /**
+     * 前回の確認でインストール済みと判定され、その結果が有効期限内かどうかを確認します
+     * @param cacheFile 確認結果のファイル
+     * @param fingerprint 確認する証明書のフィンガープリント
+     * @return 有効なインストール済みの結果がある場合は true
+     */
+    private static boolean isCachedAsInstalled(Path cacheFile, String fingerprint) {
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(cacheFile)) {
+            Properties cache = new Properties();
+            cache.load(in);
+            long checkedAt = Long.parseLong(cache.getProperty("checkedAt", "0"));
+            return fingerprint.equals(cache.getProperty("sha256"))
+                && Instant.ofEpochMilli(checkedAt).plus(INSTALLED_CACHE_TTL).isAfter(Instant.now());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("証明書の確認結果を読み込めませんでした: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * インストール済みと確認できた結果を保存します
+     * @param cacheFile 確認結果のファイル
+     * @param fingerprint 確認した証明書のフィンガープリント
+     */
+    private static void storeInstalledCache(Path cacheFile, String fingerprint) {
+        if (cacheFile == null) {
+            return;
+        }
+        Properties cache = new Properties();
+        cache.setProperty("sha256", fingerprint);
+        cache.setProperty("checkedAt", String.valueOf(System.currentTimeMillis()));
+        try (OutputStream out = Files.newOutputStream(cacheFile)) {
+            cache.store(out, "CA certificate check");
+        } catch (IOException e) {
+            System.err.println("証明書の確認結果を保存できませんでした: " + e.getMessage());
         }
     }
     
@@ -0,0 +1,92 @@
+package com.abcd.modpack.certificate;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * {@link KeyStore} を使用した証明書ストア
+ * 証明書の確認は JVM 内で行い、外部プロセスは起動しません
+ */
+public class KeyStoreTrustStore implements TrustStore {
+    private final List<String> types;
+    private final Path file;
+    private final char[] password;
+    
+    private KeyStoreTrustStore(List<String> types, Path file, char[] password) {
+        this.types = types;
+        this.file = file;
+        this.password = password;
+    }
+    
+    /**
+     * Windows のルート証明書ストアを使用します
+     * ローカルコンピューターのストア（Windows-ROOT-LOCALMACHINE）を優先し、
+     * 利用できない JDK では現在のユーザーから見えるストア（Windows-ROOT）を使用します
+     * @return 証明書ストア
+     */
+    public static KeyStoreTrustStore windowsRoot() {
+        return new KeyStoreTrustStore(List.of("Windows-ROOT-LOCALMACHINE", "Windows-ROOT"), null, null);
+    }
+    
+    /**
+     * PKCS12 ファイルの証明書ストアを使用します
+     * @param file PKCS12 ファイルのパス
+     * @param password ストアのパスワード
+     * @return 証明書ストア
+     */
+    public static KeyStoreTrustStore pkcs12(Path file, char[] password) {
+        return new KeyStoreTrustStore(List.of("PKCS12"), file, password);
+    }
+    
+    @Override
+    public boolean contains(String sha256Fingerprint) throws Exception {
+        KeyStore keyStore = load();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String alias : Collections.list(keyStore.aliases())) {
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate == null) {
+                continue;
+            }
+            String fingerprint = HexFormat.of().formatHex(digest.digest(certificate.getEncoded()));
+            if (fingerprint.equalsIgnoreCase(sha256Fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public String describe() {
+        return file == null ? String.join(" / ", types) : types.get(0) + " (" + file + ")";
+    }
+    
+    private KeyStore load() throws Exception {
+        KeyStoreException lastException = null;
+        for (String type : types) {
+            KeyStore keyStore;
+            try {
+                keyStore = KeyStore.getInstance(type);
+            } catch (KeyStoreException e) {
+                lastException = e;
+                continue;
+            }
+            if (file == null) {
+                keyStore.load(null, null);
+            } else {
+                try (InputStream in = Files.newInputStream(file)) {
+                    keyStore.load(in, password);
+                }
+            }
+            return keyStore;
+        }
+        throw new KeyStoreException("証明書ストアを利用できません: " + describe(), lastException);
+    }
+}
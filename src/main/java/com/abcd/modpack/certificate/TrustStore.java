@@ -0,0 +1,45 @@
+package com.abcd.modpack.certificate;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * 信頼されたルート証明書ストアを抽象化するインターフェース
+ * 本番環境では Windows のルート証明書ストア、Windows 以外の環境（テストなど）では PKCS12 ファイルを使用します
+ */
+public interface TrustStore {
+    
+    /**
+     * 指定された SHA-256 フィンガープリントの証明書がストアに含まれているかどうかを確認します
+     * @param sha256Fingerprint 小文字 16 進数の SHA-256 フィンガープリント
+     * @return 含まれている場合は true
+     * @throws Exception ストアの読み込みエラー
+     */
+    boolean contains(String sha256Fingerprint) throws Exception;
+    
+    /**
+     * ストアの説明を取得します（ログ出力用）
+     * @return ストアの説明
+     */
+    String describe();
+    
+    /**
+     * 実行環境に応じた証明書ストアを取得します
+     * システムプロパティ abcd.ca.truststore が指定されている場合は、その PKCS12 ファイルを使用します
+     * （パスワードは abcd.ca.truststore.password で指定）
+     * @return 証明書ストア
+     */
+    static TrustStore forPlatform() {
+        String path = System.getProperty("abcd.ca.truststore");
+        if (path != null && !path.isBlank()) {
+            String password = System.getProperty("abcd.ca.truststore.password", "");
+            return KeyStoreTrustStore.pkcs12(Paths.get(path), password.toCharArray());
+        }
+        if (System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win")) {
+            return KeyStoreTrustStore.windowsRoot();
+        }
+        return KeyStoreTrustStore.pkcs12(Path.of(System.getProperty("java.home"), "lib", "security", "cacerts"),
+            "changeit".toCharArray());
+    }
+}
@@ -0,0 +1,154 @@
+package com.abcd.modpack.config;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * アップデーターが接続するサーバーの URL を管理するクラス
+ * 既定では本番サーバーと Fabric の公式サーバーを使用します。設定（-Dabcd.download.base.url など）で差し替えることで、
+ * ミラーサーバーやローカルの負荷試験用サーバーに接続できます
+ * download.mirrors にミラーサーバーを指定すると、Modpack のファイルは配信元とミラーサーバーのうち応答の良いものから取得します
+ */
+public class Endpoints {
+    public static final String DEFAULT_DOWNLOAD_BASE_URL = "https://a-b-c-d.com/downloads/";
+    public static final String DEFAULT_FABRIC_MAVEN_URL = "https://maven.fabricmc.net/";
+    public static final String DEFAULT_FABRIC_META_URL = "https://meta.fabricmc.net/";
+    private static final String VERSION_FILE_NAME = "abcd-mods-latest.txt";
+    
+    private static volatile Endpoints current = fromConfig(UpdaterConfig.defaults());
+    
+    private final String downloadBaseUrl;
+    private final String versionUrl;
+    private final String fabricMavenUrl;
+    private final String fabricMetaUrl;
+    private final List<String> downloadMirrorUrls;
+    
+    /**
+     * 接続先を作成します
+     * @param downloadBaseUrl Modpack のファイルを配信するディレクトリの URL
+     * @param versionUrl 最新バージョン情報の URL（null の場合は downloadBaseUrl 直下の abcd-mods-latest.txt）
+     * @param fabricMavenUrl Fabric の Maven リポジトリの URL
+     * @param fabricMetaUrl Fabric Meta の URL
+     */
+    public Endpoints(String downloadBaseUrl, String versionUrl, String fabricMavenUrl, String fabricMetaUrl) {
+        this(downloadBaseUrl, versionUrl, fabricMavenUrl, fabricMetaUrl, List.of());
+    }
+    
+    /**
+     * ミラーサーバーを含む接続先を作成します
+     * @param downloadBaseUrl Modpack のファイルを配信するディレクトリの URL
+     * @param versionUrl 最新バージョン情報の URL（null の場合は downloadBaseUrl 直下の abcd-mods-latest.txt）
+     * @param fabricMavenUrl Fabric の Maven リポジトリの URL
+     * @param fabricMetaUrl Fabric Meta の URL
+     * @param downloadMirrorUrls downloadBaseUrl と同じ内容を配信するミラーサーバーの URL
+     */
+    public Endpoints(String downloadBaseUrl, String versionUrl, String fabricMavenUrl, String fabricMetaUrl,
+            List<String> downloadMirrorUrls) {
+        this.downloadBaseUrl = withTrailingSlash(downloadBaseUrl);
+        this.versionUrl = versionUrl != null ? versionUrl : this.downloadBaseUrl + VERSION_FILE_NAME;
+        this.fabricMavenUrl = withTrailingSlash(fabricMavenUrl);
+        this.fabricMetaUrl = withTrailingSlash(fabricMetaUrl);
+        this.downloadMirrorUrls = downloadMirrorUrls.stream().map(Endpoints::withTrailingSlash).toList();
+    }
+    
+    /**
+     * 設定から接続先を作成します
+     * download.base.url のみを指定した場合、最新バージョン情報も同じサーバーから取得します
+     * @param config 設定
+     * @return 接続先
+     */
+    public static Endpoints fromConfig(UpdaterConfig config) {
+        return new Endpoints(
+            config.getString("download.base.url", DEFAULT_DOWNLOAD_BASE_URL),
+            config.getString("version.url", null),
+            config.getString("fabric.maven.url", DEFAULT_FABRIC_MAVEN_URL),
+            config.getString("fabric.meta.url", DEFAULT_FABRIC_META_URL),
+            Arrays.stream(config.getString("download.mirrors", "").split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toList());
+    }
+    
+    /**
+     * 現在の接続先を取得します
+     * @return 接続先
+     */
+    public static Endpoints current() {
+        return current;
+    }
+    
+    /**
+     * 以降の処理で使用する接続先を設定します
+     * @param endpoints 接続先
+     */
+    public static void configure(Endpoints endpoints) {
+        current = endpoints;
+        if (!endpoints.isDefault()) {
+            System.out.println("接続先: " + endpoints);
+        }
+    }
+    
+    /**
+     * Modpack のファイルを配信するディレクトリの URL を取得します
+     * @return 末尾が "/" の URL
+     */
+    public String getDownloadBaseUrl() {
+        return downloadBaseUrl;
+    }
+    
+    /**
+     * 配信元と同じ内容を配信するミラーサーバーの URL を取得します
+     * パック定義ファイルやマニフェストは常に配信元から取得し、ミラーサーバーは Modpack のファイルの取得にのみ使用します
+     * @return 末尾が "/" の URL の一覧（ミラーサーバーが無い場合は空）
+     */
+    public List<String> getDownloadMirrorUrls() {
+        return downloadMirrorUrls;
+    }
+    
+    /**
+     * 最新バージョン情報の URL を取得します
+     * @return URL
+     */
+    public String getVersionUrl() {
+        return versionUrl;
+    }
+    
+    /**
+     * Fabric の Maven リポジトリの URL を取得します
+     * @return 末尾が "/" の URL
+     */
+    public String getFabricMavenUrl() {
+        return fabricMavenUrl;
+    }
+    
+    /**
+     * Fabric Meta の URL を取得します
+     * @return 末尾が "/" の URL
+     */
+    public String getFabricMetaUrl() {
+        return fabricMetaUrl;
+    }
+    
+    /**
+     * すべて既定の接続先かどうかを取得します
+     * @return 既定の接続先の場合は true
+     */
+    public boolean isDefault() {
+        return downloadBaseUrl.equals(DEFAULT_DOWNLOAD_BASE_URL)
+            && versionUrl.equals(DEFAULT_DOWNLOAD_BASE_URL + VERSION_FILE_NAME)
+            && fabricMavenUrl.equals(DEFAULT_FABRIC_MAVEN_URL)
+            && fabricMetaUrl.equals(DEFAULT_FABRIC_META_URL)
+            && downloadMirrorUrls.isEmpty();
+    }
+    
+    @Override
+    public String toString() {
+        return "download=" + downloadBaseUrl + ", version=" + versionUrl
+            + ", fabric-maven=" + fabricMavenUrl + ", fabric-meta=" + fabricMetaUrl
+            + (downloadMirrorUrls.isEmpty() ? "" : ", mirrors=" + downloadMirrorUrls);
+    }
+    
+    private static String withTrailingSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+}
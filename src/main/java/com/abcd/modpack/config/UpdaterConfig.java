@@ -0,0 +1,114 @@
+package com.abcd.modpack.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * アップデーターの設定を管理するクラス
+ * ゲームディレクトリの .abcd/updater.properties を読み込み、同名のシステムプロパティ（"abcd." 接頭辞付き）で上書きできます
+ * 例: updater.properties の version.cache.ttl.minutes は -Dabcd.version.cache.ttl.minutes で上書きされます
+ */
+public class UpdaterConfig {
+    private static final String CONFIG_FILE_NAME = "updater.properties";
+    private static final String SYSTEM_PROPERTY_PREFIX = "abcd.";
+
+    private final Properties properties;
+
+    private UpdaterConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 設定ファイルを読み込みます。ファイルが存在しない場合は既定値のみの設定を返します
+     * @param gameDir ゲームディレクトリ
+     * @return 設定
+     */
+    public static UpdaterConfig load(Path gameDir) {
+        Properties properties = new Properties();
+        Path configPath = gameDir.resolve(".abcd").resolve(CONFIG_FILE_NAME);
+        if (Files.exists(configPath)) {
+            try (InputStream in = Files.newInputStream(configPath)) {
+                properties.load(in);
+                System.out.println("設定ファイルを読み込みました: " + configPath);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("設定ファイルの読み込みに失敗しました。既定値を使用します: " + e.getMessage());
+            }
+        }
+        return new UpdaterConfig(properties);
+    }
+
+    /**
+     * 既定値のみの設定を返します
+     * @return 設定ファイルを持たない設定
+     */
+    public static UpdaterConfig defaults() {
+        return new UpdaterConfig(new Properties());
+    }
+
+    /**
+     * 文字列の設定値を取得します
+     * @param key 設定キー
+     * @param defaultValue 未設定時の既定値
+     * @return 設定値
+     */
+    public String getString(String key, String defaultValue) {
+        String value = System.getProperty(SYSTEM_PROPERTY_PREFIX + key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * 真偽値の設定値を取得します
+     * @param key 設定キー
+     * @param defaultValue 未設定時の既定値
+     * @return 設定値
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * 整数の設定値を取得します。数値として解釈できない場合は既定値を返します
+     * @param key 設定キー
+     * @param defaultValue 未設定時の既定値
+     * @return 設定値
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("設定値が数値ではありません。既定値を使用します: " + key + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 分単位の設定値を Duration として取得します
+     * @param key 設定キー
+     * @param defaultMinutes 未設定時の既定値（分）
+     * @return 設定値
+     */
+    public Duration getMinutes(String key, long defaultMinutes) {
+        return Duration.ofMinutes(Math.max(0, getLong(key, defaultMinutes)));
+    }
+    
+    /**
+     * 秒単位の設定値を Duration として取得します
+     * @param key 設定キー
+     * @param defaultSeconds 未設定時の既定値（秒）
+     * @return 設定値
+     */
+    public Duration getSeconds(String key, long defaultSeconds) {
+        return Duration.ofSeconds(Math.max(0, getLong(key, defaultSeconds)));
+    }
+}
@@ -0,0 +1,295 @@
+package com.abcd.modpack.daemon;
+
+import com.abcd.modpack.config.UpdaterConfig;
+import com.abcd.modpack.fabric.FabricInstaller;
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.modpack.ModpackProcessor;
+import com.abcd.modpack.modpack.StagedUpdate;
+import com.abcd.modpack.modpack.UpdateJournal;
+import com.abcd.modpack.network.HttpCache;
+import com.abcd.modpack.progress.ConsoleProgressListener;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.utils.ProcessLock;
+import com.abcd.modpack.verify.ModpackManifest;
+import com.abcd.modpack.version.VersionManager;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * バックグラウンドで Modpack の更新を事前取得するデーモン
+ * 一定間隔でバージョン情報とパック定義ファイルを条件付きリクエスト（ETag / Last-Modified）で確認し、
+ * 変更があった場合のみ Modpack をステージングディレクトリにダウンロード・展開します。
+ * 記録はジャーナルに残すため、次に通常の更新を実行したときはダウンロードを省略して適用だけを行います。
+ * 次の Minecraft バージョンが予告されている場合は、そのバージョンの Modpack と Fabric プロファイルも同じ優先度で事前準備します
+ *
+ * あわせて管理対象のディレクトリ（mods、resourcepacks、config）を WatchService で監視し、
+ * 変更されたファイルのハッシュをファイル索引に記録しておきます。
+ * Windows では監視しているディレクトリの親ディレクトリの名前を変更できなくなり、更新時の管理対象ディレクトリの入れ替えを妨げるため、
+ * 監視するのは管理対象のディレクトリ自身までで、サブディレクトリは監視しません（サブディレクトリ内の変更は次回の起動時に確認されます）。
+ * ステージングと索引への書き込みは通常の更新と同じロック（.abcd/updater.lock）の中で行い、
+ * 通常の更新の実行中は何もしません
+ */
+public class PrefetchDaemon {
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+    /** ダウンロードと展開を行うスレッドもゲームの動作を妨げないよう優先度を下げる */
+    private static final ThreadFactory LOW_PRIORITY_THREADS = runnable -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    };
+    
+    private final Path gameDir;
+    private final UpdaterConfig config;
+    private final Path updaterLockFile;
+    private final Path launcherLockFile;
+    private final HttpCache httpCache;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final TreeSet<String> changedPaths = new TreeSet<>();
+    private long lastChangeMillis;
+    private String stagedUpdateId;
+    private String preparedNextUpdateId;
+    
+    /**
+     * デーモンを初期化します
+     * @param gameDir ゲームディレクトリ
+     * @param config アップデーターの設定
+     * @param launcherLockFile ランチャーのファイルを変更するときに取得する、すべてのインスタンスで共有するロックのファイル
+     * @throws IOException 作業用ディレクトリの作成エラー
+     */
+    public PrefetchDaemon(Path gameDir, UpdaterConfig config, Path launcherLockFile) throws IOException {
+        this.gameDir = gameDir;
+        this.config = config;
+        this.updaterLockFile = FileUtils.getUpdaterDir(gameDir, "").resolve("updater.lock");
+        this.launcherLockFile = launcherLockFile;
+        this.httpCache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+    }
+    
+    /**
+     * 更新の確認と事前取得を 1 回だけ行います
+     * タスクスケジューラーなどから定期的に起動する場合に使用します
+     * @return 確認を行った場合は true。通常の更新の実行中で省略した場合は false
+     */
+    public boolean runOnce() {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        return prefetch();
+    }
+    
+    /**
+     * 更新の確認と事前取得を一定間隔で繰り返し、その間はファイルの変更を監視します
+     * プロセスが終了するまで戻りません
+     * @throws IOException WatchService の作成エラー
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void run() throws IOException, InterruptedException {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        long intervalMillis = Math.max(1, config.getMinutes("daemon.interval.minutes", 60).toMillis());
+        long indexDelayMillis = config.getSeconds("daemon.index.delay.seconds", 10).toMillis();
+        System.out.println("事前取得デーモンを開始します。確認間隔: " + intervalMillis / 60000 + " 分");
+        
+        try (WatchService watchService = gameDir.getFileSystem().newWatchService()) {
+            // ゲームディレクトリ自身は、管理対象のディレクトリが作成・入れ替えされたことを検知するために監視する
+            register(watchService, gameDir);
+            for (String name : ModpackManifest.MANAGED_DIRECTORIES) {
+                if (Files.isDirectory(gameDir.resolve(name))) {
+                    register(watchService, gameDir.resolve(name));
+                }
+            }
+            
+            long nextCheckMillis = System.currentTimeMillis();
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now >= nextCheckMillis) {
+                    nextCheckMillis = now + (prefetch() ? intervalMillis : RETRY_DELAY.toMillis());
+                }
+                if (!changedPaths.isEmpty() && now >= lastChangeMillis + indexDelayMillis) {
+                    // 変更が落ち着いてから索引に記録する。通常の更新の実行中は後で再試行する
+                    if (!refreshIndex()) {
+                        lastChangeMillis = now + RETRY_DELAY.toMillis();
+                    }
+                }
+                
+                long waitMillis = nextCheckMillis - System.currentTimeMillis();
+                if (!changedPaths.isEmpty()) {
+                    waitMillis = Math.min(waitMillis, lastChangeMillis + indexDelayMillis - System.currentTimeMillis());
+                }
+                WatchKey key = watchService.poll(Math.max(1, waitMillis), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(watchService, key);
+                    key = watchService.poll();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            System.out.println("ファイルの監視を終了しました。");
+        }
+    }
+    
+    /**
+     * バージョン情報とパック定義ファイルを確認し、変更があれば Modpack をステージングします
+     * @return 確認を行った場合は true（失敗した場合を含む）。通常の更新の実行中で省略した場合は false
+     */
+    private boolean prefetch() {
+        try (ProcessLock lock = ProcessLock.tryAcquire(updaterLockFile)) {
+            if (lock == null) {
+                System.out.println("アップデーターが実行中のため、更新の確認を後で行います。");
+                return false;
+            }
+            
+            // TTL を 0 にして毎回サーバーに確認する。変更が無ければ 304 応答のため本文は転送されない
+            VersionManager versionManager = new VersionManager();
+            versionManager.fetchLatestVersionInfo(httpCache, Duration.ZERO, false);
+            if (versionManager.isUpdateRequired()) {
+                System.out.println("アップデーター本体の更新が必要なため、Modpack の事前取得は行いません。");
+                return true;
+            }
+            
+            String minecraftVersion = versionManager.getMinecraftVersion();
+            HttpCache.Entry packs = httpCache.get(ModpackProcessor.getPacksListUrl(minecraftVersion), Duration.ZERO);
+            String updateId = UpdateJournal.createUpdateId(minecraftVersion, Files.readAllBytes(packs.getBodyPath()));
+            if (updateId.equals(stagedUpdateId) && updateId.equals(UpdateJournal.getUpdateId(FileUtils.getUpdaterDir(gameDir, "")))) {
+                System.out.println("Modpack に変更はありません。ステージング済みの内容を次回の更新で使用します。");
+            } else {
+                System.out.println("Modpack の事前取得を開始します: Minecraft " + minecraftVersion);
+                StagedUpdate stagedUpdate = ModpackProcessor.prepareModpackList(gameDir, minecraftVersion,
+                    (int) config.getLong("daemon.parallelism", 1),
+                    List.of(new ConsoleProgressListener(config.getSeconds("progress.log.interval.seconds", 5))),
+                    LOW_PRIORITY_THREADS);
+                stagedUpdate.getJournal().close();
+                stagedUpdateId = updateId;
+                System.out.println("Modpack の事前取得が完了しました。次回の更新では適用のみを行います。");
+            }
+            
+            prepareNextVersion(versionManager.getNextMinecraftVersion());
+        } catch (Exception e) {
+            System.err.println("Modpack の事前取得に失敗しました。次回の確認で再試行します: " + e.getMessage());
+        }
+        return true;
+    }
+    
+    /**
+     * 次の Minecraft バージョンの Modpack と Fabric プロファイルを事前に準備します
+     * Modpack は .abcd/staging-next にステージングするだけで、ゲームディレクトリとランチャーの起動構成は変更しません。
+     * 準備に失敗しても、切り替え時に通常の更新を行うだけなので処理は続行します
+     * @param nextVersion 予告されている次の Minecraft バージョン（予告が無い場合は null）
+     */
+    private void prepareNextVersion(String nextVersion) {
+        try {
+            ModpackProcessor.discardNextVersion(gameDir, nextVersion);
+            if (nextVersion == null || !config.getBoolean("next.prepare", true)) {
+                preparedNextUpdateId = null;
+                return;
+            }
+            HttpCache.Entry packs = httpCache.get(ModpackProcessor.getPacksListUrl(nextVersion), Duration.ZERO);
+            String updateId = UpdateJournal.createUpdateId(nextVersion, Files.readAllBytes(packs.getBodyPath()));
+            if (updateId.equals(preparedNextUpdateId)
+                    && nextVersion.equals(UpdateJournal.getNextMinecraftVersion(FileUtils.getUpdaterDir(gameDir, "")))) {
+                System.out.println("次の Minecraft バージョンの Modpack は準備済みです: " + nextVersion);
+                return;
+            }
+            
+            System.out.println("次の Minecraft バージョンの事前準備を開始します: " + nextVersion);
+            ModpackProcessor.prepareNextVersion(gameDir, nextVersion, (int) config.getLong("daemon.parallelism", 1),
+                List.of(new ConsoleProgressListener(config.getSeconds("progress.log.interval.seconds", 5))),
+                LOW_PRIORITY_THREADS);
+            // バージョンのプロファイルだけを作成し、起動構成は切り替え時に更新する
+            ProcessLock launcherLock = ProcessLock.acquire(launcherLockFile, false);
+            try {
+                FabricInstaller.installFabricProfile(nextVersion);
+            } finally {
+                launcherLock.close();
+            }
+            preparedNextUpdateId = updateId;
+        } catch (Exception e) {
+            System.err.println("次の Minecraft バージョンの事前準備に失敗しました。次回の確認で再試行します: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 変更されたファイルのハッシュを計算し、ファイル索引に記録します
+     * @return 記録した場合は true。通常の更新の実行中で省略した場合は false
+     */
+    private boolean refreshIndex() {
+        try (ProcessLock lock = ProcessLock.tryAcquire(updaterLockFile)) {
+            if (lock == null) {
+                return false;
+            }
+            // 通常の更新が索引を書き換えている可能性があるため、毎回読み込み直す
+            FileIndex index = FileIndex.open(gameDir);
+            for (String path : changedPaths) {
+                Path file = gameDir.resolve(path);
+                if (Files.isRegularFile(file)) {
+                    index.sha256(path);
+                } else if (Files.isDirectory(file)) {
+                    index.list(path);
+                    index.listDirectories(path);
+                } else {
+                    index.recordReplaceTree(path);
+                    index.recordDelete(path);
+                }
+            }
+            index.save();
+            System.out.println("ファイル索引を更新しました。変更されたパス: " + changedPaths.size());
+        } catch (IOException e) {
+            // 索引は次回の起動時にも確認し直されるため、記録できなくても問題はない
+            System.err.println("ファイル索引の更新に失敗しました: " + e.getMessage());
+        }
+        changedPaths.clear();
+        return true;
+    }
+    
+    /**
+     * 監視しているディレクトリの変更を記録します
+     */
+    private void handleEvents(WatchService watchService, WatchKey key) throws IOException {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 取りこぼした変更があるため、ディレクトリごと確認し直す
+                if (!dir.equals(gameDir)) {
+                    markChanged(dir);
+                }
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (dir.equals(gameDir) && !ModpackManifest.MANAGED_DIRECTORIES.contains(path.getFileName().toString())) {
+                continue;
+            }
+            if (dir.equals(gameDir) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(watchService, path);
+            }
+            markChanged(path);
+        }
+        if (!key.reset()) {
+            // ディレクトリが削除または入れ替えられた。新しいディレクトリはゲームディレクトリの監視で検知する
+            watchedDirs.remove(key);
+        }
+    }
+    
+    private void markChanged(Path path) {
+        changedPaths.add(gameDir.relativize(path).toString().replace('\\', '/'));
+        lastChangeMillis = System.currentTimeMillis();
+    }
+    
+    private void register(WatchService watchService, Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirs.put(key, dir);
+    }
+}
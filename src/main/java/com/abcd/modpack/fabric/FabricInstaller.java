@@ -1,42 +1,208 @@
 package com.abcd.modpack.fabric;
 
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.network.HttpCache;
 import com.abcd.modpack.network.NetworkUtils;
+import com.abcd.modpack.utils.FileUtils;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Fabric Loader のインストールを管理するクラス
- * Fabric インストーラーのダウンロードと実行を提供します
+ * Fabric Meta からのプロファイル直接インストールと、
+ * フォールバックとしての Fabric インストーラーのダウンロードと実行を提供します
  */
 public class FabricInstaller {
-    private static final String FABRIC_MAVEN_URL = "https://maven.fabricmc.net/net/fabricmc/fabric-installer/";
-    private static final String FABRIC_INSTALLER_URL_TEMPLATE = 
-        "https://maven.fabricmc.net/net/fabricmc/fabric-installer/%s/fabric-installer-%s.jar";
+    // 以下のパスは Endpoints の Fabric Maven / Fabric Meta の URL からの相対パス
+    private static final String FABRIC_MAVEN_METADATA_PATH =
+        "net/fabricmc/fabric-installer/maven-metadata.xml";
+    private static final String FABRIC_INSTALLER_PATH_TEMPLATE =
+        "net/fabricmc/fabric-installer/%s/fabric-installer-%s.jar";
+    private static final String FABRIC_META_LOADER_PATH_TEMPLATE =
+        "v2/versions/loader/%s";
+    private static final String FABRIC_META_PROFILE_PATH_TEMPLATE =
+        "v2/versions/loader/%s/%s/profile/json";
+    private static final Pattern LOADER_OBJECT_PATTERN =
+        Pattern.compile("\"loader\"\\s*:\\s*(\\{[^{}]*\\})");
+    private static final Pattern VERSION_FIELD_PATTERN =
+        Pattern.compile("\"version\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern STABLE_FIELD_PATTERN =
+        Pattern.compile("\"stable\"\\s*:\\s*true");
+    private static final Pattern RELEASE_VERSION_PATTERN = Pattern.compile("[0-9]+\\.[0-9]+\\.[0-9]+");
+    private static final Duration METADATA_CACHE_TTL = Duration.ofHours(24);
+    
+    /**
+     * Fabric インストーラーを起動せずに、Fabric Meta のデータから直接プロファイルをインストールします
+     * インストーラーの client モードと同様に versions/&lt;id&gt;/&lt;id&gt;.json と空の JAR を作成します
+     * ランチャープロファイルの追加は {@code ProfileManager} が行うため、ここでは行いません
+     * @param minecraftVersion インストール対象の Minecraft バージョン
+     * @return インストールされた Fabric Loader のバージョン
+     * @throws Exception ネットワークエラーまたはファイル書き込みエラー
+     */
+    public static String installFabricProfile(String minecraftVersion) throws Exception {
+        System.out.println("Fabric Loader をプロセス内でインストール中...");
+        System.out.println("Minecraft バージョン: " + minecraftVersion);
+        
+        String loaderVersion = fetchLatestLoaderVersion(minecraftVersion);
+        writeFabricProfile(minecraftVersion, loaderVersion, fetchFabricProfileJson(minecraftVersion, loaderVersion));
+        return loaderVersion;
+    }
+    
+    /**
+     * Fabric Meta からバージョンプロファイルの JSON を取得します
+     * @param minecraftVersion Minecraft バージョン
+     * @param loaderVersion Fabric Loader バージョン
+     * @return versions/&lt;id&gt;/&lt;id&gt;.json に書き込む内容
+     * @throws Exception ネットワークエラー
+     */
+    public static String fetchFabricProfileJson(String minecraftVersion, String loaderVersion) throws Exception {
+        return NetworkUtils.fetchText(Endpoints.current().getFabricMetaUrl()
+            + String.format(FABRIC_META_PROFILE_PATH_TEMPLATE, minecraftVersion, loaderVersion));
+    }
+    
+    /**
+     * 取得済みのバージョンプロファイルを書き込みます。ネットワークには接続しません
+     * @param minecraftVersion Minecraft バージョン
+     * @param loaderVersion Fabric Loader バージョン
+     * @param profileJson Fabric Meta から取得したバージョンプロファイルの JSON
+     * @throws IOException ファイル書き込みエラー
+     */
+    public static void writeFabricProfile(String minecraftVersion, String loaderVersion, String profileJson) throws IOException {
+        String versionId = "fabric-loader-" + loaderVersion + "-" + minecraftVersion;
+        if (!profileJson.contains("\"" + versionId + "\"")) {
+            throw new RuntimeException("Fabric Meta のプロファイルが不正です。バージョン ID が見つかりません: " + versionId);
+        }
+        
+        Path versionDir = getMinecraftDir().resolve("versions").resolve(versionId);
+        Files.createDirectories(versionDir);
+        
+        // 一時ファイルに書き込んでから置き換え、途中で中断されても壊れた JSON を残さない
+        Path jsonPath = versionDir.resolve(versionId + ".json");
+        Path tempPath = versionDir.resolve(versionId + ".json.tmp");
+        Files.writeString(tempPath, profileJson, StandardCharsets.UTF_8);
+        Files.move(tempPath, jsonPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        // ランチャーはバージョンごとの JAR の存在を要求するため、インストーラーと同じく空の JAR を置く
+        Path dummyJar = versionDir.resolve(versionId + ".jar");
+        if (!Files.exists(dummyJar)) {
+            Files.createFile(dummyJar);
+        }
+        
+        System.out.println("Fabric プロファイルを書き込みました: " + jsonPath);
+        System.out.println("Fabric インストールが完了しました。Loader バージョン: " + loaderVersion);
+    }
+    
+    /**
+     * 指定された Minecraft バージョンに対応する最新の安定版 Fabric Loader バージョンを取得します
+     * @param minecraftVersion Minecraft バージョン
+     * @return Fabric Loader バージョン
+     * @throws Exception ネットワークエラーまたはバージョン解析エラー
+     */
+    public static String fetchLatestLoaderVersion(String minecraftVersion) throws Exception {
+        String json = NetworkUtils.fetchText(Endpoints.current().getFabricMetaUrl()
+            + String.format(FABRIC_META_LOADER_PATH_TEMPLATE, minecraftVersion));
+        
+        // Fabric Meta は新しい順に返すため、最初に見つかった安定版を採用する
+        Matcher loaderMatcher = LOADER_OBJECT_PATTERN.matcher(json);
+        while (loaderMatcher.find()) {
+            String loader = loaderMatcher.group(1);
+            Matcher versionMatcher = VERSION_FIELD_PATTERN.matcher(loader);
+            if (STABLE_FIELD_PATTERN.matcher(loader).find() && versionMatcher.find()) {
+                String loaderVersion = versionMatcher.group(1);
+                System.out.println("最新の Fabric Loader バージョン: " + loaderVersion);
+                return loaderVersion;
+            }
+        }
+        
+        throw new RuntimeException("Minecraft " + minecraftVersion + " に対応する Fabric Loader が見つかりませんでした。");
+    }
+    
+    /**
+     * Minecraft ランチャーのディレクトリを取得します
+     * @return .minecraft ディレクトリのパス
+     */
+    private static Path getMinecraftDir() {
+        return Paths.get(System.getenv("APPDATA"), ".minecraft");
+    }
     
     /**
      * 最新の Fabric インストーラーバージョンを取得します
+     * maven-metadata.xml をストリーミング解析し、結果はキャッシュの有効期限内であれば再取得しません
+     * @param gameDir ゲームディレクトリ（キャッシュの保存先）
      * @return 最新バージョン文字列
      * @throws Exception ネットワークエラーまたはバージョン解析エラー
      */
-    public static String fetchLatestFabricVersion() throws Exception {
+    public static String fetchLatestFabricVersion(Path gameDir) throws Exception {
         System.out.println("最新の Fabric インストーラーバージョンを取得中...");
         
-        String html = NetworkUtils.fetchText(FABRIC_MAVEN_URL);
-        Pattern pattern = Pattern.compile("href=\"([0-9]+\\.[0-9]+\\.[0-9]+)/\"");
-        Matcher matcher = pattern.matcher(html);
+        HttpCache cache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+        HttpCache.Entry entry = cache.get(Endpoints.current().getFabricMavenUrl() + FABRIC_MAVEN_METADATA_PATH, METADATA_CACHE_TTL);
+        
+        String latestVersion;
+        try (InputStream in = Files.newInputStream(entry.getBodyPath())) {
+            latestVersion = parseLatestVersion(in);
+        }
+        
+        System.out.println("最新の Fabric インストーラーバージョン: " + latestVersion);
+        return latestVersion;
+    }
+    
+    /**
+     * maven-metadata.xml から最新のリリースバージョンを取り出します
+     * &lt;release&gt; 要素があればそれを優先し、なければ &lt;version&gt; 要素の最大値を使用します
+     * @param in maven-metadata.xml の入力ストリーム
+     * @return 最新バージョン文字列
+     * @throws XMLStreamException XML 解析エラー
+     */
+    private static String parseLatestVersion(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
         
+        String release = null;
         List<String> versions = new ArrayList<>();
-        while (matcher.find()) {
-            versions.add(matcher.group(1));
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("release".equals(name)) {
+                    release = reader.getElementText().trim();
+                } else if ("version".equals(name)) {
+                    String version = reader.getElementText().trim();
+                    if (RELEASE_VERSION_PATTERN.matcher(version).matches()) {
+                        versions.add(version);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        
+        if (release != null && RELEASE_VERSION_PATTERN.matcher(release).matches()) {
+            return release;
         }
         
         if (versions.isEmpty()) {
@@ -50,22 +216,35 @@ public class FabricInstaller {
                 .toArray(), 
             Arrays::compare));
         
-        String latestVersion = versions.get(versions.size() - 1);
-        System.out.println("最新の Fabric インストーラーバージョン: " + latestVersion);
-        
-        return latestVersion;
+        return versions.get(versions.size() - 1);
     }
     
     /**
      * Fabric インストーラーをダウンロードします
-     * @param targetDir ダウンロード先ディレクトリ
+     * ダウンロード済みの JAR はチェックサムを検証したうえで再利用し、古いバージョンの JAR は削除します
+     * @param gameDir ゲームディレクトリ（キャッシュの保存先）
      * @param version ダウンロードするバージョン
      * @return ダウンロードされたファイルのパス
-     * @throws Exception ダウンロードエラー
+     * @throws Exception ダウンロードエラーまたはチェックサム不一致
      */
-    public static Path downloadFabricInstaller(Path targetDir, String version) throws Exception {
-        String url = String.format(FABRIC_INSTALLER_URL_TEMPLATE, version, version);
-        Path destinationPath = targetDir.resolve("fabric-installer-" + version + ".jar");
+    public static Path downloadFabricInstaller(Path gameDir, String version) throws Exception {
+        Path cacheDir = FileUtils.getUpdaterDir(gameDir, "cache/fabric-installer");
+        String fileName = "fabric-installer-" + version + ".jar";
+        Path destinationPath = cacheDir.resolve(fileName);
+        Path checksumPath = cacheDir.resolve(fileName + ".sha1");
+        
+        if (Files.exists(destinationPath) && Files.exists(checksumPath)) {
+            String expected = Files.readString(checksumPath, StandardCharsets.UTF_8).trim();
+            if (expected.equalsIgnoreCase(FileUtils.computeHash(destinationPath, "SHA-1"))) {
+                System.out.println("キャッシュ済みの Fabric インストーラーを使用します: " + destinationPath);
+                pruneInstallerCache(gameDir, cacheDir, fileName);
+                return destinationPath;
+            }
+            System.out.println("キャッシュ済みの Fabric インストーラーのチェックサムが一致しません。再ダウンロードします。");
+        }
+        
+        String url = Endpoints.current().getFabricMavenUrl() + String.format(FABRIC_INSTALLER_PATH_TEMPLATE, version, version);
+        Path tempPath = cacheDir.resolve(fileName + ".tmp");
         
         System.out.println("Fabric インストーラーをダウンロード中...");
         System.out.println("URL: " + url);
@@ -76,14 +255,55 @@ public class FabricInstaller {
             .build();
             
         HttpResponse<Path> response = NetworkUtils.getHttpClient()
-            .send(request, HttpResponse.BodyHandlers.ofFile(destinationPath));
+            .send(request, HttpResponse.BodyHandlers.ofFile(tempPath));
         
         if (response.statusCode() != 200) {
+            Files.deleteIfExists(tempPath);
             throw new RuntimeException("Fabric インストーラーのダウンロードに失敗しました。HTTP エラー: " + response.statusCode());
         }
         
+        // Maven リポジトリが公開している SHA-1 と照合する
+        String actual = FileUtils.computeHash(tempPath, "SHA-1");
+        String expected = NetworkUtils.fetchText(url + ".sha1").trim().split("\\s+")[0];
+        if (!expected.equalsIgnoreCase(actual)) {
+            Files.deleteIfExists(tempPath);
+            throw new RuntimeException("Fabric インストーラーのチェックサムが一致しません。期待値: " + expected + " 実際: " + actual);
+        }
+        
+        Files.move(tempPath, destinationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.writeString(checksumPath, actual, StandardCharsets.UTF_8);
+        pruneInstallerCache(gameDir, cacheDir, fileName);
+        
         System.out.println("Fabric インストーラーのダウンロードが完了しました。");
-        return response.body();
+        return destinationPath;
+    }
+    
+    /**
+     * 使用中以外の古い Fabric インストーラーをキャッシュから削除します
+     * 以前のバージョンがゲームディレクトリ直下に保存した JAR も併せて削除します
+     * @param gameDir ゲームディレクトリ
+     * @param cacheDir インストーラーのキャッシュディレクトリ
+     * @param keepFileName 残す JAR のファイル名
+     */
+    private static void pruneInstallerCache(Path gameDir, Path cacheDir, String keepFileName) {
+        for (Path dir : List.of(cacheDir, gameDir)) {
+            try (var stream = Files.list(dir)) {
+                List<Path> staleFiles = stream
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith("fabric-installer-")
+                            && (name.endsWith(".jar") || name.endsWith(".jar.sha1"))
+                            && !name.startsWith(keepFileName);
+                    })
+                    .toList();
+                for (Path path : staleFiles) {
+                    Files.deleteIfExists(path);
+                    System.out.println("古い Fabric インストーラーを削除しました: " + path);
+                }
+            } catch (IOException e) {
+                System.err.println("Fabric インストーラーのキャッシュ整理に失敗しました: " + e.getMessage());
+            }
+        }
     }
     
     /**
@@ -1,25 +1,52 @@
 package com.abcd.modpack.gui;
 
+import com.abcd.modpack.progress.ProgressListener;
+import com.abcd.modpack.progress.ProgressSnapshot;
+
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import java.awt.*;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * GUI 関連の処理を管理するクラス
  * Swing ベースのコンソール出力ウィンドウを提供します
  */
 public class GuiManager {
+    private static final String TITLE = "A-B-C-D Modpack Updater";
+    private static final int REFRESH_INTERVAL_MILLIS = 33; // 約 30 fps
+    private static final int MAX_LINES = 5000;
+    private static final int MAX_PENDING_CHARS = 1_000_000;
+    
     private final JFrame frame;
     private final JTextArea textArea;
+    private final JProgressBar progressBar;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChars = new AtomicInteger();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private final Timer refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, e -> flushPendingText());
     
     /**
      * GUI マネージャーを初期化します
      */
     public GuiManager() {
         // コンソール出力のための親ウィンドウを作成
-        frame = new JFrame("A-B-C-D Modpack Updater");
+        frame = new JFrame(TITLE);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(800, 400);
         frame.setLocationRelativeTo(null); // 画面中央に配置
@@ -37,6 +64,12 @@ public class GuiManager {
         JScrollPane scrollPane = new JScrollPane(textArea);
         frame.getContentPane().add(scrollPane, BorderLayout.CENTER);
         
+        // ダウンロードなどの進捗を表示するプログレスバー（進捗の通知がある間だけ表示）
+        progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        frame.getContentPane().add(progressBar, BorderLayout.SOUTH);
+        
         // コンソール出力をテキストエリアにリダイレクト
         setupConsoleRedirection();
     }
@@ -47,80 +80,167 @@ public class GuiManager {
      */
     private void setupConsoleRedirection() {
         // 既存の System.out と System.err を保存（TeeOutputStream が設定されている可能性がある）
-        PrintStream originalOut = System.out;
-        PrintStream originalErr = System.err;
+        PrintStream consoleOut = new PrintStream(new ConsoleOutputStream(System.out), true, StandardCharsets.UTF_8);
+        PrintStream consoleErr = new PrintStream(new ConsoleOutputStream(System.err), true, StandardCharsets.UTF_8);
         
-        PrintStream consoleOut = new PrintStream(new OutputStream() {
-            @Override
-            // UTF-8での文字化けを防ぐため、OutputStreamWriterを使用
-            public void write(byte[] b, int off, int len) {
-                // GUI に出力
-                String str = new String(b, off, len, StandardCharsets.UTF_8);
-                SwingUtilities.invokeLater(() -> {
-                    textArea.append(str);
-                    textArea.setCaretPosition(textArea.getDocument().getLength()); // 常に最新の出力を表示
-                });
-                
-                // 既存の出力ストリーム（ログファイルなど）にも出力
-                try {
-                    originalOut.write(b, off, len);
-                } catch (Exception e) {
-                    // ログファイル書き込みエラーは無視
-                }
+        System.setOut(consoleOut);
+        System.setErr(consoleErr);
+        
+        // 出力のたびに EDT へ処理を投げず、一定間隔でまとめてテキストエリアに反映する
+        refreshTimer.start();
+    }
+    
+    /**
+     * 出力待ちのテキストをまとめてテキストエリアに追加します（EDT 上で実行）
+     * 表示する行数が上限を超えた場合は古い行から削除します
+     */
+    private void flushPendingText() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        
+        StringBuilder batch = new StringBuilder();
+        String chunk;
+        while ((chunk = pending.poll()) != null) {
+            batch.append(chunk);
+        }
+        pendingChars.addAndGet(-batch.length());
+        
+        textArea.append(batch.toString());
+        
+        // 上限を超えた古い行を削除
+        Element root = textArea.getDocument().getDefaultRootElement();
+        int excessLines = root.getElementCount() - MAX_LINES;
+        if (excessLines > 0) {
+            try {
+                textArea.getDocument().remove(0, root.getElement(excessLines - 1).getEndOffset());
+                droppedLines.addAndGet(excessLines);
+            } catch (BadLocationException e) {
+                // 削除範囲は直前に取得したものなので発生しない
             }
+        }
+        
+        if (droppedLines.get() > 0 || droppedChunks.get() > 0) {
+            frame.setTitle(TITLE + "（古い出力 " + droppedLines.get() + " 行 / 未表示の出力 " + droppedChunks.get() + " 件を省略）");
+        }
+        textArea.setCaretPosition(textArea.getDocument().getLength()); // 常に最新の出力を表示
+    }
+    
+    /**
+     * GUI への出力を行うストリーム
+     * バイト列を UTF-8 として復号して出力待ちのキューに追加し、元の出力ストリーム（ログファイルなど）にもそのまま出力します
+     * マルチバイト文字が複数回の書き込みに分割された場合も、文字が揃うまで復号を保留します
+     */
+    private class ConsoleOutputStream extends OutputStream {
+        private final PrintStream original;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes = ByteBuffer.allocate(8192);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        
+        ConsoleOutputStream(PrintStream original) {
+            this.original = original;
+        }
+        
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            bytes.put((byte) b);
+            decode();
             
-            public void write(int b) {
-                // GUI に出力
-                SwingUtilities.invokeLater(() -> {
-                    textArea.append(String.valueOf((char) b));
-                    textArea.setCaretPosition(textArea.getDocument().getLength()); // 常に最新の出力を表示
-                });
-                
-                // 既存の出力ストリーム（ログファイルなど）にも出力
-                try {
-                    originalOut.write(b);
-                } catch (Exception e) {
-                    // ログファイル書き込みエラーは無視
-                }
+            // 既存の出力ストリーム（ログファイルなど）にも出力
+            try {
+                original.write(b);
+            } catch (Exception e) {
+                // ログファイル書き込みエラーは無視
             }
-        });
+        }
         
-        PrintStream consoleErr = new PrintStream(new OutputStream() {
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            bytes.put(b, off, len);
+            decode();
+            
+            // 既存の出力ストリーム（ログファイルなど）にも出力
+            try {
+                original.write(b, off, len);
+            } catch (Exception e) {
+                // ログファイル書き込みエラーは無視
+            }
+        }
+        
+        @Override
+        public synchronized void flush() {
+            original.flush();
+        }
+        
+        private void ensureCapacity(int length) {
+            if (bytes.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(bytes.position() + length);
+                bytes.flip();
+                larger.put(bytes);
+                bytes = larger;
+            }
+        }
+        
+        private void decode() {
+            bytes.flip();
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                CoderResult result = decoder.decode(bytes, chars, false);
+                chars.flip();
+                text.append(chars);
+                chars.clear();
+                if (!result.isOverflow()) {
+                    break;
+                }
+            }
+            // 末尾の不完全なマルチバイト文字は次の書き込みまで残す
+            bytes.compact();
+            
+            if (text.length() == 0) {
+                return;
+            }
+            if (pendingChars.get() > MAX_PENDING_CHARS) {
+                droppedChunks.incrementAndGet();
+                return;
+            }
+            pendingChars.addAndGet(text.length());
+            pending.add(text.toString());
+        }
+    }
+    
+    /**
+     * 進捗をプログレスバーに表示するリスナーを作成します
+     * 全体のサイズが不明な間は不確定モードで表示し、完了するとプログレスバーを非表示にします
+     * @return 進捗リスナー
+     */
+    public ProgressListener createProgressListener() {
+        return new ProgressListener() {
             @Override
-            public void write(byte[] b, int off, int len) {
-                // GUI に出力
-                String str = new String(b, off, len, StandardCharsets.UTF_8);
+            public void onProgress(ProgressSnapshot snapshot) {
                 SwingUtilities.invokeLater(() -> {
-                    textArea.append(str);
-                    textArea.setCaretPosition(textArea.getDocument().getLength());
+                    double fraction = snapshot.getFraction();
+                    progressBar.setIndeterminate(fraction < 0);
+                    progressBar.setValue(fraction < 0 ? 0 : (int) (fraction * 1000));
+                    progressBar.setString(snapshot.toString());
+                    if (!progressBar.isVisible()) {
+                        progressBar.setVisible(true);
+                        frame.getContentPane().revalidate();
+                    }
                 });
-                
-                // 既存のエラー出力ストリーム（ログファイルなど）にも出力
-                try {
-                    originalErr.write(b, off, len);
-                } catch (Exception e) {
-                    // ログファイル書き込みエラーは無視
-                }
             }
             
-            public void write(int b) {
-                // GUI に出力
+            @Override
+            public void onFinished(ProgressSnapshot snapshot) {
                 SwingUtilities.invokeLater(() -> {
-                    textArea.append(String.valueOf((char) b));
-                    textArea.setCaretPosition(textArea.getDocument().getLength());
+                    progressBar.setVisible(false);
+                    frame.getContentPane().revalidate();
                 });
-                
-                // 既存のエラー出力ストリーム（ログファイルなど）にも出力
-                try {
-                    originalErr.write(b);
-                } catch (Exception e) {
-                    // ログファイル書き込みエラーは無視
-                }
             }
-        });
-        
-        System.setOut(consoleOut);
-        System.setErr(consoleErr);
+        };
     }
     
     /**
@@ -134,7 +254,11 @@ public class GuiManager {
      * GUI ウィンドウを閉じます
      */
     public void closeWindow() {
-        SwingUtilities.invokeLater(() -> frame.dispose());
+        SwingUtilities.invokeLater(() -> {
+            refreshTimer.stop();
+            flushPendingText();
+            frame.dispose();
+        });
     }
     
     /**
@@ -205,6 +329,26 @@ public class GuiManager {
         );
     }
     
+    /**
+     * 指定された処理が完了するまで警告メッセージダイアログを表示します（ノンブロッキング）
+     * 処理が完了するとダイアログは自動的に閉じられます
+     * @param message 表示するメッセージ
+     * @param title タイトル
+     * @param until 完了するとダイアログを閉じる Future
+     */
+    public void showWarningDialogUntil(String message, String title, CompletableFuture<?> until) {
+        SwingUtilities.invokeLater(() -> {
+            if (until.isDone()) {
+                return;
+            }
+            JOptionPane pane = new JOptionPane(message, JOptionPane.WARNING_MESSAGE);
+            JDialog dialog = pane.createDialog(frame, title);
+            dialog.setModal(false);
+            until.whenComplete((v, e) -> SwingUtilities.invokeLater(dialog::dispose));
+            dialog.setVisible(true);
+        });
+    }
+    
     /**
      * エラーメッセージダイアログを表示します（ブロッキング）
      * @param message 表示するメッセージ
@@ -0,0 +1,444 @@
+package com.abcd.modpack.index;
+
+import com.abcd.modpack.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * ゲームディレクトリ内のファイルの索引
+ * ディレクトリごとのファイル名・サブディレクトリ名の一覧と、ファイルごとのサイズ・更新日時・CRC32C（必要に応じて SHA-256）を
+ * .abcd/cache/file-index.bin にバイナリ形式で保存し、次回以降の起動で再利用します
+ *
+ * ディレクトリの一覧はディレクトリの更新日時が変わった場合のみ取得し直します。
+ * ファイルのハッシュはサイズと更新日時が変わった場合のみ計算し直します。
+ * 更新日時の分解能が粗いファイルシステムでも変更を見逃さないよう、記録した時刻の直前に更新されたものは
+ * 次回の起動時に信用せず確認し直します
+ */
+public class FileIndex {
+    private static final String FILE_NAME = "file-index.bin";
+    private static final int MAGIC = 0x41424958; // "ABIX"
+    private static final int FORMAT_VERSION = 2;
+    private static final long RACY_MILLIS = 2000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final Path gameDir;
+    private final Path indexFile;
+    private final Map<String, DirectoryEntry> directories = new HashMap<>();
+    private final Map<String, FileEntry> files = new HashMap<>();
+    private int relistedDirectories;
+    private int hashedFiles;
+    private boolean dirty;
+    
+    private FileIndex(Path gameDir, Path indexFile) {
+        this.gameDir = gameDir;
+        this.indexFile = indexFile;
+    }
+    
+    /**
+     * ディレクトリ内のファイル名とサブディレクトリ名の一覧
+     */
+    private static class DirectoryEntry {
+        long modifiedMillis;
+        long recordedMillis;
+        boolean trusted;
+        TreeSet<String> names;
+        TreeSet<String> subdirectories;
+    }
+    
+    /**
+     * ファイルのサイズ・更新日時とハッシュ
+     */
+    private static class FileEntry {
+        long size;
+        long modifiedMillis;
+        long recordedMillis;
+        boolean trusted;
+        int crc32c;
+        byte[] sha256;
+    }
+    
+    /**
+     * 保存された索引を読み込みます。索引が無い場合や壊れている場合は空の索引を返します
+     * @param gameDir ゲームディレクトリ
+     * @return 索引
+     * @throws IOException 作業用ディレクトリの作成エラー
+     */
+    public static FileIndex open(Path gameDir) throws IOException {
+        FileIndex index = new FileIndex(gameDir, FileUtils.getUpdaterDir(gameDir, "cache").resolve(FILE_NAME));
+        if (Files.exists(index.indexFile)) {
+            try {
+                index.read();
+                System.out.println("ファイル索引を読み込みました。ディレクトリ数: " + index.directories.size()
+                    + " ファイル数: " + index.files.size());
+            } catch (IOException e) {
+                System.err.println("ファイル索引を読み込めないため作り直します: " + e.getMessage());
+                index.directories.clear();
+                index.files.clear();
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * ディレクトリ内の通常ファイルの名前を名前順で取得します
+     * ディレクトリの更新日時が記録と同じであれば、ファイルシステムを走査せずに記録済みの一覧を返します
+     * @param relativeDir ゲームディレクトリからの相対パス（"/" 区切り、"" はゲームディレクトリ自身）
+     * @return ファイル名の一覧。ディレクトリが存在しない場合は空
+     * @throws IOException ファイル操作エラー
+     */
+    public synchronized List<String> list(String relativeDir) throws IOException {
+        DirectoryEntry entry = currentDirectory(normalize(relativeDir));
+        return entry == null ? List.of() : List.copyOf(entry.names);
+    }
+    
+    /**
+     * ディレクトリ内のサブディレクトリの名前を名前順で取得します
+     * {@link #list(String)} と同じく、ディレクトリの更新日時が記録と同じであれば記録済みの一覧を返します
+     * @param relativeDir ゲームディレクトリからの相対パス（"/" 区切り、"" はゲームディレクトリ自身）
+     * @return サブディレクトリ名の一覧。ディレクトリが存在しない場合は空
+     * @throws IOException ファイル操作エラー
+     */
+    public synchronized List<String> listDirectories(String relativeDir) throws IOException {
+        DirectoryEntry entry = currentDirectory(normalize(relativeDir));
+        return entry == null ? List.of() : List.copyOf(entry.subdirectories);
+    }
+    
+    /**
+     * ファイルの CRC32C を取得します
+     * サイズと更新日時が記録と同じであれば、ファイルを読み込まずに記録済みの値を返します
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @return CRC32C の値
+     * @throws IOException ファイル読み込みエラー（ファイルが存在しない場合を含む）
+     */
+    public synchronized int crc32c(String relativePath) throws IOException {
+        return currentEntry(normalize(relativePath), false).crc32c;
+    }
+    
+    /**
+     * ファイルの SHA-256 を取得します
+     * 初回の計算時に CRC32C も計算し直し、以降はサイズと更新日時が変わらない限り記録済みの値を返します
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @return 小文字 16 進数の SHA-256
+     * @throws IOException ファイル読み込みエラー（ファイルが存在しない場合を含む）
+     */
+    public synchronized String sha256(String relativePath) throws IOException {
+        return HexFormat.of().formatHex(currentEntry(normalize(relativePath), true).sha256);
+    }
+    
+    /**
+     * アップデーター自身がファイルを書き込んだことを記録します
+     * 親ディレクトリの一覧に追加し、ハッシュは次に必要になったときに計算します
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @throws IOException ファイル操作エラー
+     */
+    public synchronized void recordWrite(String relativePath) throws IOException {
+        String key = normalize(relativePath);
+        files.remove(key);
+        updateParent(key, true);
+        dirty = true;
+    }
+    
+    /**
+     * アップデーター自身がファイルを削除したことを記録します
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @throws IOException ファイル操作エラー
+     */
+    public synchronized void recordDelete(String relativePath) throws IOException {
+        String key = normalize(relativePath);
+        files.remove(key);
+        updateParent(key, false);
+        dirty = true;
+    }
+    
+    /**
+     * アップデーター自身がディレクトリを丸ごと入れ替えたことを記録します
+     * ディレクトリ以下の記録をすべて破棄し、次に必要になったときに取得し直します
+     * @param relativeDir ゲームディレクトリからの相対パス
+     */
+    public synchronized void recordReplaceTree(String relativeDir) {
+        String key = normalize(relativeDir);
+        String prefix = key + "/";
+        directories.keySet().removeIf(path -> path.equals(key) || path.startsWith(prefix));
+        files.keySet().removeIf(path -> path.startsWith(prefix));
+        dirty = true;
+    }
+    
+    /**
+     * 索引を保存します。変更が無い場合は書き込みません
+     * 一時ファイルに書き込んでから置き換えるため、途中で中断されても壊れた索引は残りません
+     * @throws IOException ファイル書き込みエラー
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path tempFile = indexFile.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            
+            out.writeInt(directories.size());
+            for (Map.Entry<String, DirectoryEntry> e : directories.entrySet()) {
+                DirectoryEntry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.modifiedMillis);
+                out.writeLong(entry.recordedMillis);
+                out.writeInt(entry.names.size());
+                for (String name : entry.names) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(entry.subdirectories.size());
+                for (String name : entry.subdirectories) {
+                    out.writeUTF(name);
+                }
+            }
+            
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileEntry> e : files.entrySet()) {
+                FileEntry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modifiedMillis);
+                out.writeLong(entry.recordedMillis);
+                out.writeInt(entry.crc32c);
+                out.writeBoolean(entry.sha256 != null);
+                if (entry.sha256 != null) {
+                    out.write(entry.sha256);
+                }
+            }
+        }
+        try {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+        System.out.println("ファイル索引を保存しました。再走査したディレクトリ数: " + relistedDirectories
+            + " ハッシュを計算したファイル数: " + hashedFiles);
+    }
+    
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("形式が異なります");
+            }
+            
+            int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                String key = in.readUTF();
+                DirectoryEntry entry = new DirectoryEntry();
+                entry.modifiedMillis = in.readLong();
+                entry.recordedMillis = in.readLong();
+                entry.trusted = entry.modifiedMillis < entry.recordedMillis - RACY_MILLIS;
+                int nameCount = in.readInt();
+                entry.names = new TreeSet<>();
+                for (int j = 0; j < nameCount; j++) {
+                    entry.names.add(in.readUTF());
+                }
+                int subdirectoryCount = in.readInt();
+                entry.subdirectories = new TreeSet<>();
+                for (int j = 0; j < subdirectoryCount; j++) {
+                    entry.subdirectories.add(in.readUTF());
+                }
+                directories.put(key, entry);
+            }
+            
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                String key = in.readUTF();
+                FileEntry entry = new FileEntry();
+                entry.size = in.readLong();
+                entry.modifiedMillis = in.readLong();
+                entry.recordedMillis = in.readLong();
+                entry.trusted = entry.modifiedMillis < entry.recordedMillis - RACY_MILLIS;
+                entry.crc32c = in.readInt();
+                if (in.readBoolean()) {
+                    entry.sha256 = in.readNBytes(32);
+                    if (entry.sha256.length != 32) {
+                        throw new IOException("ファイルが途中で終わっています");
+                    }
+                }
+                files.put(key, entry);
+            }
+        }
+    }
+    
+    /**
+     * 更新日時を確認し、変わっていれば一覧を取得し直したディレクトリの記録を返します
+     */
+    private DirectoryEntry currentDirectory(String key) throws IOException {
+        Path dir = resolve(key);
+        BasicFileAttributes attributes = readAttributes(dir);
+        if (attributes == null || !attributes.isDirectory()) {
+            if (directories.remove(key) != null) {
+                dirty = true;
+            }
+            return null;
+        }
+        
+        long modified = attributes.lastModifiedTime().toMillis();
+        DirectoryEntry entry = directories.get(key);
+        if (entry != null && entry.trusted && entry.modifiedMillis == modified) {
+            return entry;
+        }
+        
+        entry = new DirectoryEntry();
+        entry.modifiedMillis = modified;
+        entry.recordedMillis = System.currentTimeMillis();
+        entry.trusted = true;
+        entry.names = new TreeSet<>();
+        entry.subdirectories = new TreeSet<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (Files.isRegularFile(path)) {
+                    entry.names.add(path.getFileName().toString());
+                } else if (Files.isDirectory(path)) {
+                    entry.subdirectories.add(path.getFileName().toString());
+                }
+            }
+        }
+        directories.put(key, entry);
+        relistedDirectories++;
+        dirty = true;
+        return entry;
+    }
+    
+    /**
+     * サイズと更新日時を確認し、変わっていればハッシュを計算し直したファイルの記録を返します
+     */
+    private FileEntry currentEntry(String key, boolean withSha256) throws IOException {
+        BasicFileAttributes attributes = readAttributes(resolve(key));
+        if (attributes == null || !attributes.isRegularFile()) {
+            files.remove(key);
+            throw new NoSuchFileException(resolve(key).toString());
+        }
+        
+        FileEntry entry = files.get(key);
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (entry != null && entry.trusted && entry.size == attributes.size() && entry.modifiedMillis == modified) {
+            if (withSha256 && entry.sha256 == null) {
+                hash(key, entry, true);
+            }
+            return entry;
+        }
+        
+        entry = new FileEntry();
+        entry.size = attributes.size();
+        entry.modifiedMillis = modified;
+        entry.recordedMillis = System.currentTimeMillis();
+        entry.trusted = true;
+        hash(key, entry, withSha256);
+        files.put(key, entry);
+        return entry;
+    }
+    
+    /**
+     * ファイルを 1 度だけ読み込んで CRC32C と（必要な場合は）SHA-256 を計算します
+     */
+    private void hash(String key, FileEntry entry, boolean withSha256) throws IOException {
+        CRC32C crc = new CRC32C();
+        MessageDigest digest = withSha256 ? sha256Digest() : null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(resolve(key))) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        entry.crc32c = (int) crc.getValue();
+        if (digest != null) {
+            entry.sha256 = digest.digest();
+        }
+        hashedFiles++;
+        dirty = true;
+    }
+    
+    /**
+     * 親ディレクトリの記録済み一覧を更新します
+     * 一覧が信用できる状態の場合のみ更新し、それ以外は次の list で取得し直します
+     */
+    private void updateParent(String key, boolean exists) throws IOException {
+        int slash = key.lastIndexOf('/');
+        String parentKey = slash < 0 ? "" : key.substring(0, slash);
+        DirectoryEntry parent = directories.get(parentKey);
+        if (parent == null || !parent.trusted) {
+            return;
+        }
+        BasicFileAttributes attributes = readAttributes(resolve(parentKey));
+        if (attributes == null) {
+            directories.remove(parentKey);
+            return;
+        }
+        String name = key.substring(slash + 1);
+        if (exists) {
+            parent.names.add(name);
+        } else {
+            parent.names.remove(name);
+        }
+        parent.modifiedMillis = attributes.lastModifiedTime().toMillis();
+        parent.recordedMillis = System.currentTimeMillis();
+    }
+    
+    private Path resolve(String key) {
+        Path path = gameDir;
+        if (!key.isEmpty()) {
+            for (String part : key.split("/")) {
+                path = path.resolve(part);
+            }
+        }
+        return path;
+    }
+    
+    private static String normalize(String relativePath) {
+        String key = relativePath.replace('\\', '/');
+        while (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+        while (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+    
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+    
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 が利用できません", e);
+        }
+    }
+    
+}
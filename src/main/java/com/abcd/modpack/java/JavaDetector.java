@@ -1,150 +1,368 @@
 package com.abcd.modpack.java;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Java 実行環境の検出を行うクラス
  * システム内の適切な Java 実行ファイルを自動検出します
+ * バージョンは各ランタイムの release ファイルから読み取り、JVM を起動せずに判定します
  */
 public class JavaDetector {
+    private static final String MINECRAFT_STORE_PACKAGE = "Microsoft.4297127D64EC6_8wekyb3d8bbwe";
+    private static final Pattern JAVA_VERSION_PATTERN = Pattern.compile("^JAVA_VERSION=\"?([^\"\\s]+)\"?", Pattern.MULTILINE);
+    private static final int DEFAULT_MINIMUM_MAJOR_VERSION = 17;
+    
+    /**
+     * 検出された Java ランタイム
+     */
+    public static class JavaRuntime {
+        private final Path javaExecutable;
+        private final String version;
+        private final int priority;
+        
+        JavaRuntime(Path javaExecutable, String version, int priority) {
+            this.javaExecutable = javaExecutable;
+            this.version = version;
+            this.priority = priority;
+        }
+        
+        /**
+         * Java 実行ファイルのパスを取得します
+         * @return Java 実行ファイルのパス
+         */
+        public Path getJavaExecutable() {
+            return javaExecutable;
+        }
+        
+        /**
+         * release ファイルに記載された Java バージョンを取得します
+         * @return Java バージョン。不明な場合は null
+         */
+        public String getVersion() {
+            return version;
+        }
+        
+        /**
+         * Java のメジャーバージョンを取得します
+         * @return メジャーバージョン。不明な場合は 0
+         */
+        public int getMajorVersion() {
+            return parseMajorVersion(version);
+        }
+    }
     
     /**
      * システム内の Java 実行ファイルを検出します
-     * Microsoft Store 版 Minecraft の Java と JAVA_HOME を順番に確認します
-     * 
+     * Microsoft Store 版 Minecraft の Java、ランチャーのランタイム、JAVA_HOME、PATH を並列に確認します
+     *
      * @return Java 実行ファイルのパス。見つからない場合は null
      */
     public static Path detectJava() {
+        return detectJava(null, DEFAULT_MINIMUM_MAJOR_VERSION);
+    }
+    
+    /**
+     * システム内の Java 実行ファイルを検出します
+     * 候補となるすべての場所を並列に確認し、要求バージョンを満たすランタイムを優先順位に従って選択します
+     * 優先順位: Microsoft Store 版 Minecraft の Java、ランチャーのランタイム、JAVA_HOME、PATH
+     *
+     * @param cacheFile 検出結果のキャッシュファイル。null の場合はキャッシュを使用しない
+     * @param minimumMajorVersion 要求する Java のメジャーバージョン
+     * @return Java 実行ファイルのパス。見つからない場合は null
+     */
+    public static Path detectJava(Path cacheFile, int minimumMajorVersion) {
         System.out.println("Java 実行環境を検出中...");
         
-        // 1. Microsoft Store 版 Minecraft 付属の Java を確認
-        Path msJava = detectMicrosoftStoreJava();
-        if (msJava != null) {
-            System.out.println("Microsoft Store 版 Minecraft の Java を検出しました: " + msJava);
-            return msJava;
+        List<JavaRuntime> runtimes = detectRuntimes(cacheFile);
+        for (JavaRuntime runtime : runtimes) {
+            System.out.println("Java を検出しました: " + runtime.getJavaExecutable()
+                + " (バージョン: " + (runtime.getVersion() != null ? runtime.getVersion() : "不明") + ")");
         }
         
-        // 2. JAVA_HOME 環境変数の Java を確認
-        Path javaHomeJava = detectJavaHomeJava();
-        if (javaHomeJava != null) {
-            System.out.println("JAVA_HOME の Java を検出しました: " + javaHomeJava);
-            return javaHomeJava;
-        }
+        // 要求バージョンを満たすものを優先し、なければバージョン不明のものを補助的に使う
+        JavaRuntime selected = runtimes.stream()
+            .filter(runtime -> runtime.getMajorVersion() >= minimumMajorVersion)
+            .findFirst()
+            .orElse(runtimes.stream()
+                .filter(runtime -> runtime.getVersion() == null)
+                .findFirst()
+                .orElse(null));
         
-        // 3. システム PATH の java コマンドを確認（補助的）
-        Path systemJava = detectSystemJava();
-        if (systemJava != null) {
-            System.out.println("システム PATH の Java を検出しました: " + systemJava);
-            return systemJava;
+        if (selected != null) {
+            System.out.println("使用する Java: " + selected.getJavaExecutable());
+            return selected.getJavaExecutable();
         }
         
         System.err.println("Java 実行ファイルが見つかりませんでした。");
         System.err.println("以下のいずれかを確認してください:");
         System.err.println("  1. Minecraft Java Edition がインストールされているか");
         System.err.println("  2. JAVA_HOME 環境変数が正しく設定されているか");
-        System.err.println("  3. Java Development Kit (JDK) がインストールされているか");
+        System.err.println("  3. Java Development Kit (JDK) " + minimumMajorVersion + " 以上がインストールされているか");
         
         return null;
     }
     
     /**
-     * Microsoft Store 版 Minecraft 付属の Java を検出します
-     * @return Java 実行ファイルのパス。見つからない場合は null
+     * 候補となるすべての Java ランタイムを並列に検出します
+     * @param cacheFile 検出結果のキャッシュファイル。null の場合はキャッシュを使用しない
+     * @return 優先順位順に並んだ Java ランタイムの一覧（重複は除外済み）
      */
-    private static Path detectMicrosoftStoreJava() {
-        try {
-            String localAppData = System.getenv("LOCALAPPDATA");
-            if (localAppData == null) {
-                return null;
+    public static List<JavaRuntime> detectRuntimes(Path cacheFile) {
+        Properties cache = loadCache(cacheFile);
+        
+        List<CompletableFuture<List<JavaRuntime>>> futures = new ArrayList<>();
+        futures.add(CompletableFuture.supplyAsync(() -> probeHomes(findMicrosoftStoreHomes(), 0, cache)));
+        futures.add(CompletableFuture.supplyAsync(() -> probeHomes(findLauncherRuntimeHomes(), 1, cache)));
+        futures.add(CompletableFuture.supplyAsync(() -> probeHomes(findJavaHome(), 2, cache)));
+        futures.add(CompletableFuture.supplyAsync(() -> probeHomes(findPathHomes(), 3, cache)));
+        
+        Map<Path, JavaRuntime> runtimes = new LinkedHashMap<>();
+        futures.stream()
+            .map(CompletableFuture::join)
+            .flatMap(List::stream)
+            .sorted(Comparator.comparingInt((JavaRuntime runtime) -> runtime.priority)
+                .thenComparing(Comparator.comparingInt(JavaRuntime::getMajorVersion).reversed()))
+            .forEach(runtime -> runtimes.putIfAbsent(runtime.getJavaExecutable().normalize(), runtime));
+        
+        storeCache(cacheFile, cache);
+        return new ArrayList<>(runtimes.values());
+    }
+    
+    /**
+     * Microsoft Store 版 Minecraft 付属のランタイムのホームディレクトリを列挙します
+     * @return ホームディレクトリの一覧
+     */
+    private static List<Path> findMicrosoftStoreHomes() {
+        String localAppData = System.getenv("LOCALAPPDATA");
+        if (localAppData == null) {
+            return List.of();
+        }
+        return findRuntimeHomes(Paths.get(localAppData, "Packages", MINECRAFT_STORE_PACKAGE, "LocalCache", "Local", "runtime"));
+    }
+    
+    /**
+     * Minecraft ランチャーがダウンロードしたランタイムのホームディレクトリを列挙します
+     * @return ホームディレクトリの一覧
+     */
+    private static List<Path> findLauncherRuntimeHomes() {
+        List<Path> homes = new ArrayList<>();
+        String appData = System.getenv("APPDATA");
+        if (appData != null) {
+            homes.addAll(findRuntimeHomes(Paths.get(appData, ".minecraft", "runtime")));
+        }
+        String programFilesX86 = System.getenv("ProgramFiles(x86)");
+        if (programFilesX86 != null) {
+            homes.addAll(findRuntimeHomes(Paths.get(programFilesX86, "Minecraft Launcher", "runtime")));
+        }
+        return homes;
+    }
+    
+    /**
+     * ランチャーの runtime ディレクトリ（runtime/&lt;コンポーネント&gt;/&lt;プラットフォーム&gt;/&lt;コンポーネント&gt;）からホームディレクトリを列挙します
+     * @param runtimeDir runtime ディレクトリ
+     * @return ホームディレクトリの一覧
+     */
+    private static List<Path> findRuntimeHomes(Path runtimeDir) {
+        if (!Files.isDirectory(runtimeDir)) {
+            return List.of();
+        }
+        try (var stream = Files.find(runtimeDir, 3, (path, attrs) -> attrs.isDirectory()
+                && Files.isRegularFile(path.resolve("bin").resolve(getJavaExecutableName())))) {
+            return stream.toList();
+        } catch (IOException e) {
+            System.err.println("ランタイムディレクトリの検索中にエラーが発生しました: " + runtimeDir + " - " + e.getMessage());
+            return List.of();
+        }
+    }
+    
+    /**
+     * JAVA_HOME 環境変数で指定されたホームディレクトリを取得します
+     * @return ホームディレクトリの一覧（0 または 1 件）
+     */
+    private static List<Path> findJavaHome() {
+        String javaHome = System.getenv("JAVA_HOME");
+        if (javaHome == null || javaHome.trim().isEmpty()) {
+            System.out.println("JAVA_HOME 環境変数が設定されていません。");
+            return List.of();
+        }
+        return List.of(Paths.get(javaHome.trim()));
+    }
+    
+    /**
+     * PATH 環境変数の各ディレクトリから java 実行ファイルを探し、そのホームディレクトリを列挙します
+     * where コマンドは起動せず、PATH を直接走査します
+     * @return ホームディレクトリの一覧
+     */
+    private static List<Path> findPathHomes() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return List.of();
+        }
+        List<Path> homes = new ArrayList<>();
+        for (String entry : path.split(File.pathSeparator)) {
+            if (entry.trim().isEmpty()) {
+                continue;
             }
-            
-            Path msJavaPath = Paths.get(
-                localAppData,
-                "Packages",
-                "Microsoft.4297127D64EC6_8wekyb3d8bbwe",
-                "LocalCache",
-                "Local",
-                "runtime",
-                "java-runtime-delta",
-                "windows-x64",
-                "java-runtime-delta",
-                "bin",
-                "java.exe"
-            );
-            
-            if (Files.exists(msJavaPath)) {
-                return msJavaPath;
+            try {
+                Path binDir = Paths.get(entry.trim().replace("\"", ""));
+                if (Files.isRegularFile(binDir.resolve(getJavaExecutableName())) && binDir.getParent() != null) {
+                    homes.add(binDir.getParent());
+                }
+            } catch (Exception e) {
+                // 不正な PATH エントリは無視
             }
-            
-            System.out.println("Microsoft Store 版の Java は見つかりませんでした。");
-        } catch (Exception e) {
-            System.err.println("Microsoft Store 版 Java の検出中にエラーが発生しました: " + e.getMessage());
         }
-        
-        return null;
+        return homes;
     }
     
     /**
-     * JAVA_HOME 環境変数で指定された Java を検出します
-     * @return Java 実行ファイルのパス。見つからない場合は null
+     * ホームディレクトリごとに java 実行ファイルと release ファイルを確認します
+     * @param homes ホームディレクトリの一覧
+     * @param priority 検出元の優先順位（小さいほど優先）
+     * @param cache release ファイルの更新日時をキーにしたバージョンのキャッシュ
+     * @return 検出された Java ランタイムの一覧
+     */
+    private static List<JavaRuntime> probeHomes(List<Path> homes, int priority, Properties cache) {
+        List<JavaRuntime> runtimes = new ArrayList<>();
+        for (Path home : homes) {
+            Path javaExe = home.resolve("bin").resolve(getJavaExecutableName());
+            if (!Files.isRegularFile(javaExe)) {
+                System.out.println("Java 実行ファイルが見つかりません: " + javaExe);
+                continue;
+            }
+            runtimes.add(new JavaRuntime(javaExe, readReleaseVersion(home, cache), priority));
+        }
+        return runtimes;
+    }
+    
+    /**
+     * ホームディレクトリの release ファイルから Java バージョンを読み取ります
+     * release ファイルの更新日時が変わっていなければキャッシュの値を使用します
+     * @param home ホームディレクトリ
+     * @param cache バージョンのキャッシュ（null 可）
+     * @return Java バージョン。読み取れない場合は null
      */
-    private static Path detectJavaHomeJava() {
+    private static String readReleaseVersion(Path home, Properties cache) {
+        Path releaseFile = home.resolve("release");
         try {
-            String javaHome = System.getenv("JAVA_HOME");
-            if (javaHome == null || javaHome.trim().isEmpty()) {
-                System.out.println("JAVA_HOME 環境変数が設定されていません。");
+            if (!Files.isRegularFile(releaseFile)) {
                 return null;
             }
+            String key = home.toAbsolutePath().normalize().toString();
+            String modified = String.valueOf(Files.getLastModifiedTime(releaseFile).toMillis());
             
-            Path javaHomeExe = Paths.get(javaHome, "bin", "java.exe");
-            if (Files.exists(javaHomeExe)) {
-                return javaHomeExe;
+            if (cache != null) {
+                synchronized (cache) {
+                    String cached = cache.getProperty(key);
+                    if (cached != null && cached.startsWith(modified + "|")) {
+                        return cached.substring(modified.length() + 1);
+                    }
+                }
             }
             
-            System.out.println("JAVA_HOME の Java 実行ファイルが見つかりません: " + javaHomeExe);
-        } catch (Exception e) {
-            System.err.println("JAVA_HOME Java の検出中にエラーが発生しました: " + e.getMessage());
+            Matcher matcher = JAVA_VERSION_PATTERN.matcher(Files.readString(releaseFile, StandardCharsets.ISO_8859_1));
+            if (!matcher.find()) {
+                return null;
+            }
+            String version = matcher.group(1);
+            if (cache != null) {
+                synchronized (cache) {
+                    cache.setProperty(key, modified + "|" + version);
+                }
+            }
+            return version;
+        } catch (IOException e) {
+            System.err.println("release ファイルの読み込みに失敗しました: " + releaseFile + " - " + e.getMessage());
+            return null;
         }
-        
-        return null;
     }
     
     /**
-     * システム PATH の java コマンドを検出します（Windows環境での補助的な検出）
-     * @return Java 実行ファイルのパス。見つからない場合は null
+     * Java バージョン文字列からメジャーバージョンを取り出します（"1.8.0_392" は 8、"21.0.1" は 21）
+     * @param version Java バージョン文字列
+     * @return メジャーバージョン。解析できない場合は 0
      */
-    private static Path detectSystemJava() {
+    private static int parseMajorVersion(String version) {
+        if (version == null) {
+            return 0;
+        }
+        String[] parts = version.split("[._+-]");
         try {
-            // Windows の where コマンドを使用して java.exe を検索
-            ProcessBuilder pb = new ProcessBuilder("where", "java.exe");
-            Process process = pb.start();
-            
-            try (var reader = new java.io.BufferedReader(new java.io.InputStreamReader(process.getInputStream()))) {
-                String line = reader.readLine();
-                if (line != null && !line.trim().isEmpty()) {
-                    Path javaPath = Paths.get(line.trim());
-                    if (Files.exists(javaPath)) {
-                        return javaPath;
-                    }
-                }
+            int major = Integer.parseInt(parts[0]);
+            if (major == 1 && parts.length > 1) {
+                major = Integer.parseInt(parts[1]);
             }
-            
-            process.waitFor();
-        } catch (Exception e) {
-            System.err.println("システム Java の検出中にエラーが発生しました: " + e.getMessage());
+            return major;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static String getJavaExecutableName() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("windows") ? "java.exe" : "java";
+    }
+    
+    private static Properties loadCache(Path cacheFile) {
+        Properties cache = new Properties();
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return cache;
+        }
+        try (InputStream in = Files.newInputStream(cacheFile)) {
+            cache.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Java 検出キャッシュの読み込みに失敗しました: " + e.getMessage());
+        }
+        return cache;
+    }
+    
+    private static void storeCache(Path cacheFile, Properties cache) {
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                cache.store(out, "A-B-C-D Modpack Updater Java runtime cache");
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Java 検出キャッシュの保存に失敗しました: " + e.getMessage());
         }
-        
-        return null;
     }
     
     /**
      * 指定された Java 実行ファイルのバージョンを確認します
+     * release ファイルがあればそれを読み取り、ない場合のみ java -version を実行します
      * @param javaPath Java 実行ファイルのパス
      * @return Java バージョン文字列。取得に失敗した場合は null
      */
     public static String getJavaVersion(Path javaPath) {
+        Path binDir = javaPath.getParent();
+        if (binDir != null && binDir.getParent() != null) {
+            String version = readReleaseVersion(binDir.getParent(), null);
+            if (version != null) {
+                return version;
+            }
+        }
+        
         try {
             ProcessBuilder pb = new ProcessBuilder(javaPath.toString(), "-version");
             Process process = pb.start();
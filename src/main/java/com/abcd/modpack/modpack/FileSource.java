@@ -0,0 +1,21 @@
+package com.abcd.modpack.modpack;
+
+import com.abcd.modpack.progress.ProgressTracker;
+
+import java.nio.file.Path;
+
+/**
+ * 準備フェーズでステージングするファイルの取得元
+ * 通常はネットワーク（LAN キャッシュサーバー、配信元とミラーサーバー）から、バンドルの適用時はバンドルから取得します
+ */
+interface FileSource {
+    /**
+     * パック定義ファイルの "+" 行のファイルを取得して保存します
+     * @param operationIndex パック定義ファイル内の操作の位置
+     * @param operation ダウンロード操作
+     * @param target 保存先のファイル
+     * @param progress 進捗の集計先
+     * @throws Exception 取得エラー
+     */
+    void fetch(int operationIndex, StagedUpdate.Operation operation, Path target, ProgressTracker progress) throws Exception;
+}
@@ -0,0 +1,423 @@
+package com.abcd.modpack.modpack;
+
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.fabric.FabricInstaller;
+import com.abcd.modpack.network.HttpCache;
+import com.abcd.modpack.network.MirrorSet;
+import com.abcd.modpack.network.NetworkUtils;
+import com.abcd.modpack.progress.ProgressListener;
+import com.abcd.modpack.progress.ProgressTracker;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.verify.ModpackManifest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ネットワークに接続せずに Modpack を適用するためのバンドル（--export-bundle / --import-bundle）
+ * 1 つの ZIP ファイルに、パック定義ファイル、パック定義ファイルが参照するすべてのファイルとその SHA-256、
+ * マニフェスト、Fabric のバージョンプロファイルをまとめます
+ *
+ * 先頭にメタデータのエントリを、その後にファイルをパック定義ファイルの記述順に格納します。
+ * 読み込みは ZipInputStream で先頭から順に行い中央ディレクトリを使用しないため、
+ * ファイル全体を読み終える前から展開を始められます。適用時は通常の更新と同じ準備フェーズでステージングします
+ */
+public class ModpackBundle implements Closeable {
+    private static final int FORMAT_VERSION = 1;
+    private static final String PROPERTIES_ENTRY = "bundle.properties";
+    private static final String PACKS_ENTRY = "packs.txt";
+    private static final String MANIFEST_ENTRY = "packs.manifest";
+    private static final String FABRIC_PROFILE_ENTRY = "fabric-profile.json";
+    private static final String FILES_ENTRY = "files.sha256";
+    private static final List<String> METADATA_ENTRIES =
+        List.of(PROPERTIES_ENTRY, PACKS_ENTRY, MANIFEST_ENTRY, FABRIC_PROFILE_ENTRY, FILES_ENTRY);
+    private static final String FILES_PREFIX = "files/";
+    private static final String FILES_HEADER = "# abcd-bundle-files 1";
+    private static final String EXPORT_DIR = "bundle-export";
+    private static final Duration PROGRESS_INTERVAL = Duration.ofMillis(500);
+    
+    private final ZipInputStream zis;
+    private final String minecraftVersion;
+    private final String loaderVersion;
+    private final byte[] packsBytes;
+    private final ModpackManifest manifest;
+    private final String fabricProfileJson;
+    private final Map<Integer, FileHash> files;
+    
+    private ModpackBundle(ZipInputStream zis, Properties properties, byte[] packsBytes, ModpackManifest manifest,
+            String fabricProfileJson, Map<Integer, FileHash> files) {
+        this.zis = zis;
+        this.minecraftVersion = properties.getProperty("minecraftVersion");
+        this.loaderVersion = properties.getProperty("loaderVersion");
+        this.packsBytes = packsBytes;
+        this.manifest = manifest;
+        this.fabricProfileJson = fabricProfileJson;
+        this.files = files;
+    }
+    
+    /**
+     * バンドルに格納したファイルの SHA-256 とサイズ
+     */
+    private static class FileHash {
+        final String path;
+        final String sha256;
+        final long size;
+        final long crc;
+        
+        FileHash(String path, String sha256, long size, long crc) {
+            this.path = path;
+            this.sha256 = sha256;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+    
+    /**
+     * 配信中の Modpack をバンドルに書き出します
+     * パック定義ファイルが参照するファイルをすべてダウンロードし、配信元のルートハッシュと照合してから 1 つの ZIP ファイルにまとめます
+     * @param gameDir ゲームディレクトリ（作業用ディレクトリの作成先）
+     * @param bundleFile 書き出すバンドルのファイル
+     * @param minecraftVersion Minecraft バージョン
+     * @param httpCache パック定義ファイルのキャッシュ
+     * @param parallelism 同時にダウンロードするファイル数
+     * @param progressListeners 進捗の通知先
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static void export(Path gameDir, Path bundleFile, String minecraftVersion, HttpCache httpCache, int parallelism,
+            List<ProgressListener> progressListeners) throws Exception {
+        System.out.println("バンドルを作成します: " + bundleFile);
+        System.out.println("Minecraft バージョン: " + minecraftVersion);
+        
+        byte[] packsBytes = Files.readAllBytes(
+            httpCache.get(ModpackProcessor.getPacksListUrl(minecraftVersion), Duration.ZERO).getBodyPath());
+        List<String> packsLines = new String(packsBytes, StandardCharsets.UTF_8).lines().toList();
+        List<StagedUpdate.Operation> operations = ModpackProcessor.parseOperations(packsLines);
+        
+        // 作業用ディレクトリに配信ディレクトリと同じ構成でダウンロードし、マニフェストを作成できるようにする
+        Path workDir = FileUtils.getUpdaterDir(gameDir, EXPORT_DIR);
+        ModpackProcessor.deleteRecursively(workDir);
+        Files.createDirectories(workDir);
+        try {
+            Files.write(workDir.resolve("abcd-update-packs-" + minecraftVersion + ".txt"), packsBytes);
+            downloadAll(workDir, operations, MirrorSet.forVersion(minecraftVersion, ModpackProcessor.parseMirrorUrls(packsLines)),
+                parallelism, progressListeners);
+            
+            ModpackManifest manifest = ModpackManifest.fromDownloads(workDir, minecraftVersion);
+            checkRoot(manifest, minecraftVersion);
+            StringWriter manifestText = new StringWriter();
+            manifest.write(manifestText);
+            
+            String loaderVersion = FabricInstaller.fetchLatestLoaderVersion(minecraftVersion);
+            String fabricProfileJson = FabricInstaller.fetchFabricProfileJson(minecraftVersion, loaderVersion);
+            
+            // 同じファイルを参照する操作があるため、ハッシュはファイルごとに 1 度だけ計算する
+            Map<String, FileHash> hashes = new HashMap<>();
+            StringBuilder filesText = new StringBuilder(FILES_HEADER).append('\n');
+            for (int i = 0; i < operations.size(); i++) {
+                StagedUpdate.Operation operation = operations.get(i);
+                if (operation.getType() != '+') {
+                    continue;
+                }
+                FileHash hash = hashes.get(operation.getValue());
+                if (hash == null) {
+                    hash = hashFile(operation.getValue(), ModpackProcessor.resolveInside(workDir, operation.getValue()));
+                    hashes.put(operation.getValue(), hash);
+                }
+                filesText.append(hash.sha256).append('\t').append(hash.size).append('\t').append(i).append('\t')
+                    .append(operation.getValue()).append('\n');
+            }
+            
+            Properties properties = new Properties();
+            properties.setProperty("format", String.valueOf(FORMAT_VERSION));
+            properties.setProperty("minecraftVersion", minecraftVersion);
+            properties.setProperty("loaderVersion", loaderVersion);
+            properties.setProperty("created", String.valueOf(System.currentTimeMillis()));
+            properties.setProperty("source", Endpoints.current().getDownloadBaseUrl());
+            StringWriter propertiesText = new StringWriter();
+            properties.store(propertiesText, "A-B-C-D Modpack bundle");
+            
+            Path tempFile = bundleFile.resolveSibling(bundleFile.getFileName() + ".part");
+            long bytes = 0;
+            try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                // 読み込み側がファイルより先に受け取れるよう、メタデータを先頭に置く
+                writeText(zos, PROPERTIES_ENTRY, propertiesText.toString());
+                writeEntry(zos, PACKS_ENTRY, packsBytes);
+                writeText(zos, MANIFEST_ENTRY, manifestText.toString());
+                writeText(zos, FABRIC_PROFILE_ENTRY, fabricProfileJson);
+                writeText(zos, FILES_ENTRY, filesText.toString());
+                
+                // mod などは圧縮済みのため、無圧縮で格納して読み込み時の展開の負荷を避ける
+                for (int i = 0; i < operations.size(); i++) {
+                    StagedUpdate.Operation operation = operations.get(i);
+                    if (operation.getType() != '+') {
+                        continue;
+                    }
+                    FileHash hash = hashes.get(operation.getValue());
+                    ZipEntry entry = new ZipEntry(FILES_PREFIX + i + "/" + operation.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(hash.size);
+                    entry.setCompressedSize(hash.size);
+                    entry.setCrc(hash.crc);
+                    zos.putNextEntry(entry);
+                    Files.copy(ModpackProcessor.resolveInside(workDir, operation.getValue()), zos);
+                    zos.closeEntry();
+                    bytes += hash.size;
+                }
+            }
+            ModpackProcessor.moveFile(tempFile, bundleFile);
+            System.out.println("バンドルを作成しました: " + bundleFile + " ファイル数: " + hashes.size()
+                + " (" + bytes / 1024 + " KiB) Fabric Loader: " + loaderVersion);
+        } finally {
+            ModpackProcessor.deleteRecursively(workDir);
+        }
+    }
+    
+    /**
+     * バンドルを開き、メタデータを読み込みます
+     * ファイルのエントリは {@link #stage} で先頭から順に読み込みます
+     * @param bundleFile バンドルのファイル
+     * @return バンドル
+     * @throws IOException 読み込みエラーまたは形式が不正な場合
+     */
+    public static ModpackBundle open(Path bundleFile) throws IOException {
+        System.out.println("バンドルを読み込み中: " + bundleFile);
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Files.newInputStream(bundleFile)));
+        try {
+            Map<String, byte[]> metadata = new HashMap<>();
+            while (!metadata.keySet().containsAll(METADATA_ENTRIES)) {
+                ZipEntry entry = zis.getNextEntry();
+                if (entry == null || entry.getName().startsWith(FILES_PREFIX)) {
+                    throw new IOException("バンドルの形式が不正です。メタデータが見つかりません: " + bundleFile);
+                }
+                metadata.put(entry.getName(), zis.readAllBytes());
+            }
+            
+            Properties properties = new Properties();
+            properties.load(new ByteArrayInputStream(metadata.get(PROPERTIES_ENTRY)));
+            if (!String.valueOf(FORMAT_VERSION).equals(properties.getProperty("format"))
+                    || properties.getProperty("minecraftVersion") == null || properties.getProperty("loaderVersion") == null) {
+                throw new IOException("対応していない形式のバンドルです: format=" + properties.getProperty("format"));
+            }
+            ModpackBundle bundle = new ModpackBundle(zis, properties, metadata.get(PACKS_ENTRY),
+                ModpackManifest.parse(new String(metadata.get(MANIFEST_ENTRY), StandardCharsets.UTF_8)),
+                new String(metadata.get(FABRIC_PROFILE_ENTRY), StandardCharsets.UTF_8),
+                parseFiles(new String(metadata.get(FILES_ENTRY), StandardCharsets.UTF_8)));
+            System.out.println("バンドルの Minecraft バージョン: " + bundle.minecraftVersion
+                + " Fabric Loader: " + bundle.loaderVersion + " ファイル数: " + bundle.files.size());
+            return bundle;
+        } catch (IOException | RuntimeException e) {
+            zis.close();
+            throw e;
+        }
+    }
+    
+    public String getMinecraftVersion() {
+        return minecraftVersion;
+    }
+    
+    public String getLoaderVersion() {
+        return loaderVersion;
+    }
+    
+    public String getFabricProfileJson() {
+        return fabricProfileJson;
+    }
+    
+    public ModpackManifest getManifest() {
+        return manifest;
+    }
+    
+    /**
+     * バンドルのファイルを先頭から読み込みながら、通常の更新と同じ準備フェーズでステージングします
+     * 同じバンドルの適用が中断されていた場合は、ステージング済みのファイルを読み飛ばして続きから再開します
+     * @param gameDir ゲームディレクトリ
+     * @param progressListeners 進捗の通知先
+     * @return ステージング済みの更新内容
+     * @throws Exception 読み込みエラー、ファイルの破損、または展開エラー
+     */
+    public StagedUpdate stage(Path gameDir, List<ProgressListener> progressListeners) throws Exception {
+        return ModpackProcessor.prepareFromSource(gameDir, minecraftVersion, packsBytes, this::fetch, progressListeners);
+    }
+    
+    /**
+     * 操作に対応するファイルのエントリまで読み進め、SHA-256 とサイズを照合しながら保存します
+     * 準備フェーズはパック定義ファイルの記述順に呼び出すため、エントリを読み戻す必要はありません
+     */
+    private void fetch(int operationIndex, StagedUpdate.Operation operation, Path target, ProgressTracker progress)
+            throws IOException, NoSuchAlgorithmException {
+        FileHash expected = files.get(operationIndex);
+        if (expected == null || !expected.path.equals(operation.getValue())) {
+            throw new IOException("バンドルにファイルが含まれていません: " + operation.getValue());
+        }
+        String name = FILES_PREFIX + operationIndex + "/" + operation.getValue();
+        DigestInputStream in = new DigestInputStream(progress.countingStream(zis), MessageDigest.getInstance("SHA-256"));
+        long size;
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null && !entry.getName().equals(name)) {
+                // ステージング済みの操作のエントリは読み飛ばす
+            }
+            if (entry == null) {
+                throw new IOException("バンドルにファイルが見つかりません: " + name);
+            }
+            
+            System.out.println("バンドルから展開: " + operation.getValue());
+            // ZIP は展開時にもう 1 度読み込むため、進捗の見込みバイト数を 2 倍にする
+            progress.addExpectedBytes(expected.size * (operation.isArchive() ? 2 : 1));
+            try (OutputStream out = Files.newOutputStream(target)) {
+                size = in.transferTo(out);
+            }
+        } catch (ZipException e) {
+            throw new IOException("バンドルが破損しています: " + e.getMessage(), e);
+        }
+        if (size != expected.size || !HexFormat.of().formatHex(in.getMessageDigest().digest()).equals(expected.sha256)) {
+            throw new IOException("バンドルのファイルが破損しています: " + operation.getValue());
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        zis.close();
+    }
+    
+    /**
+     * パック定義ファイルが参照するファイルを作業用ディレクトリに並列にダウンロードします
+     */
+    private static void downloadAll(Path workDir, List<StagedUpdate.Operation> operations, MirrorSet mirrors,
+            int parallelism, List<ProgressListener> progressListeners) throws Exception {
+        Set<String> paths = new LinkedHashSet<>();
+        operations.stream().filter(operation -> operation.getType() == '+').forEach(operation -> paths.add(operation.getValue()));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try (ProgressTracker progress = new ProgressTracker("バンドルの作成", paths.size(), PROGRESS_INTERVAL, progressListeners)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String path : paths) {
+                futures.add(executor.submit(() -> {
+                    Path target = ModpackProcessor.resolveInside(workDir, path);
+                    FileUtils.ensureDirectoryExists(target.getParent());
+                    System.out.println("ファイルダウンロード: " + path);
+                    try {
+                        mirrors.download(path, target, file -> progress.ofFile(file, 1));
+                    } catch (Exception e) {
+                        throw new RuntimeException("ファイルのダウンロードに失敗しました: " + path + " (" + e.getMessage() + ")", e);
+                    }
+                    progress.itemCompleted();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * ダウンロードしたファイルから作成したマニフェストを、配信元のルートハッシュと照合します
+     * 配信元にルートハッシュが無い場合は照合せずに続行します
+     */
+    private static void checkRoot(ModpackManifest manifest, String minecraftVersion) {
+        String expectedRoot;
+        try {
+            expectedRoot = NetworkUtils.fetchText(Endpoints.current().getDownloadBaseUrl()
+                + "abcd-update-packs-" + minecraftVersion + ".root").trim().toLowerCase();
+        } catch (Exception e) {
+            System.err.println("配信元のルートハッシュを取得できないため、照合せずに続行します: " + e.getMessage());
+            return;
+        }
+        if (!manifest.toTree().getRootHex().equals(expectedRoot)) {
+            throw new RuntimeException("ダウンロードしたファイルが配信元のルートハッシュと一致しません。配信内容の更新中の可能性があります。");
+        }
+        System.out.println("配信元のルートハッシュと一致しました: " + expectedRoot);
+    }
+    
+    /**
+     * ファイルの SHA-256、サイズ、CRC-32 を 1 度の読み込みで計算します
+     */
+    private static FileHash hashFile(String path, Path file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return new FileHash(path, HexFormat.of().formatHex(digest.digest()), size, crc.getValue());
+    }
+    
+    /**
+     * ファイルの一覧を読み込みます
+     * 形式: 1 行目が "# abcd-bundle-files 1"、以降は "SHA-256&lt;TAB&gt;サイズ&lt;TAB&gt;操作の位置&lt;TAB&gt;パス" です
+     */
+    private static Map<Integer, FileHash> parseFiles(String text) throws IOException {
+        List<String> lines = text.lines().toList();
+        if (lines.isEmpty() || !lines.get(0).trim().equals(FILES_HEADER)) {
+            throw new IOException("バンドルのファイルの一覧が不正です。");
+        }
+        Map<Integer, FileHash> files = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split("\t", 4);
+            try {
+                files.put(Integer.parseInt(fields[2]), new FileHash(fields[3], fields[0], Long.parseLong(fields[1]), -1));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("バンドルのファイルの一覧の行が不正です: " + line);
+            }
+        }
+        return files;
+    }
+    
+    private static void writeText(ZipOutputStream zos, String name, String text) throws IOException {
+        writeEntry(zos, name, text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void writeEntry(ZipOutputStream zos, String name, byte[] bytes) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+}
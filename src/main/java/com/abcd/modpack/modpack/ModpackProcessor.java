@@ -1,74 +1,363 @@
 package com.abcd.modpack.modpack;
 
-import com.abcd.modpack.network.NetworkUtils;
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.network.HttpCache;
+import com.abcd.modpack.network.MirrorSet;
+import com.abcd.modpack.network.PeerCache;
+import com.abcd.modpack.progress.ProgressListener;
+import com.abcd.modpack.progress.ProgressTracker;
+import com.abcd.modpack.store.ContentStore;
 import com.abcd.modpack.utils.FileUtils;
 
-import java.net.URI;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Modpack の処理を管理するクラス
  * Modpack リストのダウンロード、mod ファイルの管理、不要ファイルの削除を提供します
+ * 更新はダウンロードをステージングする準備フェーズと、ゲームディレクトリに反映するコミットフェーズに分かれます
+ * 各操作の完了は {@link UpdateJournal} に記録し、中断された更新は次回の起動で続きから再開します
  */
 public class ModpackProcessor {
-    private static final String DOWNLOAD_BASE_URL = "https://a-b-c-d.com/downloads/";
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final Duration PROGRESS_INTERVAL = Duration.ofMillis(500);
+    private static final String STAGING_DIR = "staging";
+    private static final String NEXT_STAGING_DIR = "staging-next";
+    private static final String MIRROR_PREFIX = "# mirror ";
     
     /**
      * Modpack リストを処理します
+     * 準備フェーズとコミットフェーズを続けて実行します
      * @param gameDir ゲームディレクトリ
      * @param minecraftVersion Minecraft バージョン
      * @throws Exception ネットワークエラーまたはファイル処理エラー
      */
     public static void processModpackList(Path gameDir, String minecraftVersion) throws Exception {
+        StagedUpdate update = prepareModpackList(gameDir, minecraftVersion, DEFAULT_PARALLELISM);
+        commitStagedUpdate(update);
+        update.getJournal().complete();
+    }
+    
+    /**
+     * Modpack 更新の準備フェーズを実行します
+     * パック定義ファイルの取得、ファイルのダウンロードと ZIP の展開をすべてステージングディレクトリ内で行い、
+     * ゲームディレクトリには一切書き込みません。そのため Minecraft の実行中でも実行できます
+     * 前回の更新が同じパック定義ファイルのまま中断されていた場合は、ジャーナルに記録されたステージング済みの内容を再利用します
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @param parallelism 同時にダウンロードするファイル数
+     * @return ステージング済みの更新内容
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static StagedUpdate prepareModpackList(Path gameDir, String minecraftVersion, int parallelism) throws Exception {
+        return prepareModpackList(gameDir, minecraftVersion, parallelism, List.of());
+    }
+    
+    /**
+     * Modpack 更新の準備フェーズを実行し、ダウンロードと展開の進捗をリスナーに通知します
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @param parallelism 同時にダウンロードするファイル数
+     * @param progressListeners 進捗の通知先
+     * @return ステージング済みの更新内容
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static StagedUpdate prepareModpackList(Path gameDir, String minecraftVersion, int parallelism,
+            List<ProgressListener> progressListeners) throws Exception {
+        return prepareModpackList(gameDir, minecraftVersion, parallelism, progressListeners, Executors.defaultThreadFactory());
+    }
+    
+    /**
+     * Modpack 更新の準備フェーズを実行します。ダウンロードと展開は指定したスレッドファクトリーで作成したスレッドで行います
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @param parallelism 同時にダウンロードするファイル数
+     * @param progressListeners 進捗の通知先
+     * @param threadFactory ダウンロードと展開を行うスレッドの作成元（優先度を下げる場合など）
+     * @return ステージング済みの更新内容
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static StagedUpdate prepareModpackList(Path gameDir, String minecraftVersion, int parallelism,
+            List<ProgressListener> progressListeners, ThreadFactory threadFactory) throws Exception {
+        // 事前準備済みのバージョンに切り替わった場合は、そのステージング内容を引き継ぐ
+        Path updaterDir = FileUtils.getUpdaterDir(gameDir, "");
+        if (UpdateJournal.adoptNext(updaterDir, minecraftVersion)) {
+            System.out.println("事前に準備した Minecraft " + minecraftVersion + " の Modpack を引き継ぎます。");
+            deleteRecursively(updaterDir.resolve(STAGING_DIR));
+            if (Files.exists(updaterDir.resolve(NEXT_STAGING_DIR))) {
+                moveFile(updaterDir.resolve(NEXT_STAGING_DIR), updaterDir.resolve(STAGING_DIR));
+            }
+        }
+        return prepare(gameDir, minecraftVersion, null, parallelism, progressListeners, false, null, threadFactory);
+    }
+    
+    /**
+     * 次の Minecraft バージョンの Modpack を事前に準備します
+     * 通常の更新とは別のステージングディレクトリ（.abcd/staging-next）にダウンロードと展開を行い、ゲームディレクトリには反映しません。
+     * そのバージョンに切り替わったときの {@link #prepareModpackList} は、パック定義ファイルが変わっていなければ準備済みの内容を再利用します
+     * @param gameDir ゲームディレクトリ
+     * @param nextMinecraftVersion 次の Minecraft バージョン
+     * @param parallelism 同時にダウンロードするファイル数
+     * @param progressListeners 進捗の通知先
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static void prepareNextVersion(Path gameDir, String nextMinecraftVersion, int parallelism,
+            List<ProgressListener> progressListeners) throws Exception {
+        prepareNextVersion(gameDir, nextMinecraftVersion, parallelism, progressListeners, Executors.defaultThreadFactory());
+    }
+    
+    /**
+     * 次の Minecraft バージョンの Modpack を事前に準備します。ダウンロードと展開は指定したスレッドファクトリーで作成したスレッドで行います
+     * @param gameDir ゲームディレクトリ
+     * @param nextMinecraftVersion 次の Minecraft バージョン
+     * @param parallelism 同時にダウンロードするファイル数
+     * @param progressListeners 進捗の通知先
+     * @param threadFactory ダウンロードと展開を行うスレッドの作成元（優先度を下げる場合など）
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static void prepareNextVersion(Path gameDir, String nextMinecraftVersion, int parallelism,
+            List<ProgressListener> progressListeners, ThreadFactory threadFactory) throws Exception {
+        StagedUpdate update = prepare(gameDir, nextMinecraftVersion, null, parallelism, progressListeners, true, null,
+            threadFactory);
+        update.getJournal().close();
+        System.out.println("Minecraft " + nextMinecraftVersion + " の Modpack の事前準備が完了しました。");
+    }
+    
+    /**
+     * 事前準備した内容が指定したバージョンのものでなければ破棄します
+     * 次のバージョンの予告が取り消された場合や、別のバージョンに変更された場合に使用します
+     * @param gameDir ゲームディレクトリ
+     * @param nextMinecraftVersion 現在予告されている次の Minecraft バージョン（予告が無い場合は null）
+     * @throws IOException ファイル操作エラー
+     */
+    public static void discardNextVersion(Path gameDir, String nextMinecraftVersion) throws IOException {
+        Path updaterDir = FileUtils.getUpdaterDir(gameDir, "");
+        String preparedVersion = UpdateJournal.getNextMinecraftVersion(updaterDir);
+        if ((preparedVersion != null && !preparedVersion.equals(nextMinecraftVersion))
+                || (preparedVersion == null && Files.exists(updaterDir.resolve(NEXT_STAGING_DIR)))) {
+            System.out.println("事前に準備した Modpack を破棄します: " + (preparedVersion != null ? preparedVersion : NEXT_STAGING_DIR));
+            UpdateJournal.discardNext(updaterDir);
+            deleteRecursively(updaterDir.resolve(NEXT_STAGING_DIR));
+        }
+    }
+    
+    /**
+     * パック定義ファイルの URL を取得します
+     * @param minecraftVersion Minecraft バージョン
+     * @return パック定義ファイルの URL
+     */
+    public static String getPacksListUrl(String minecraftVersion) {
+        return Endpoints.current().getDownloadBaseUrl() + getPacksListFileName(minecraftVersion);
+    }
+    
+    private static String getPacksListFileName(String minecraftVersion) {
+        return "abcd-update-packs-" + minecraftVersion + ".txt";
+    }
+    
+    /**
+     * 取得済みのパック定義ファイルとファイルの取得元を指定して準備フェーズを実行します（バンドルの適用に使用）
+     * 取得元はパック定義ファイルの記述順に呼び出すため、先頭から順に読み込むだけの取得元も使用できます
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @param packsBytes パック定義ファイルの内容
+     * @param fileSource ファイルの取得元
+     * @param progressListeners 進捗の通知先
+     * @return ステージング済みの更新内容
+     * @throws Exception ファイルの取得エラーまたはファイル処理エラー
+     */
+    static StagedUpdate prepareFromSource(Path gameDir, String minecraftVersion, byte[] packsBytes, FileSource fileSource,
+            List<ProgressListener> progressListeners) throws Exception {
+        return prepare(gameDir, minecraftVersion, packsBytes, 1, progressListeners, false, fileSource,
+            Executors.defaultThreadFactory());
+    }
+    
+    /**
+     * 準備フェーズの本体です
+     * @param packsBytes パック定義ファイルの内容。null の場合はダウンロードする
+     * @param next 次のバージョンの事前準備の場合は true（別のステージングディレクトリとジャーナルを使用する）
+     * @param fileSource ファイルの取得元。null の場合はネットワークから取得する
+     * @param threadFactory ダウンロードと展開を行うスレッドの作成元
+     */
+    private static StagedUpdate prepare(Path gameDir, String minecraftVersion, byte[] packsBytes, int parallelism,
+            List<ProgressListener> progressListeners, boolean next, FileSource fileSource,
+            ThreadFactory threadFactory) throws Exception {
         System.out.println("Modpack リストの処理を開始します...");
         System.out.println("ゲームディレクトリ: " + gameDir);
         System.out.println("Minecraft バージョン: " + minecraftVersion);
         
         // パック定義ファイルをダウンロード
-        String packsFileName = "abcd-update-packs-" + minecraftVersion + ".txt";
-        Path packsPath = downloadPacksList(gameDir, packsFileName);
+        if (packsBytes == null) {
+            packsBytes = Files.readAllBytes(downloadPacksList(gameDir, minecraftVersion));
+        }
         
-        // パック定義ファイルを読み込んで処理
-        List<String> lines = Files.readAllLines(packsPath, StandardCharsets.UTF_8);
+        // ジャーナルを開き、同じ更新の続きでなければ前回の中断などで残ったステージング内容を破棄
+        String updateId = UpdateJournal.createUpdateId(minecraftVersion, packsBytes);
+        Path updaterDir = FileUtils.getUpdaterDir(gameDir, "");
+        Path stagingDir = updaterDir.resolve(next ? NEXT_STAGING_DIR : STAGING_DIR);
+        UpdateJournal journal = next ? UpdateJournal.openNext(updaterDir, updateId) : UpdateJournal.open(updaterDir, updateId);
+        if (!journal.isResumed()) {
+            deleteRecursively(stagingDir);
+        }
+        Files.createDirectories(stagingDir);
         
-        int processedCount = 0;
-        for (String line : lines) {
-            if (line.isEmpty() || line.startsWith("#")) {
-                // 空行やコメント行をスキップ
-                continue;
+        // パック定義ファイルを読み込んで操作の一覧を作成
+        List<String> packsLines = new String(packsBytes, StandardCharsets.UTF_8).lines().toList();
+        List<StagedUpdate.Operation> operations = parseOperations(packsLines);
+        
+        // LAN キャッシュサーバーが設定されていれば、単体で配信されるファイルはそちらから先に取得する
+        PeerCache peer = fileSource == null ? PeerCache.forVersion(minecraftVersion) : null;
+        
+        // 配信元に加えて、設定とパック定義ファイルで指定されたミラーサーバーからも取得できるようにする
+        MirrorSet mirrors = fileSource == null ? MirrorSet.forVersion(minecraftVersion, parseMirrorUrls(packsLines)) : null;
+        if (mirrors != null && mirrors.hasMirrors()) {
+            System.out.println("ミラーサーバーを使用します。");
+        }
+        FileSource source = fileSource != null ? fileSource
+            : (operationIndex, operation, outputFile, progress) -> download(operation, outputFile, progress, peer, mirrors);
+        
+        // ダウンロードと展開を並列に実行
+        int downloadCount = (int) operations.stream().filter(operation -> operation.getType() == '+').count();
+        int threads = Math.max(1, parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+        try (ProgressTracker progress = new ProgressTracker("ダウンロードと展開", downloadCount,
+                PROGRESS_INTERVAL, progressListeners)) {
+            List<Future<?>> futures = new ArrayList<>();
+            int resumedCount = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                StagedUpdate.Operation operation = operations.get(i);
+                if (operation.getType() != '+') {
+                    continue;
+                }
+                // 適用済みの操作と、ステージング済みの内容が記録どおり残っている操作はダウンロードしない
+                int operationIndex = i;
+                Path operationDir = stagingDir.resolve(String.valueOf(operationIndex));
+                if (journal.isApplied(operationIndex) || reuseStaged(operation, operationDir, journal.getStaged(operationIndex))) {
+                    resumedCount++;
+                    progress.itemCompleted();
+                    continue;
+                }
+                futures.add(executor.submit(() -> {
+                    deleteRecursively(operationDir);
+                    stageFile(operationIndex, operation, operationDir, progress, source);
+                    journal.recordStaged(operationIndex, describeStaged(operation.getStagedPath()));
+                    progress.itemCompleted();
+                    return null;
+                }));
+            }
+            if (resumedCount > 0) {
+                System.out.println("前回の更新で完了済みのため、ダウンロードを省略しました。ファイル数: " + resumedCount);
             }
             
-            System.out.println("処理中: " + line);
-            
-            if (line.length() < 2) {
-                System.err.println("警告: 無効な行をスキップしました: " + line);
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                }
+            }
+        } catch (Exception e) {
+            journal.close();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        if (peer != null) {
+            peer.printSummary();
+        }
+        
+        System.out.println("Modpack 更新の準備が完了しました。操作数: " + operations.size());
+        return new StagedUpdate(gameDir, stagingDir, operations, journal);
+    }
+    
+    /**
+     * Modpack 更新のコミットフェーズを実行します
+     * パック定義ファイルの記述順に、ファイルの削除とステージング済みファイルの配置を行います。
+     * 管理対象のディレクトリ（mods、resourcepacks、config）は {@link ShadowTree} で新しい内容を組み立ててから入れ替え、
+     * それ以外の場所のファイルは直接移動します
+     * 各操作の完了はジャーナルに記録し、前回の更新で適用済みの操作は省略します
+     * @param update ステージング済みの更新内容
+     * @throws Exception ファイル処理エラー
+     */
+    public static void commitStagedUpdate(StagedUpdate update) throws Exception {
+        commitStagedUpdate(update, null);
+    }
+    
+    /**
+     * Modpack 更新のコミットフェーズを実行し、ゲームディレクトリへの変更を索引に記録します
+     * 削除対象のファイルは索引のファイル名一覧から探すため、変更の無いディレクトリは走査しません
+     * @param update ステージング済みの更新内容
+     * @param index ゲームディレクトリの索引。null の場合はディレクトリを走査する
+     * @throws Exception ファイル処理エラー
+     */
+    public static void commitStagedUpdate(StagedUpdate update, FileIndex index) throws Exception {
+        commitStagedUpdate(update, index, null);
+    }
+    
+    /**
+     * Modpack 更新のコミットフェーズを実行し、mods と resourcepacks のファイルはコンテンツストアを経由して配置します
+     * 他のインスタンスと同じ内容のファイルはストアの 1 つの実体をハードリンクで共有します
+     * @param update ステージング済みの更新内容
+     * @param index ゲームディレクトリの索引。null の場合はディレクトリを走査する
+     * @param store インスタンス間で共有するコンテンツストア。null の場合は共有しない。呼び出し元はストアの共有ロックを保持していること
+     * @throws Exception ファイル処理エラー
+     */
+    public static void commitStagedUpdate(StagedUpdate update, FileIndex index, ContentStore store) throws Exception {
+        System.out.println("Modpack 更新を適用中...");
+        Path gameDir = update.getGameDir();
+        
+        UpdateJournal journal = update.getJournal();
+        ShadowTree shadow = ShadowTree.open(gameDir, index, store);
+        List<Integer> appliedOperations = new ArrayList<>();
+        int processedCount = 0;
+        List<StagedUpdate.Operation> operations = update.getOperations();
+        for (int i = 0; i < operations.size(); i++) {
+            StagedUpdate.Operation operation = operations.get(i);
+            if (journal.isApplied(i)) {
+                System.out.println("適用済みのためスキップ: " + operation.getType() + operation.getValue());
+                processedCount++;
                 continue;
             }
+            System.out.println("処理中: " + operation.getType() + operation.getValue());
             
-            char operation = line.charAt(0);
-            String value = line.substring(1);
-            
-            switch (operation) {
+            switch (operation.getType()) {
                 case '-':
                     // ファイル削除
-                    removeFiles(gameDir, value);
+                    if (shadow.covers(operation.getValue())) {
+                        shadow.delete(operation.getValue());
+                    } else {
+                        removeFiles(gameDir, operation.getValue(), index);
+                    }
                     break;
                     
                 case '+':
-                    // ファイルダウンロード
-                    downloadAndProcessFile(gameDir, value);
+                    // ステージング済みファイルの配置
+                    if (operation.isArchive()) {
+                        placeTree(operation.getStagedPath(), gameDir, shadow, index);
+                    } else {
+                        placeFile(operation.getStagedPath(), resolveInside(gameDir, operation.getValue()), gameDir, shadow, index);
+                    }
                     break;
                     
                 default:
-                    System.err.println("警告: 不明な操作をスキップしました: " + line);
                     break;
             }
             
+            appliedOperations.add(i);
             processedCount++;
             
             if (processedCount % 5 == 0) {
@@ -76,34 +365,85 @@ public class ModpackProcessor {
             }
         }
         
+        // 組み立てたディレクトリを入れ替えてから、適用済みとして記録する
+        shadow.commit();
+        for (int operationIndex : appliedOperations) {
+            journal.recordApplied(operationIndex);
+        }
+        
+        deleteRecursively(update.getStagingDir());
         System.out.println("Modpack リストの処理が完了しました。処理総数: " + processedCount);
     }
     
+    /**
+     * パック定義ファイルの各行を操作に変換します
+     * @param lines パック定義ファイルの行
+     * @return 操作の一覧
+     */
+    static List<StagedUpdate.Operation> parseOperations(List<String> lines) {
+        List<StagedUpdate.Operation> operations = new ArrayList<>();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                // 空行やコメント行をスキップ
+                continue;
+            }
+            
+            if (line.length() < 2) {
+                System.err.println("警告: 無効な行をスキップしました: " + line);
+                continue;
+            }
+            
+            char operation = line.charAt(0);
+            if (operation != '-' && operation != '+') {
+                System.err.println("警告: 不明な操作をスキップしました: " + line);
+                continue;
+            }
+            
+            operations.add(new StagedUpdate.Operation(operation, line.substring(1)));
+        }
+        return operations;
+    }
+    
+    /**
+     * パック定義ファイルのミラーサーバーの指定（# mirror &lt;URL&gt; の行）を読み取ります
+     * コメント行として記述するため、ミラーに対応していないアップデーターでは無視されます
+     * @param lines パック定義ファイルの行
+     * @return ミラーサーバーの URL の一覧
+     */
+    static List<String> parseMirrorUrls(List<String> lines) {
+        List<String> urls = new ArrayList<>();
+        for (String line : lines) {
+            if (!line.startsWith(MIRROR_PREFIX)) {
+                continue;
+            }
+            String url = line.substring(MIRROR_PREFIX.length()).trim();
+            if (url.startsWith("http://") || url.startsWith("https://")) {
+                urls.add(url);
+            } else {
+                System.err.println("警告: 無効なミラーサーバーの指定をスキップしました: " + line);
+            }
+        }
+        return urls;
+    }
+    
     /**
      * Modpack リスト定義ファイルをダウンロードします
+     * ゲームの起動中にも実行されるため、ゲームディレクトリではなく .abcd/cache/http の HTTP キャッシュに保存します
+     * キャッシュは毎回サーバーに確認し、変更が無ければ 304 応答のため本文は転送されません
      * @param gameDir ゲームディレクトリ
-     * @param fileName ダウンロードするファイル名
+     * @param minecraftVersion Minecraft バージョン
      * @return ダウンロードされたファイルのパス
      * @throws Exception ダウンロードエラー
      */
-    private static Path downloadPacksList(Path gameDir, String fileName) throws Exception {
-        Path packsPath = gameDir.resolve(fileName);
-        
-        // 既存ファイルがあれば削除
-        Files.deleteIfExists(packsPath);
-        
-        System.out.println("Modpack リストをダウンロード中: " + fileName);
-        
-        String url = DOWNLOAD_BASE_URL + fileName;
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url))
-            .build();
-            
-        HttpResponse<Path> response = NetworkUtils.getHttpClient()
-            .send(request, HttpResponse.BodyHandlers.ofFile(packsPath));
+    private static Path downloadPacksList(Path gameDir, String minecraftVersion) throws Exception {
+        System.out.println("Modpack リストをダウンロード中: " + getPacksListFileName(minecraftVersion));
         
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Modpack リストのダウンロードに失敗しました。HTTP エラー: " + response.statusCode());
+        HttpCache cache = new HttpCache(FileUtils.getUpdaterDir(gameDir, "cache/http"));
+        Path packsPath;
+        try {
+            packsPath = cache.get(getPacksListUrl(minecraftVersion), Duration.ZERO).getBodyPath();
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Modpack リストのダウンロードに失敗しました。" + e.getMessage(), e);
         }
         
         System.out.println("Modpack リストのダウンロードが完了しました: " + packsPath);
@@ -114,67 +454,203 @@ public class ModpackProcessor {
      * 指定されたパターンに一致するファイルを削除します
      * @param gameDir ゲームディレクトリ
      * @param pattern 削除対象のファイルパターン
+     * @param index ゲームディレクトリの索引（null 可）
      */
-    private static void removeFiles(Path gameDir, String pattern) {
+    private static void removeFiles(Path gameDir, String pattern, FileIndex index) {
         try {
             System.out.println("ファイル削除: " + pattern);
-            FileUtils.removeFilesWithPattern(gameDir, pattern);
+            FileUtils.removeFilesWithPattern(gameDir, pattern, index);
         } catch (Exception e) {
             System.err.println("ファイル削除中にエラーが発生しました: " + pattern + " - " + e.getMessage());
         }
     }
     
     /**
-     * ファイルをダウンロードして、必要に応じて展開します
-     * @param gameDir ゲームディレクトリ
-     * @param fileName ダウンロードするファイル名
+     * ファイルをステージングディレクトリに取得し、ZIP の場合は展開します
+     * @param operationIndex パック定義ファイル内の操作の位置
+     * @param operation ダウンロード操作
+     * @param operationDir この操作専用のステージングディレクトリ
+     * @param progress 進捗の集計先
+     * @param source ファイルの取得元
      * @throws Exception ダウンロードエラーまたは展開エラー
      */
-    private static void downloadAndProcessFile(Path gameDir, String fileName) throws Exception {
-        System.out.println("ファイルダウンロード: " + fileName);
-        
-        String url = DOWNLOAD_BASE_URL + fileName;
-        Path outputFile = gameDir.resolve(fileName);
+    private static void stageFile(int operationIndex, StagedUpdate.Operation operation, Path operationDir,
+            ProgressTracker progress, FileSource source) throws Exception {
+        Path outputFile = resolveInside(operationDir, operation.getValue());
         
         // 親ディレクトリが存在しない場合は作成
         FileUtils.ensureDirectoryExists(outputFile.getParent());
         
-        // ファイルをダウンロード
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url))
-            .build();
-            
-        HttpResponse<Path> response = NetworkUtils.getHttpClient()
-            .send(request, HttpResponse.BodyHandlers.ofFile(outputFile));
+        source.fetch(operationIndex, operation, outputFile, progress);
+        
+        // ZIP ファイルの場合はステージング内で展開
+        if (operation.isArchive()) {
+            Path extractDir = operationDir.resolve("extracted");
+            FileUtils.unzip(outputFile, extractDir, progress);
+            Files.deleteIfExists(outputFile);
+            operation.setStagedPath(extractDir);
+        } else {
+            operation.setStagedPath(outputFile);
+        }
+    }
+    
+    /**
+     * ファイルを LAN キャッシュサーバー、または配信元とミラーサーバーからダウンロードします
+     * @param operation ダウンロード操作
+     * @param outputFile 保存先のファイル
+     * @param progress 進捗の集計先
+     * @param peer LAN キャッシュサーバー（null 可）
+     * @param mirrors 配信元とミラーサーバー
+     * @throws Exception ダウンロードエラー
+     */
+    private static void download(StagedUpdate.Operation operation, Path outputFile, ProgressTracker progress,
+            PeerCache peer, MirrorSet mirrors) throws Exception {
+        String fileName = operation.getValue();
+        System.out.println("ファイルダウンロード: " + fileName);
         
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("ファイルのダウンロードに失敗しました: " + fileName + " (HTTP エラー: " + response.statusCode() + ")");
+        // LAN キャッシュサーバーから取得できた場合は、マニフェストの SHA-256 と照合済み
+        if (!operation.isArchive() && peer != null && peer.fetch(fileName, outputFile, progress.ofFile(outputFile, 1))) {
+            System.out.println("LAN キャッシュサーバーから取得: " + fileName);
+            return;
         }
         
-        System.out.println("ダウンロード完了: " + outputFile);
+        // ファイルをダウンロード。HTTP エラー、タイムアウト、Content-Length やマニフェストとの不一致は次のサーバーから取得し直す
+        // ZIP は展開時にもう 1 度読み込むため、進捗の見込みバイト数を 2 倍にする
+        try {
+            mirrors.download(fileName, outputFile, file -> progress.ofFile(file, operation.isArchive() ? 2 : 1));
+        } catch (Exception e) {
+            throw new RuntimeException("ファイルのダウンロードに失敗しました: " + fileName + " (" + e.getMessage() + ")", e);
+        }
         
-        // ZIP ファイルの場合は展開
-        String fileExtension = getFileExtension(fileName);
-        if (".zip".equalsIgnoreCase(fileExtension)) {
-            System.out.println("ZIP ファイルを展開中: " + outputFile);
-            FileUtils.unzip(outputFile, gameDir);
-            
-            // 展開後に ZIP ファイルを削除
-            Files.deleteIfExists(outputFile);
-            System.out.println("ZIP ファイルを削除しました: " + outputFile);
+        System.out.println("ダウンロード完了: " + fileName);
+    }
+    
+    /**
+     * ジャーナルに記録されたステージング済みの内容が残っていれば、それを操作のステージング先として使用します
+     * @param operation ダウンロード操作
+     * @param operationDir この操作専用のステージングディレクトリ
+     * @param recorded ジャーナルに記録された確認用の情報（記録が無い場合は null）
+     * @return 再利用できた場合は true
+     * @throws IOException ファイル操作エラー
+     */
+    private static boolean reuseStaged(StagedUpdate.Operation operation, Path operationDir, String recorded) throws IOException {
+        if (recorded == null) {
+            return false;
         }
+        Path stagedPath = operation.isArchive() ? operationDir.resolve("extracted")
+            : resolveInside(operationDir, operation.getValue());
+        if (!Files.exists(stagedPath) || !recorded.equals(describeStaged(stagedPath))) {
+            return false;
+        }
+        operation.setStagedPath(stagedPath);
+        return true;
+    }
+    
+    /**
+     * ステージング済みの内容を確認するための情報（ファイル数と合計サイズ）を作成します
+     * @param stagedPath ステージング済みのファイルまたは展開済みのディレクトリ
+     * @return "ファイル数/合計サイズ" 形式の文字列
+     * @throws IOException ファイル操作エラー
+     */
+    private static String describeStaged(Path stagedPath) throws IOException {
+        long count = 0;
+        long bytes = 0;
+        try (var stream = Files.walk(stagedPath)) {
+            for (Path file : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                count++;
+                bytes += Files.size(file);
+            }
+        }
+        return count + "/" + bytes;
     }
     
     /**
-     * ファイル名から拡張子を取得します
-     * @param fileName ファイル名
-     * @return ファイル拡張子（ドット含む）。拡張子がない場合は空文字列
+     * 展開済みディレクトリ内のファイルを同じ相対パスでゲームディレクトリに配置します
+     * @param sourceDir 展開済みディレクトリ
+     * @param gameDir ゲームディレクトリ
+     * @param shadow 管理対象のディレクトリを組み立てるシャドウツリー
+     * @param index ゲームディレクトリの索引（null 可）
+     * @throws IOException ファイル操作エラー
      */
-    private static String getFileExtension(String fileName) {
-        int lastDotIndex = fileName.lastIndexOf('.');
-        if (lastDotIndex > 0 && lastDotIndex < fileName.length() - 1) {
-            return fileName.substring(lastDotIndex);
+    private static void placeTree(Path sourceDir, Path gameDir, ShadowTree shadow, FileIndex index) throws IOException {
+        List<Path> files;
+        try (var stream = Files.walk(sourceDir)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+        for (Path file : files) {
+            placeFile(file, gameDir.resolve(sourceDir.relativize(file).toString()), gameDir, shadow, index);
+        }
+        System.out.println("展開済みファイルを配置しました。ファイル数: " + files.size());
+    }
+    
+    /**
+     * ステージング済みのファイルを配置します
+     * 管理対象のディレクトリ内であればシャドウツリーに、それ以外はゲームディレクトリに直接移動します
+     * @param stagedFile ステージング済みのファイル
+     * @param outputFile ゲームディレクトリ内の配置先
+     * @param gameDir ゲームディレクトリ
+     * @param shadow 管理対象のディレクトリを組み立てるシャドウツリー
+     * @param index ゲームディレクトリの索引（null 可）
+     * @throws IOException ファイル操作エラー
+     */
+    private static void placeFile(Path stagedFile, Path outputFile, Path gameDir, ShadowTree shadow, FileIndex index) throws IOException {
+        String relativePath = gameDir.relativize(outputFile).toString();
+        if (shadow.covers(relativePath)) {
+            shadow.put(relativePath, stagedFile);
+            return;
+        }
+        FileUtils.ensureDirectoryExists(outputFile.getParent());
+        moveFile(stagedFile, outputFile);
+        if (index != null) {
+            index.recordWrite(relativePath);
+        }
+        System.out.println("配置完了: " + outputFile);
+    }
+    
+    /**
+     * ファイルを移動します。同じファイルシステム内ではリネームのみで完了します
+     * @param source 移動元
+     * @param target 移動先
+     * @throws IOException ファイル操作エラー
+     */
+    static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * 相対パスを基準ディレクトリ内に解決します
+     * @param baseDir 基準ディレクトリ
+     * @param relativePath 相対パス
+     * @return 解決されたパス
+     * @throws IOException 基準ディレクトリの外を指している場合
+     */
+    static Path resolveInside(Path baseDir, String relativePath) throws IOException {
+        Path resolved = baseDir.resolve(relativePath).normalize();
+        if (!resolved.startsWith(baseDir.normalize())) {
+            throw new IOException("パスが対象ディレクトリ外を指しています: " + relativePath);
+        }
+        return resolved;
+    }
+    
+    /**
+     * ディレクトリを中身ごと削除します
+     * @param dir 削除するディレクトリ
+     * @throws IOException ファイル操作エラー
+     */
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (var stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
         }
-        return "";
     }
 }
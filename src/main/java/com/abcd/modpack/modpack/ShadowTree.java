@@ -0,0 +1,358 @@
+package com.abcd.modpack.modpack;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.store.ContentStore;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.verify.ModpackManifest;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * コミットフェーズで管理対象のディレクトリ（mods、resourcepacks、config）の新しい内容を組み立てるシャドウツリー
+ * 変更するディレクトリを .abcd/shadow/new にハードリンクで複製し、削除と配置をすべて複製側で行います。
+ * 組み立てた内容を確認してから、ゲームディレクトリのディレクトリとリネームで入れ替えるため、
+ * ゲームディレクトリが更新途中の状態になることはありません
+ *
+ * 入れ替えたディレクトリの元の内容はすべての入れ替えが終わるまで .abcd/shadow/old に残し、
+ * 途中で失敗した場合はその場で、中断された場合は次回の {@link #open(Path, FileIndex, ContentStore)} で元のディレクトリに戻します
+ * コンテンツストアを指定した場合、mods と resourcepacks に配置するファイルはストアに保存したファイルからリンクします
+ */
+class ShadowTree {
+    private final Path gameDir;
+    private final Path newRoot;
+    private final Path oldRoot;
+    private final FileIndex index;
+    private final ContentStore store;
+    private final Set<String> mirrored = new LinkedHashSet<>();
+    private final Map<String, Long> written = new LinkedHashMap<>();
+    private final Set<String> deleted = new LinkedHashSet<>();
+    private int linkedFiles;
+    
+    private ShadowTree(Path gameDir, Path shadowDir, FileIndex index, ContentStore store) {
+        this.gameDir = gameDir;
+        this.newRoot = shadowDir.resolve("new");
+        this.oldRoot = shadowDir.resolve("old");
+        this.index = index;
+        this.store = store;
+    }
+    
+    /**
+     * シャドウツリーを作成します
+     * 前回の入れ替えが途中で中断されていた場合は、先に元のディレクトリを戻します
+     * @param gameDir ゲームディレクトリ
+     * @param index ゲームディレクトリの索引（null 可）
+     * @param store インスタンス間で共有するコンテンツストア（null 可）
+     * @return シャドウツリー
+     * @throws IOException ファイル操作エラー
+     */
+    static ShadowTree open(Path gameDir, FileIndex index, ContentStore store) throws IOException {
+        ShadowTree shadow = new ShadowTree(gameDir, FileUtils.getUpdaterDir(gameDir, "shadow"), index, store);
+        shadow.recover();
+        deleteRecursively(shadow.newRoot);
+        Files.createDirectories(shadow.newRoot);
+        return shadow;
+    }
+    
+    /**
+     * 相対パスがシャドウツリーで扱う管理対象のディレクトリ内かどうかを判定します
+     * @param relativePath ゲームディレクトリからの相対パス（ファイルパターンを含む）
+     * @return シャドウツリーで扱う場合は true
+     */
+    boolean covers(String relativePath) {
+        return ModpackManifest.isManaged(relativePath.replace('\\', '/'));
+    }
+    
+    /**
+     * パターンに一致するファイルをシャドウツリーから削除します
+     * @param pattern ゲームディレクトリからの相対パスのファイルパターン（ファイル名にワイルドカードを含む可能性がある）
+     * @throws IOException ファイル操作エラー
+     */
+    void delete(String pattern) throws IOException {
+        String normalized = pattern.replace('\\', '/');
+        int lastSlash = normalized.lastIndexOf('/');
+        String parentPath = normalized.substring(0, lastSlash);
+        Pattern filePattern = Pattern.compile(FileUtils.convertWildcardToRegex(normalized.substring(lastSlash + 1)));
+        
+        mirror(parentPath);
+        Path searchDir = newRoot.resolve(parentPath);
+        if (!Files.isDirectory(searchDir)) {
+            System.out.println("削除対象ディレクトリが見つかりません: " + parentPath);
+            return;
+        }
+        List<Path> filesToDelete;
+        try (Stream<Path> stream = Files.list(searchDir)) {
+            filesToDelete = stream
+                .filter(Files::isRegularFile)
+                .filter(path -> filePattern.matcher(path.getFileName().toString()).matches())
+                .toList();
+        }
+        int deletedCount = 0;
+        for (Path path : filesToDelete) {
+            try {
+                Files.delete(path);
+            } catch (IOException e) {
+                System.err.println("ファイル削除に失敗: " + path + " - " + e.getMessage());
+                continue;
+            }
+            String relativePath = parentPath + "/" + path.getFileName();
+            written.remove(relativePath);
+            deleted.add(relativePath);
+            deletedCount++;
+        }
+        System.out.println("削除完了。削除ファイル数: " + deletedCount);
+    }
+    
+    /**
+     * ステージング済みのファイルをシャドウツリーに配置します
+     * ステージング側のファイルはハードリンクするだけなので、入れ替えが終わるまでステージングの内容は残ります
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @param stagedFile ステージング済みのファイル
+     * @throws IOException ファイル操作エラー
+     */
+    void put(String relativePath, Path stagedFile) throws IOException {
+        String normalized = relativePath.replace('\\', '/');
+        mirror(normalized);
+        Path target = newRoot.resolve(normalized);
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        Path source = store != null && ContentStore.isShareable(normalized) ? store.intern(stagedFile) : stagedFile;
+        link(target, source);
+        written.put(normalized, Files.size(stagedFile));
+        deleted.remove(normalized);
+    }
+    
+    /**
+     * 組み立てた内容を確認し、ゲームディレクトリのディレクトリと入れ替えます
+     * 確認するのは配置したファイルが存在し、ステージング済みのファイルと同じサイズであることだけです。
+     * 内容のハッシュはここでは確認しないため、内容の検証は --verify で行います。
+     * 変更の無かったディレクトリは入れ替えません。入れ替えの途中で失敗した場合は、入れ替え済みのディレクトリも元に戻します
+     * @throws IOException 確認に失敗した場合、またはファイル操作エラー
+     */
+    void commit() throws IOException {
+        if (mirrored.isEmpty()) {
+            deleteRecursively(newRoot.getParent());
+            return;
+        }
+        
+        // 配置したファイルがすべてステージング時のサイズで存在することを確認
+        for (Map.Entry<String, Long> entry : written.entrySet()) {
+            Path file = newRoot.resolve(entry.getKey());
+            if (!Files.isRegularFile(file) || Files.size(file) != entry.getValue()) {
+                throw new IOException("シャドウツリーの内容が一致しないため、更新を中止します: " + entry.getKey());
+            }
+        }
+        
+        long startTime = System.currentTimeMillis();
+        List<String> swapped = new ArrayList<>();
+        try {
+            for (String name : mirrored) {
+                if (swap(name)) {
+                    swapped.add(name);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            revert(swapped, e);
+            throw e;
+        }
+        // 元のディレクトリを削除した時点で入れ替えの完了とする
+        deleteRecursively(oldRoot);
+        System.out.println("ディレクトリを入れ替えました: " + mirrored + " ハードリンク数: " + linkedFiles
+            + " 配置: " + written.size() + " 削除: " + deleted.size()
+            + " 入れ替え時間: " + (System.currentTimeMillis() - startTime) + "ms");
+        
+        if (index != null) {
+            for (String path : deleted) {
+                index.recordDelete(path);
+            }
+            for (String path : written.keySet()) {
+                index.recordWrite(path);
+            }
+        }
+        deleteRecursively(newRoot.getParent());
+    }
+    
+    /**
+     * 管理対象のディレクトリをまだ複製していなければ、ゲームディレクトリからハードリンクで複製します
+     */
+    private void mirror(String relativePath) throws IOException {
+        String name = relativePath.substring(0, relativePath.indexOf('/') < 0 ? relativePath.length() : relativePath.indexOf('/'));
+        if (!mirrored.add(name)) {
+            return;
+        }
+        Path sourceDir = gameDir.resolve(name);
+        Path targetDir = newRoot.resolve(name);
+        Files.createDirectories(targetDir);
+        if (!Files.isDirectory(sourceDir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(sourceDir)) {
+            paths = stream.toList();
+        }
+        for (Path source : paths) {
+            Path target = targetDir.resolve(sourceDir.relativize(source).toString());
+            if (Files.isDirectory(source)) {
+                Files.createDirectories(target);
+            } else if (Files.isRegularFile(source)) {
+                link(target, source);
+                linkedFiles++;
+            }
+        }
+    }
+    
+    /**
+     * ゲームディレクトリのディレクトリを組み立て済みのディレクトリと入れ替えます
+     * 元のディレクトリは {@link #commit()} がすべての入れ替えを終えるまで .abcd/shadow/old に残します。
+     * 元のディレクトリを移動できない場合（他のプロセスが使用中など）は、ファイルを 1 つずつ反映します
+     * @return ディレクトリごと入れ替えた場合は true、ファイルを個別に反映した場合は false
+     */
+    private boolean swap(String name) throws IOException {
+        Path liveDir = gameDir.resolve(name);
+        Path newDir = newRoot.resolve(name);
+        Path oldDir = oldRoot.resolve(name);
+        
+        if (Files.exists(liveDir)) {
+            Files.createDirectories(oldRoot);
+            try {
+                move(liveDir, oldDir);
+            } catch (FileSystemException e) {
+                System.err.println("ディレクトリを入れ替えられないため、ファイルを個別に反映します: " + name + " - " + e.getMessage());
+                applyInPlace(name);
+                return false;
+            }
+        }
+        try {
+            move(newDir, liveDir);
+        } catch (IOException e) {
+            // 元のディレクトリを戻してから中止する
+            if (Files.exists(oldDir)) {
+                move(oldDir, liveDir);
+            }
+            throw e;
+        }
+        return true;
+    }
+    
+    /**
+     * 入れ替えの途中で失敗した場合に、入れ替え済みのディレクトリを元に戻します
+     * 戻せなかったディレクトリは .abcd/shadow/old に残り、次回の {@link #recover()} で戻します
+     */
+    private void revert(List<String> swapped, Exception cause) {
+        boolean reverted = true;
+        for (int i = swapped.size() - 1; i >= 0; i--) {
+            String name = swapped.get(i);
+            try {
+                restore(name);
+                System.out.println("入れ替えたディレクトリを元に戻しました: " + name);
+            } catch (IOException e) {
+                reverted = false;
+                cause.addSuppressed(e);
+            }
+        }
+        if (reverted) {
+            try {
+                deleteRecursively(oldRoot);
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+    
+    /**
+     * ゲームディレクトリのディレクトリを .abcd/shadow/old に残した元のディレクトリに戻します
+     * 元のディレクトリが無い場合（更新前に存在しなかった場合）は、ゲームディレクトリのディレクトリを削除します
+     */
+    private void restore(String name) throws IOException {
+        Path liveDir = gameDir.resolve(name);
+        Path oldDir = oldRoot.resolve(name);
+        deleteRecursively(liveDir);
+        if (Files.exists(oldDir)) {
+            move(oldDir, liveDir);
+        }
+    }
+    
+    /**
+     * ディレクトリを入れ替えられない場合に、変更したファイルだけをゲームディレクトリに反映します
+     */
+    private void applyInPlace(String name) throws IOException {
+        String prefix = name + "/";
+        for (String path : deleted) {
+            if (path.startsWith(prefix)) {
+                Files.deleteIfExists(gameDir.resolve(path));
+            }
+        }
+        for (String path : written.keySet()) {
+            if (path.startsWith(prefix)) {
+                Path target = gameDir.resolve(path);
+                Files.createDirectories(target.getParent());
+                move(newRoot.resolve(path), target);
+            }
+        }
+    }
+    
+    /**
+     * 前回の入れ替えが途中で中断されていた場合に、元のディレクトリを戻します
+     * 元のディレクトリが残っているのは入れ替えが完了していない場合なので、入れ替え済みのディレクトリも元に戻します
+     */
+    private void recover() throws IOException {
+        if (!Files.isDirectory(oldRoot)) {
+            return;
+        }
+        List<Path> dirs;
+        try (Stream<Path> stream = Files.list(oldRoot)) {
+            dirs = stream.toList();
+        }
+        for (Path oldDir : dirs) {
+            String name = oldDir.getFileName().toString();
+            System.out.println("前回中断された入れ替えを元に戻します: " + name);
+            restore(name);
+        }
+        deleteRecursively(oldRoot);
+    }
+    
+    /**
+     * ハードリンクを作成します。ファイルシステムが対応していない場合はコピーします
+     */
+    private static void link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existing, link, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+    
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
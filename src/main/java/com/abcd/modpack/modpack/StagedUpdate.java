@@ -0,0 +1,107 @@
+package com.abcd.modpack.modpack;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 準備フェーズでステージング済みの Modpack 更新内容を表すクラス
+ * ダウンロードと ZIP 展開はステージングディレクトリ内で完了しており、
+ * コミットフェーズではファイルの削除と移動（リネーム）だけを行います
+ */
+public class StagedUpdate {
+    private final Path gameDir;
+    private final Path stagingDir;
+    private final List<Operation> operations;
+    private final UpdateJournal journal;
+
+    StagedUpdate(Path gameDir, Path stagingDir, List<Operation> operations, UpdateJournal journal) {
+        this.gameDir = gameDir;
+        this.stagingDir = stagingDir;
+        this.operations = operations;
+        this.journal = journal;
+    }
+
+    /**
+     * ゲームディレクトリを取得します
+     * @return ゲームディレクトリ
+     */
+    public Path getGameDir() {
+        return gameDir;
+    }
+
+    /**
+     * ステージングディレクトリを取得します
+     * @return ステージングディレクトリ
+     */
+    public Path getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * パック定義ファイルの記述順に並んだ操作の一覧を取得します
+     * @return 操作の一覧
+     */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+    
+    /**
+     * この更新のジャーナルを取得します
+     * ランチャープロファイルや options.txt など、Modpack 以外の手順の完了もここに記録します
+     * @return ジャーナル
+     */
+    public UpdateJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * パック定義ファイルの 1 行に対応する操作
+     */
+    public static class Operation {
+        private final char type;
+        private final String value;
+        private Path stagedPath;
+
+        Operation(char type, String value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        /**
+         * 操作の種類を取得します
+         * @return '-'（削除）または '+'（ダウンロード）
+         */
+        public char getType() {
+            return type;
+        }
+
+        /**
+         * 操作の対象（ファイルパターンまたはファイル名）を取得します
+         * @return 操作の対象
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * ステージング済みのファイルのパスを取得します
+         * ZIP の場合は展開済みのディレクトリを指します
+         * @return ステージング済みのパス。削除操作の場合は null
+         */
+        public Path getStagedPath() {
+            return stagedPath;
+        }
+
+        void setStagedPath(Path stagedPath) {
+            this.stagedPath = stagedPath;
+        }
+
+        /**
+         * ZIP ファイル（ゲームディレクトリに展開するもの）かどうかを確認します
+         * @return ZIP ファイルの場合は true
+         */
+        public boolean isArchive() {
+            return type == '+' && value.toLowerCase().endsWith(".zip");
+        }
+    }
+}
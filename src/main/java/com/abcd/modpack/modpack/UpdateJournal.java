@@ -0,0 +1,349 @@
+package com.abcd.modpack.modpack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Modpack 更新の先行書き込みログ（ジャーナル）
+ * 更新の各操作が完了するたびに 1 行を追記してディスクに同期し、更新が途中で中断された場合に
+ * 次回の起動で完了済みの操作を省略して再開できるようにします
+ *
+ * 記録の形式は "種類 TAB 値 TAB 追加情報 TAB CRC32" の 1 行です。書き込み途中で中断された行は CRC32 が一致しないため、
+ * その行以降は無視します。パック定義ファイルの内容が前回と異なる場合は再開せず、最初からやり直します
+ *
+ * 次の Minecraft バージョンの事前準備は別のジャーナル（update-next.journal）に記録し、
+ * そのバージョンに切り替わったときに {@link #adoptNext(Path, String)} で通常のジャーナルとして引き継ぎます
+ */
+public class UpdateJournal implements Closeable {
+    private static final String FILE_NAME = "update.journal";
+    private static final String NEXT_FILE_NAME = "update-next.journal";
+    private static final String BEGIN = "BEGIN";
+    private static final String STAGED = "STAGED";
+    private static final String APPLIED = "APPLIED";
+    private static final String STEP = "STEP";
+    
+    private final Path file;
+    private final FileChannel channel;
+    private final boolean resumed;
+    private final Map<Integer, String> staged = new HashMap<>();
+    private final Set<Integer> applied = new HashSet<>();
+    private final Set<String> steps = new HashSet<>();
+    
+    private UpdateJournal(Path file, FileChannel channel, boolean resumed) {
+        this.file = file;
+        this.channel = channel;
+        this.resumed = resumed;
+    }
+    
+    /**
+     * ジャーナルを開きます
+     * 前回のジャーナルが同じ更新内容（パック定義ファイルの内容）のものであれば記録を引き継ぎ、
+     * それ以外の場合は新しいジャーナルを作成します
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @param updateId 更新内容の識別子（Minecraft バージョンとパック定義ファイルのハッシュ）
+     * @return ジャーナル
+     * @throws IOException ファイル操作エラー
+     */
+    public static UpdateJournal open(Path updaterDir, String updateId) throws IOException {
+        return openFile(updaterDir.resolve(FILE_NAME), updateId);
+    }
+    
+    /**
+     * 次の Minecraft バージョンの事前準備用のジャーナルを開きます
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @param updateId 更新内容の識別子（Minecraft バージョンとパック定義ファイルのハッシュ）
+     * @return ジャーナル
+     * @throws IOException ファイル操作エラー
+     */
+    public static UpdateJournal openNext(Path updaterDir, String updateId) throws IOException {
+        return openFile(updaterDir.resolve(NEXT_FILE_NAME), updateId);
+    }
+    
+    /**
+     * 更新内容の識別子を作成します
+     * @param minecraftVersion Minecraft バージョン
+     * @param packsBytes パック定義ファイルの内容
+     * @return 更新内容の識別子（"Minecraft バージョン:パック定義ファイルの SHA-256"）
+     */
+    public static String createUpdateId(String minecraftVersion, byte[] packsBytes) {
+        try {
+            return minecraftVersion + ":" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(packsBytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 が利用できません", e);
+        }
+    }
+    
+    /**
+     * ジャーナルに記録中の更新内容の識別子を取得します
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @return 更新内容の識別子。ジャーナルが無い場合は null
+     * @throws IOException ファイル読み込みエラー
+     */
+    public static String getUpdateId(Path updaterDir) throws IOException {
+        return readUpdateId(updaterDir.resolve(FILE_NAME));
+    }
+    
+    /**
+     * 事前準備用のジャーナルがどの Minecraft バージョンのものかを取得します
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @return Minecraft バージョン。事前準備用のジャーナルが無い場合は null
+     * @throws IOException ファイル読み込みエラー
+     */
+    public static String getNextMinecraftVersion(Path updaterDir) throws IOException {
+        return readMinecraftVersion(updaterDir.resolve(NEXT_FILE_NAME));
+    }
+    
+    /**
+     * 事前準備用のジャーナルが指定したバージョンのものであれば、通常のジャーナルとして引き継ぎます
+     * 通常のジャーナルが既に同じバージョンの更新を記録している場合は、そちらを優先して引き継ぎません
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @param minecraftVersion これから更新する Minecraft バージョン
+     * @return 引き継いだ場合は true
+     * @throws IOException ファイル操作エラー
+     */
+    public static boolean adoptNext(Path updaterDir, String minecraftVersion) throws IOException {
+        Path nextFile = updaterDir.resolve(NEXT_FILE_NAME);
+        Path file = updaterDir.resolve(FILE_NAME);
+        if (!minecraftVersion.equals(readMinecraftVersion(nextFile)) || minecraftVersion.equals(readMinecraftVersion(file))) {
+            return false;
+        }
+        Files.move(nextFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+    
+    /**
+     * 事前準備用のジャーナルを削除します
+     * @param updaterDir アップデーターの作業用ディレクトリ（.abcd）
+     * @throws IOException ファイル操作エラー
+     */
+    public static void discardNext(Path updaterDir) throws IOException {
+        Files.deleteIfExists(updaterDir.resolve(NEXT_FILE_NAME));
+    }
+    
+    private static UpdateJournal openFile(Path file, String updateId) throws IOException {
+        Records read = Files.exists(file) ? readRecords(file) : new Records();
+        List<String[]> records = read.records;
+        boolean resumed = !records.isEmpty() && records.get(0)[0].equals(BEGIN) && records.get(0)[1].equals(updateId);
+        
+        FileChannel channel;
+        if (resumed) {
+            // 書き込み途中で中断された行の後ろに追記すると以降の記録がすべて無視されるため、最後の有効な記録の直後で切り詰める
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            if (channel.size() > read.validLength) {
+                channel.truncate(read.validLength);
+                channel.force(false);
+            }
+            channel.position(read.validLength);
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        
+        UpdateJournal journal = new UpdateJournal(file, channel, resumed);
+        if (resumed) {
+            for (String[] record : records) {
+                switch (record[0]) {
+                    case STAGED -> journal.staged.put(Integer.parseInt(record[1]), record[2]);
+                    case APPLIED -> journal.applied.add(Integer.parseInt(record[1]));
+                    case STEP -> journal.steps.add(record[1]);
+                    default -> { }
+                }
+            }
+            System.out.println("前回中断した更新を再開します。ステージング済み: " + journal.staged.size()
+                + " 適用済み: " + journal.applied.size());
+        } else {
+            if (!records.isEmpty()) {
+                System.out.println("前回の更新のジャーナルは更新内容が異なるため破棄します。");
+            }
+            journal.append(BEGIN, updateId, "");
+        }
+        return journal;
+    }
+    
+    /**
+     * 前回中断した更新を再開しているかどうかを取得します
+     * @return 再開している場合は true
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+    
+    /**
+     * 操作のステージングが完了した時点の確認用の情報を取得します
+     * @param operationIndex 操作の番号（パック定義ファイルの操作の順番）
+     * @return 確認用の情報（記録が無い場合は null）
+     */
+    public synchronized String getStaged(int operationIndex) {
+        return staged.get(operationIndex);
+    }
+    
+    /**
+     * 操作のステージングが完了したことを記録します
+     * @param operationIndex 操作の番号
+     * @param verification 再開時にステージング内容を確認するための情報（サイズなど）
+     * @throws IOException 書き込みエラー
+     */
+    public synchronized void recordStaged(int operationIndex, String verification) throws IOException {
+        staged.put(operationIndex, verification);
+        append(STAGED, String.valueOf(operationIndex), verification);
+    }
+    
+    /**
+     * 操作がゲームディレクトリに適用済みかどうかを取得します
+     * @param operationIndex 操作の番号
+     * @return 適用済みの場合は true
+     */
+    public synchronized boolean isApplied(int operationIndex) {
+        return applied.contains(operationIndex);
+    }
+    
+    /**
+     * 操作をゲームディレクトリに適用したことを記録します
+     * @param operationIndex 操作の番号
+     * @throws IOException 書き込みエラー
+     */
+    public synchronized void recordApplied(int operationIndex) throws IOException {
+        applied.add(operationIndex);
+        append(APPLIED, String.valueOf(operationIndex), "");
+    }
+    
+    /**
+     * Modpack 以外の手順（ランチャープロファイル、options.txt など）が完了したことを記録します
+     * @param name 手順の名前
+     * @throws IOException 書き込みエラー
+     */
+    public synchronized void recordStep(String name) throws IOException {
+        if (steps.add(name)) {
+            append(STEP, name, "");
+        }
+    }
+    
+    /**
+     * 手順が完了済みかどうかを取得します
+     * @param name 手順の名前
+     * @return 完了済みの場合は true
+     */
+    public synchronized boolean isStepDone(String name) {
+        return steps.contains(name);
+    }
+    
+    /**
+     * すべての手順が完了したため、ジャーナルを削除します
+     * @throws IOException ファイル操作エラー
+     */
+    public synchronized void complete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+        System.out.println("更新が完了したため、ジャーナルを削除しました。");
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+    
+    /**
+     * ジャーナルの BEGIN 記録から Minecraft バージョンを読み取ります
+     */
+    private static String readMinecraftVersion(Path file) throws IOException {
+        String updateId = readUpdateId(file);
+        int colon = updateId == null ? -1 : updateId.lastIndexOf(':');
+        return colon < 0 ? null : updateId.substring(0, colon);
+    }
+    
+    /**
+     * ジャーナルの BEGIN 記録から更新内容の識別子を読み取ります
+     */
+    private static String readUpdateId(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        List<String[]> records = readRecords(file).records;
+        if (records.isEmpty() || !records.get(0)[0].equals(BEGIN)) {
+            return null;
+        }
+        return records.get(0)[1];
+    }
+    
+    /**
+     * 記録を 1 行追記し、ディスクに同期します
+     */
+    private void append(String type, String value, String detail) throws IOException {
+        String body = type + "\t" + value + "\t" + detail;
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.wrap((body + "\t" + Long.toHexString(crc.getValue()) + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+    
+    /**
+     * 読み込んだジャーナルの記録
+     */
+    private static class Records {
+        private final List<String[]> records = new ArrayList<>();
+        /** 最後の有効な記録の直後までのバイト数 */
+        private long validLength;
+    }
+    
+    /**
+     * ジャーナルの記録を読み込みます。CRC32 が一致しない行があれば、その行以降は中断された書き込みとして無視します
+     * 中断された行はマルチバイト文字の途中で切れている場合があるため、バイト単位で行を区切ってから文字列に変換します
+     */
+    private static Records readRecords(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Records result = new Records();
+        int start = 0;
+        int end;
+        while ((end = indexOf(bytes, (byte) '\n', start)) >= 0) {
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            int lastTab = line.lastIndexOf('\t');
+            if (lastTab < 0) {
+                break;
+            }
+            String body = line.substring(0, lastTab);
+            CRC32 crc = new CRC32();
+            crc.update(body.getBytes(StandardCharsets.UTF_8));
+            String[] fields = body.split("\t", 3);
+            if (!Long.toHexString(crc.getValue()).equals(line.substring(lastTab + 1)) || fields.length != 3) {
+                System.err.println("ジャーナルの途中で中断された記録を無視します。");
+                break;
+            }
+            result.records.add(fields);
+            result.validLength = start;
+        }
+        return result;
+    }
+    
+    private static int indexOf(byte[] bytes, byte value, int fromIndex) {
+        for (int i = fromIndex; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
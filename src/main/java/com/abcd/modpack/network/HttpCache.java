@@ -0,0 +1,207 @@
+package com.abcd.modpack.network;
+
+import com.abcd.modpack.utils.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * HTTP レスポンスをディスクにキャッシュするクラス
+ * 有効期限（TTL）内はネットワークにアクセスせず、期限切れ後は ETag / Last-Modified を使った条件付きリクエストで再検証します
+ */
+public class HttpCache {
+    private final Path cacheDir;
+
+    /**
+     * HTTP キャッシュを初期化します
+     * @param cacheDir キャッシュファイルの保存先ディレクトリ
+     */
+    public HttpCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * キャッシュされたレスポンス
+     */
+    public static class Entry {
+        private final Path bodyPath;
+        private final Instant fetchedAt;
+        private final boolean fromNetwork;
+
+        Entry(Path bodyPath, Instant fetchedAt, boolean fromNetwork) {
+            this.bodyPath = bodyPath;
+            this.fetchedAt = fetchedAt;
+            this.fromNetwork = fromNetwork;
+        }
+
+        /**
+         * レスポンス本文を保存したファイルのパスを取得します
+         * @return 本文ファイルのパス
+         */
+        public Path getBodyPath() {
+            return bodyPath;
+        }
+
+        /**
+         * サーバーで最後に検証された日時を取得します
+         * @return 最終検証日時
+         */
+        public Instant getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * 今回の取得でサーバーから本文をダウンロードしたかどうかを取得します
+         * @return 本文をダウンロードした場合は true。キャッシュまたは 304 応答の場合は false
+         */
+        public boolean isFromNetwork() {
+            return fromNetwork;
+        }
+
+        /**
+         * レスポンス本文を UTF-8 テキストとして読み込みます
+         * @return 本文テキスト
+         * @throws IOException 読み込みエラー
+         */
+        public String readText() throws IOException {
+            return Files.readString(bodyPath, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 指定された URL のレスポンスを取得します
+     * キャッシュが TTL 内であればネットワークにアクセスせずにキャッシュを返します
+     * @param url 取得先の URL
+     * @param ttl キャッシュの有効期限
+     * @return キャッシュエントリ
+     * @throws Exception ネットワークエラーまたは HTTP エラー
+     */
+    public Entry get(String url, Duration ttl) throws Exception {
+        Path bodyPath = getBodyPath(url);
+        Path metaPath = getMetaPath(url);
+        Properties meta = loadMeta(metaPath);
+
+        if (meta != null && Files.exists(bodyPath)) {
+            Instant fetchedAt = getFetchedAt(meta);
+            if (fetchedAt.plus(ttl).isAfter(Instant.now())) {
+                System.out.println("キャッシュを使用します（" + fetchedAt + " に取得）: " + url);
+                return new Entry(bodyPath, fetchedAt, false);
+            }
+        } else {
+            meta = null;
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url));
+        if (meta != null) {
+            String etag = meta.getProperty("etag");
+            String lastModified = meta.getProperty("lastModified");
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+        }
+
+        Path tempPath = cacheDir.resolve(bodyPath.getFileName() + ".tmp");
+        HttpResponse<Path> response = NetworkUtils.getHttpClient()
+            .send(builder.build(), HttpResponse.BodyHandlers.ofFile(tempPath));
+
+        Instant now = Instant.now();
+        if (response.statusCode() == 304 && meta != null) {
+            Files.deleteIfExists(tempPath);
+            System.out.println("サーバー上の内容は変更されていません: " + url);
+            meta.setProperty("fetchedAt", String.valueOf(now.toEpochMilli()));
+            storeMeta(metaPath, meta);
+            return new Entry(bodyPath, now, false);
+        }
+
+        if (response.statusCode() != 200) {
+            Files.deleteIfExists(tempPath);
+            throw new RuntimeException("HTTP エラー: " + response.statusCode() + " - " + url);
+        }
+
+        Files.move(tempPath, bodyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Properties newMeta = new Properties();
+        newMeta.setProperty("url", url);
+        newMeta.setProperty("fetchedAt", String.valueOf(now.toEpochMilli()));
+        response.headers().firstValue("ETag").ifPresent(v -> newMeta.setProperty("etag", v));
+        response.headers().firstValue("Last-Modified").ifPresent(v -> newMeta.setProperty("lastModified", v));
+        storeMeta(metaPath, newMeta);
+
+        return new Entry(bodyPath, now, true);
+    }
+
+    /**
+     * ネットワークにアクセスせず、有効期限に関係なくキャッシュ済みのレスポンスを取得します
+     * @param url 取得先の URL
+     * @return キャッシュエントリ。キャッシュが存在しない場合は null
+     */
+    public Entry getCached(String url) {
+        Path bodyPath = getBodyPath(url);
+        Properties meta = loadMeta(getMetaPath(url));
+        if (meta == null || !Files.exists(bodyPath)) {
+            return null;
+        }
+        return new Entry(bodyPath, getFetchedAt(meta), false);
+    }
+
+    /**
+     * URL に対応するキャッシュ本文ファイルのパスを取得します
+     * ファイル名は URL の末尾と URL 全体のハッシュから生成します
+     */
+    private Path getBodyPath(String url) {
+        String path = URI.create(url).getPath();
+        String name = path == null ? "" : path.substring(path.lastIndexOf('/') + 1);
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        String hash = FileUtils.computeHash(url, "SHA-256").substring(0, 16);
+        return cacheDir.resolve(name.isEmpty() ? hash : hash + "-" + name);
+    }
+
+    private Path getMetaPath(String url) {
+        Path bodyPath = getBodyPath(url);
+        return bodyPath.resolveSibling(bodyPath.getFileName() + ".properties");
+    }
+
+    private static Instant getFetchedAt(Properties meta) {
+        try {
+            return Instant.ofEpochMilli(Long.parseLong(meta.getProperty("fetchedAt", "0")));
+        } catch (NumberFormatException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static Properties loadMeta(Path metaPath) {
+        if (!Files.exists(metaPath)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(metaPath)) {
+            Properties meta = new Properties();
+            meta.load(in);
+            return meta;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("キャッシュ情報の読み込みに失敗しました: " + metaPath + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void storeMeta(Path metaPath, Properties meta) throws IOException {
+        Path tempPath = metaPath.resolveSibling(metaPath.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempPath)) {
+            meta.store(out, "A-B-C-D Modpack Updater HTTP cache");
+        }
+        Files.move(tempPath, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
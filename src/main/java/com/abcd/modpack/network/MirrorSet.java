@@ -0,0 +1,421 @@
+package com.abcd.modpack.network;
+
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.verify.ModpackManifest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 配信元とミラーサーバーから Modpack のファイルを取得するクラス
+ * サーバーごとに転送速度の移動平均と連続失敗回数を記録し（ヘルススコア）、スコアの高いサーバーから順に取得します。
+ * 取得に失敗したサーバーは一定時間後回しにし、次のサーバーから透過的に取得し直します。
+ * 応答ヘッダーが届かない場合や本文の受信が途中で止まった場合も、失敗として次のサーバーから取得し直します
+ *
+ * ミラーサーバーの内容は信用せず、配信元のマニフェストに記載された SHA-256 と一致した場合のみ使用します。
+ * マニフェストに無いファイル（ZIP など）は配信元からのみ取得します
+ *
+ * ヘッジリクエストを有効にした場合、応答ヘッダーが届くまでの時間がこれまでの応答時間のパーセンタイルを超えると
+ * 別のサーバーにも同じファイルを要求し、先に取得が完了したほうを使用します
+ *
+ * スコアはプロセス内のすべての取得で共有するため、遅いサーバーは以降のファイルでも後回しになります
+ */
+public class MirrorSet {
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int MIN_LATENCY_SAMPLES = 16;
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final long MAX_COOLDOWN_MILLIS = 60_000;
+    /** 応答ヘッダーを受信するまでの待ち時間 */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    /** 本文の受信に許容する最低速度。下回った場合は応答が止まったものとみなす */
+    private static final long MIN_BYTES_PER_SECOND = 32 * 1024;
+    /** Content-Length が無い応答の本文の受信に許容する時間 */
+    private static final Duration UNKNOWN_SIZE_TIMEOUT = Duration.ofMinutes(10);
+    
+    private static final Map<String, Health> HEALTH = new ConcurrentHashMap<>();
+    private static final long[] latencySamples = new long[LATENCY_SAMPLES];
+    private static int latencyCount;
+    private static volatile boolean hedgeEnabled;
+    private static volatile int hedgePercentile = 95;
+    
+    private final List<String> baseUrls;
+    private final ModpackManifest manifest;
+    
+    private MirrorSet(List<String> baseUrls, ModpackManifest manifest) {
+        this.baseUrls = baseUrls;
+        this.manifest = manifest;
+    }
+    
+    /**
+     * サーバーごとの状態
+     */
+    private static class Health {
+        double bytesPerSecond;
+        int samples;
+        int consecutiveFailures;
+        long cooldownUntil;
+        
+        synchronized double score(boolean primary) {
+            // 未計測のサーバーは一度は試すよう優先する（配信元を最初に使用する）
+            if (samples == 0) {
+                return primary ? Double.MAX_VALUE : Double.MAX_VALUE / 2;
+            }
+            return bytesPerSecond;
+        }
+        
+        synchronized boolean isCoolingDown(long now) {
+            return now < cooldownUntil;
+        }
+        
+        synchronized void recordSuccess(long bytes, long elapsedNanos) {
+            double rate = bytes / Math.max(elapsedNanos / 1e9, 1e-3);
+            bytesPerSecond = samples == 0 ? rate : bytesPerSecond * (1 - EWMA_WEIGHT) + rate * EWMA_WEIGHT;
+            samples++;
+            consecutiveFailures = 0;
+            cooldownUntil = 0;
+        }
+        
+        synchronized void recordFailure(long now) {
+            consecutiveFailures++;
+            cooldownUntil = now + Math.min(MAX_COOLDOWN_MILLIS, 5000L << Math.min(consecutiveFailures - 1, 4));
+        }
+    }
+    
+    /**
+     * 送信中の要求
+     * 結果を加工した CompletableFuture を取り消しても通信は中止されないため、sendAsync が返した CompletableFuture も保持します
+     */
+    private static class Request {
+        private final CompletableFuture<HttpResponse<Path>> exchange;
+        private final CompletableFuture<HttpResponse<Path>> result;
+        private final AtomicBoolean cancelled;
+        
+        Request(CompletableFuture<HttpResponse<Path>> exchange, CompletableFuture<HttpResponse<Path>> result,
+                AtomicBoolean cancelled) {
+            this.exchange = exchange;
+            this.result = result;
+            this.cancelled = cancelled;
+        }
+        
+        /**
+         * 通信を中止します。取り消しによる失敗はサーバーの失敗として記録しません
+         */
+        void cancel() {
+            if (!result.isDone()) {
+                cancelled.set(true);
+                exchange.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * ヘッジリクエストの設定を行います
+     * @param enabled ヘッジリクエストを行う場合は true
+     * @param percentile 別のサーバーにも要求するまでの待ち時間とする応答時間のパーセンタイル（50～99）
+     */
+    public static void configureHedging(boolean enabled, int percentile) {
+        hedgeEnabled = enabled;
+        hedgePercentile = Math.max(50, Math.min(99, percentile));
+    }
+    
+    /**
+     * 現在の接続先のミラーサーバーを取得します
+     * ミラーサーバーから取得したファイルは、指定したマニフェストの SHA-256 と照合します
+     * @param additionalMirrorUrls パック定義ファイルなどで指定された追加のミラーサーバーの URL
+     * @param manifest 配信元から取得したマニフェスト（null の場合はミラーサーバーを使用せず、配信元からのみ取得する）
+     * @return 配信元と設定・追加のミラーサーバーを含むミラーセット
+     */
+    public static MirrorSet forDownloads(List<String> additionalMirrorUrls, ModpackManifest manifest) {
+        Endpoints endpoints = Endpoints.current();
+        LinkedHashSet<String> urls = new LinkedHashSet<>();
+        urls.add(endpoints.getDownloadBaseUrl());
+        if (manifest != null) {
+            urls.addAll(endpoints.getDownloadMirrorUrls());
+            for (String url : additionalMirrorUrls) {
+                urls.add(url.endsWith("/") ? url : url + "/");
+            }
+        }
+        return new MirrorSet(List.copyOf(urls), manifest);
+    }
+    
+    /**
+     * 指定したバージョンの Modpack を取得するミラーサーバーを取得します
+     * ミラーサーバーがある場合は照合用のマニフェストを配信元から取得し、取得できない場合は配信元からのみ取得します
+     * @param minecraftVersion Minecraft バージョン
+     * @param additionalMirrorUrls パック定義ファイルなどで指定された追加のミラーサーバーの URL
+     * @return 配信元と設定・追加のミラーサーバーを含むミラーセット
+     */
+    public static MirrorSet forVersion(String minecraftVersion, List<String> additionalMirrorUrls) {
+        Endpoints endpoints = Endpoints.current();
+        if (endpoints.getDownloadMirrorUrls().isEmpty() && additionalMirrorUrls.isEmpty()) {
+            return forDownloads(additionalMirrorUrls, null);
+        }
+        try {
+            // ファイルの SHA-256 は必ず配信元のマニフェストから得る（ミラーサーバーの内容は信用しない）
+            String manifestUrl = endpoints.getDownloadBaseUrl() + "abcd-update-packs-" + minecraftVersion + ".manifest";
+            return forDownloads(additionalMirrorUrls, ModpackManifest.parse(NetworkUtils.fetchText(manifestUrl)));
+        } catch (Exception e) {
+            System.err.println("マニフェストを取得できないため、ミラーサーバーを使用しません: " + e.getMessage());
+            return forDownloads(additionalMirrorUrls, null);
+        }
+    }
+    
+    /**
+     * ミラーサーバーが設定されているかどうかを取得します
+     * @return 配信元以外のサーバーがある場合は true
+     */
+    public boolean hasMirrors() {
+        return baseUrls.size() > 1;
+    }
+    
+    /**
+     * ファイルをスコアの高いサーバーから取得します
+     * HTTP 200 以外の応答、接続エラー、タイムアウト、Content-Length と異なるサイズ、
+     * ミラーサーバーの場合はマニフェストと異なる SHA-256 を失敗として次のサーバーから取得し直します
+     * @param relativePath 配信ディレクトリからの相対パス
+     * @param target 保存先のファイル
+     * @param bodyHandlers 保存先のファイルから BodyHandler を作成する関数（進捗の集計用）
+     * @return 成功した応答。本文は target に保存済み
+     * @throws Exception すべてのサーバーで取得に失敗した場合
+     */
+    public HttpResponse<Path> download(String relativePath, Path target,
+            Function<Path, HttpResponse.BodyHandler<Path>> bodyHandlers) throws Exception {
+        // マニフェストで照合できないファイルはミラーサーバーから取得しない
+        ModpackManifest.Entry entry = manifest != null ? manifest.get(relativePath.replace('\\', '/')) : null;
+        String sha256 = entry != null && entry.isDirect() ? entry.getSha256() : null;
+        List<String> order = sha256 != null ? rank() : List.of(baseUrls.get(0));
+        Exception lastError = null;
+        for (int i = 0; i < order.size(); i++) {
+            String baseUrl = order.get(i);
+            String hedgeUrl = hedgeEnabled && i + 1 < order.size() ? order.get(i + 1) : null;
+            try {
+                return hedgeUrl == null ? fetch(baseUrl, relativePath, target, bodyHandlers, sha256, null).result.join()
+                    : fetchHedged(baseUrl, hedgeUrl, relativePath, target, bodyHandlers, sha256);
+            } catch (Exception e) {
+                lastError = unwrap(e);
+                if (i + 1 < order.size()) {
+                    System.err.println("取得に失敗したため、別のサーバーから取得します: " + relativePath + " (" + baseUrl + " - "
+                        + lastError.getMessage() + ")");
+                }
+            }
+        }
+        throw lastError;
+    }
+    
+    /**
+     * 最初のサーバーの応答が遅い場合に、次のサーバーにも要求して先に完了したほうを使用します
+     */
+    private HttpResponse<Path> fetchHedged(String baseUrl, String hedgeUrl, String relativePath, Path target,
+            Function<Path, HttpResponse.BodyHandler<Path>> bodyHandlers, String sha256) throws Exception {
+        long threshold = latencyThresholdNanos();
+        if (threshold < 0) {
+            return fetch(baseUrl, relativePath, target, bodyHandlers, sha256, null).result.join();
+        }
+        
+        // 2 つの要求が同じファイルに書き込まないよう、それぞれ一時ファイルに保存してから採用したほうを移動する
+        Path firstTarget = target.resolveSibling(target.getFileName() + ".m0");
+        Path secondTarget = target.resolveSibling(target.getFileName() + ".m1");
+        Request first = null;
+        Request second = null;
+        try {
+            CompletableFuture<Long> firstHeaders = new CompletableFuture<>();
+            first = fetch(baseUrl, relativePath, firstTarget, bodyHandlers, sha256, firstHeaders);
+            try {
+                firstHeaders.get(threshold, TimeUnit.NANOSECONDS);
+                return moveInto(first.result.join(), target);
+            } catch (TimeoutException e) {
+                System.out.println("応答が遅いため、別のサーバーにも要求します: " + relativePath
+                    + " (" + threshold / 1_000_000 + "ms 超過)");
+            }
+            second = fetch(hedgeUrl, relativePath, secondTarget, bodyHandlers, sha256, null);
+            
+            // 先に成功したほうを採用し、両方失敗した場合は後に失敗したほうのエラーとする
+            CompletableFuture<HttpResponse<Path>> winner = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (Request pending : List.of(first, second)) {
+                pending.result.whenComplete((response, error) -> {
+                    if (error == null) {
+                        winner.complete(response);
+                    } else if (failures.incrementAndGet() == 2) {
+                        winner.completeExceptionally(error);
+                    }
+                });
+            }
+            return moveInto(winner.get(), target);
+        } finally {
+            // 採用しなかったほうの通信を中止する（受信済みのバイト数は進捗から差し引かれる）
+            if (first != null) {
+                first.cancel();
+            }
+            if (second != null) {
+                second.cancel();
+            }
+            deleteQuietly(firstTarget);
+            deleteQuietly(secondTarget);
+        }
+    }
+    
+    /**
+     * 1 つのサーバーにファイルを要求し、結果をスコアに記録します
+     * HttpRequest のタイムアウトは応答ヘッダーの受信までにしか適用されないため、
+     * 応答ヘッダーを受信した時点で Content-Length から本文の受信を終えるまでの期限を設け、過ぎた場合は通信を中止します
+     * @param sha256 ミラーサーバーから取得した場合に照合する SHA-256（照合しない場合は null）
+     */
+    private Request fetch(String baseUrl, String relativePath, Path target,
+            Function<Path, HttpResponse.BodyHandler<Path>> bodyHandlers, String sha256, CompletableFuture<Long> headers) {
+        Health health = health(baseUrl);
+        boolean verify = sha256 != null && !baseUrl.equals(baseUrls.get(0));
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(baseUrl + relativePath))
+            .timeout(REQUEST_TIMEOUT)
+            .build();
+        HttpResponse.BodyHandler<Path> bodyHandler = bodyHandlers.apply(target);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        CompletableFuture<Long> bodyTimeout = new CompletableFuture<>();
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<Path>> exchange = NetworkUtils.getHttpClient()
+            .sendAsync(request, responseInfo -> {
+                long latency = System.nanoTime() - start;
+                recordLatency(latency);
+                if (headers != null) {
+                    headers.complete(latency);
+                }
+                long contentLength = responseInfo.headers().firstValueAsLong("Content-Length").orElse(-1);
+                bodyTimeout.complete(contentLength < 0 ? UNKNOWN_SIZE_TIMEOUT.toMillis()
+                    : REQUEST_TIMEOUT.toMillis() + contentLength * 1000 / MIN_BYTES_PER_SECOND);
+                return bodyHandler.apply(responseInfo);
+            });
+        AtomicBoolean timedOut = new AtomicBoolean();
+        bodyTimeout.thenAccept(timeoutMillis -> CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS)
+            .execute(() -> {
+                if (!exchange.isDone()) {
+                    timedOut.set(true);
+                    exchange.cancel(true);
+                }
+            }));
+        CompletableFuture<HttpResponse<Path>> result = exchange
+            .handle((response, error) -> {
+                try {
+                    if (error != null) {
+                        if (timedOut.get()) {
+                            throw new HttpTimeoutException("サーバーからの受信が " + bodyTimeout.getNow(0L) + "ms 以内に終わりませんでした");
+                        }
+                        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new IOException("HTTP エラー: " + response.statusCode());
+                    }
+                    long size = Files.size(response.body());
+                    long expectedSize = response.headers().firstValueAsLong("Content-Length").orElse(size);
+                    if (size != expectedSize) {
+                        throw new IOException("ファイルのサイズが一致しません: " + size + " / " + expectedSize);
+                    }
+                    long elapsedNanos = System.nanoTime() - start;
+                    if (verify && !sha256.equals(FileUtils.computeHash(response.body(), "SHA-256"))) {
+                        throw new IOException("ミラーサーバーのファイルがマニフェストと一致しません");
+                    }
+                    health.recordSuccess(size, elapsedNanos);
+                    return response;
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            })
+            .whenComplete((response, error) -> {
+                if (error != null) {
+                    if (!cancelled.get()) {
+                        health.recordFailure(System.currentTimeMillis());
+                    }
+                    if (headers != null) {
+                        headers.completeExceptionally(error);
+                    }
+                }
+            });
+        return new Request(exchange, result, cancelled);
+    }
+    
+    /**
+     * サーバーをスコアの高い順に並べます。失敗直後のサーバーは最後にします
+     */
+    private List<String> rank() {
+        long now = System.currentTimeMillis();
+        String primary = baseUrls.get(0);
+        List<String> order = new ArrayList<>(baseUrls);
+        order.sort(Comparator
+            .comparing((String url) -> health(url).isCoolingDown(now))
+            .thenComparing(url -> -health(url).score(url.equals(primary))));
+        return order;
+    }
+    
+    private static Health health(String baseUrl) {
+        return HEALTH.computeIfAbsent(baseUrl, url -> new Health());
+    }
+    
+    private static synchronized void recordLatency(long latencyNanos) {
+        latencySamples[latencyCount % LATENCY_SAMPLES] = latencyNanos;
+        latencyCount++;
+    }
+    
+    /**
+     * ヘッジリクエストを行うまでの待ち時間を取得します
+     * @return 待ち時間（ナノ秒）。応答時間の記録が少ない場合は -1
+     */
+    private static synchronized long latencyThresholdNanos() {
+        int count = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencySamples, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, count * hedgePercentile / 100)];
+    }
+    
+    private static HttpResponse<Path> moveInto(HttpResponse<Path> response, Path target) throws IOException {
+        try {
+            Files.move(response.body(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(response.body(), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return response;
+    }
+    
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // 取り消した要求が書き込み中の場合。ステージングディレクトリごと削除される
+        }
+    }
+    
+    private static Exception unwrap(Exception e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException
+                || (cause instanceof RuntimeException && cause.getCause() instanceof IOException)) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+}
@@ -0,0 +1,162 @@
+package com.abcd.modpack.network;
+
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.verify.ModpackManifest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LAN 内のキャッシュサーバー（--serve-cache を実行中の別の PC）からファイルを取得するクライアント
+ * 配信元のマニフェストに記載された SHA-256 でピアのコンテンツストアのファイルを要求し、
+ * 受信した内容の SHA-256 とサイズがマニフェストと一致した場合のみ使用します。
+ * ピアに無いファイル、一致しないファイル、マニフェストに無いファイル（ZIP など）は配信元から取得します
+ *
+ * ピアに接続できなかった場合や応答が途中で止まった場合は、以降の要求でタイムアウトを待たないよう、その回の更新ではピアを使用しません
+ */
+public class PeerCache {
+    /** ピアは LAN 内にあるため、接続できない場合は短時間で諦めて配信元から取得する */
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(2))
+        .build();
+    /** 応答ヘッダーを受信するまでの待ち時間 */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    /** 本文の受信に許容する最低速度。下回った場合は応答が止まったものとみなす（LAN 内のため配信元より十分速いはず） */
+    private static final long MIN_BYTES_PER_SECOND = 1024 * 1024;
+    
+    private static volatile String peerUrl;
+    
+    private final String baseUrl;
+    private final ModpackManifest manifest;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean available = true;
+    
+    private PeerCache(String baseUrl, ModpackManifest manifest) {
+        this.baseUrl = baseUrl;
+        this.manifest = manifest;
+    }
+    
+    /**
+     * 以降の更新で使用するピアを設定します
+     * @param url ピアの URL（例: http://192.168.0.10:8770/）。null または空の場合はピアを使用しない
+     */
+    public static void configure(String url) {
+        peerUrl = url == null || url.isBlank() ? null : (url.endsWith("/") ? url : url + "/");
+        if (peerUrl != null) {
+            System.out.println("LAN キャッシュサーバー: " + peerUrl);
+        }
+    }
+    
+    /**
+     * 指定したバージョンの Modpack をピアから取得する準備をします
+     * 配信元からマニフェストを取得できない場合は、ピアを使用せずに続行します
+     * @param minecraftVersion Minecraft バージョン
+     * @return ピアのクライアント。ピアが設定されていない場合やマニフェストを取得できない場合は null
+     */
+    public static PeerCache forVersion(String minecraftVersion) {
+        String url = peerUrl;
+        if (url == null) {
+            return null;
+        }
+        try {
+            // ファイルの SHA-256 は必ず配信元のマニフェストから得る（ピアの内容は信用しない）
+            String manifestUrl = Endpoints.current().getDownloadBaseUrl() + "abcd-update-packs-" + minecraftVersion + ".manifest";
+            return new PeerCache(url, ModpackManifest.parse(NetworkUtils.fetchText(manifestUrl)));
+        } catch (Exception e) {
+            System.err.println("マニフェストを取得できないため、LAN キャッシュサーバーを使用しません: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * ファイルをピアから取得します
+     * @param relativePath パック定義ファイルに記載されたファイルのパス
+     * @param target 保存先のファイル
+     * @param bodyHandler 保存に使用する BodyHandler（進捗の集計用）
+     * @return マニフェストと一致するファイルを取得できた場合は true。それ以外の場合は保存先を削除して false
+     */
+    public boolean fetch(String relativePath, Path target, HttpResponse.BodyHandler<Path> bodyHandler) {
+        ModpackManifest.Entry entry = manifest.get(relativePath.replace('\\', '/'));
+        if (!available || entry == null || !entry.isDirect()) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "objects/" + entry.getSha256()))
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+            HttpResponse<Path> response = send(request, bodyHandler,
+                REQUEST_TIMEOUT.toMillis() + entry.getSize() * 1000 / MIN_BYTES_PER_SECOND);
+            if (response.statusCode() == 200 && Files.size(target) == entry.getSize()
+                    && entry.getSha256().equals(FileUtils.computeHash(target, "SHA-256"))) {
+                hits.incrementAndGet();
+                bytes.addAndGet(entry.getSize());
+                return true;
+            }
+            if (response.statusCode() == 200) {
+                System.err.println("LAN キャッシュサーバーのファイルがマニフェストと一致しないため、配信元から取得します: " + relativePath);
+            }
+        } catch (IOException e) {
+            System.err.println("LAN キャッシュサーバーに接続できないか応答が無いため、以降は配信元から取得します: " + e);
+            available = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        misses.incrementAndGet();
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException e) {
+            // 配信元からのダウンロードで上書きされる
+        }
+        return false;
+    }
+    
+    /**
+     * リクエストを送信し、本文の受信が終わるまで待機します
+     * HttpRequest のタイムアウトは応答ヘッダーの受信までにしか適用されないため、本文の受信を含めた待ち時間の上限を設けます
+     * @param timeoutMillis 本文の受信までを含めた待ち時間の上限
+     * @throws HttpTimeoutException 時間内に受信が終わらなかった場合（リクエストは中止する）
+     */
+    private static HttpResponse<Path> send(HttpRequest request, HttpResponse.BodyHandler<Path> bodyHandler, long timeoutMillis)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<Path>> future = HTTP_CLIENT.sendAsync(request, bodyHandler);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("LAN キャッシュサーバーからの受信が " + timeoutMillis + "ms 以内に終わりませんでした");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+    
+    /**
+     * ピアから取得したファイルの集計を出力します
+     */
+    public void printSummary() {
+        System.out.println("LAN キャッシュサーバーから取得したファイル数: " + hits.get()
+            + " (" + bytes.get() / 1024 + " KiB) 配信元から取得したファイル数: " + misses.get());
+    }
+}
@@ -0,0 +1,84 @@
+package com.abcd.modpack.process;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Minecraft プロセスの終了を監視するクラス
+ * 一致するプロセスを一度だけ列挙し、以後は ProcessHandle.onExit() の完了通知で終了を待機します
+ */
+public class MinecraftProcessWatcher {
+    /** 既定の一致条件: 実行ファイルのパスに "minecraft" を含むプロセス */
+    public static final String DEFAULT_COMMAND_PATTERN = "(?i).*minecraft.*";
+
+    private final Pattern commandPattern;
+
+    /**
+     * 既定の一致条件でプロセス監視を初期化します
+     */
+    public MinecraftProcessWatcher() {
+        this(Pattern.compile(DEFAULT_COMMAND_PATTERN));
+    }
+
+    /**
+     * プロセス監視を初期化します
+     * @param commandPattern 監視対象とする実行ファイルパスの正規表現（パス全体に一致させます）
+     */
+    public MinecraftProcessWatcher(Pattern commandPattern) {
+        this.commandPattern = commandPattern;
+    }
+
+    /**
+     * 一致条件に合う実行中のプロセスを列挙します（自プロセスは除外します）
+     * @return 実行中のプロセスの一覧
+     */
+    public List<ProcessHandle> findRunning() {
+        long selfPid = ProcessHandle.current().pid();
+        return ProcessHandle.allProcesses()
+            .filter(ph -> ph.pid() != selfPid)
+            .filter(ph -> ph.info().command()
+                .map(cmd -> commandPattern.matcher(cmd).matches())
+                .orElse(false))
+            .toList();
+    }
+
+    /**
+     * 一致するすべてのプロセスが終了するまで非同期に待機します
+     * 監視中のプロセスが終了した時点で一度だけ再列挙し、ランチャーから起動されたゲーム本体なども待機対象に含めます
+     * 返された Future を cancel すると監視を中止します
+     * @param timeout 待機の上限時間。null またはゼロの場合は無制限
+     * @return すべてのプロセスが終了すると完了する Future。タイムアウト時は TimeoutException で完了します
+     */
+    public CompletableFuture<Void> awaitExit(Duration timeout) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        awaitExit(findRunning(), result);
+        if (timeout != null && !timeout.isZero() && !timeout.isNegative()) {
+            result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    private void awaitExit(List<ProcessHandle> handles, CompletableFuture<Void> result) {
+        if (result.isDone()) {
+            return;
+        }
+        if (handles.isEmpty()) {
+            result.complete(null);
+            return;
+        }
+
+        CompletableFuture<?>[] exits = handles.stream()
+            .map(ProcessHandle::onExit)
+            .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(exits).whenComplete((v, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else if (!result.isDone()) {
+                awaitExit(findRunning(), result);
+            }
+        });
+    }
+}
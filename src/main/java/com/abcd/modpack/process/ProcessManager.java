@@ -2,6 +2,12 @@ package com.abcd.modpack.process;
 
 import com.abcd.modpack.gui.GuiManager;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
 /**
  * プロセス管理を行うクラス
  * Minecraft や他のアプリケーションの実行状態を監視します
@@ -13,11 +19,17 @@ public class ProcessManager {
      * @return Minecraft が実行中の場合は true
      */
     public static boolean isMinecraftRunning() {
+        return isMinecraftRunning(new MinecraftProcessWatcher());
+    }
+
+    /**
+     * Minecraft が実行中かどうかを確認します
+     * @param watcher 一致条件を持つプロセス監視
+     * @return Minecraft が実行中の場合は true
+     */
+    public static boolean isMinecraftRunning(MinecraftProcessWatcher watcher) {
         try {
-            boolean isRunning = ProcessHandle.allProcesses()
-                .anyMatch(ph -> ph.info().command()
-                    .map(cmd -> cmd.toLowerCase().contains("minecraft"))
-                    .orElse(false));
+            boolean isRunning = !watcher.findRunning().isEmpty();
             
             if (isRunning) {
                 System.out.println("Minecraft プロセスが実行中です。");
@@ -39,19 +51,55 @@ public class ProcessManager {
      * @throws InterruptedException 待機が中断された場合
      */
     public static void waitForMinecraftExit(GuiManager guiManager) throws InterruptedException {
-        while (isMinecraftRunning()) {
+        waitForMinecraftExit(guiManager, new MinecraftProcessWatcher(), null);
+    }
+
+    /**
+     * Minecraft の終了を待機します
+     * ポーリングは行わず、プロセスの終了通知を受けて即座に処理を再開します
+     * @param guiManager GUI管理オブジェクト
+     * @param watcher 一致条件を持つプロセス監視
+     * @param timeout 待機の上限時間。null またはゼロの場合は無制限
+     * @throws InterruptedException 待機が中断された場合
+     */
+    public static void waitForMinecraftExit(GuiManager guiManager, MinecraftProcessWatcher watcher, Duration timeout)
+            throws InterruptedException {
+        List<ProcessHandle> running;
+        try {
+            running = watcher.findRunning();
+        } catch (Exception e) {
+            System.err.println("プロセス確認中にエラーが発生しました: " + e.getMessage());
+            return; // エラー時は安全側に倒して未実行として扱う
+        }
+
+        if (!running.isEmpty()) {
+            for (ProcessHandle handle : running) {
+                System.out.println("実行中のプロセス: " + handle.pid() + " " + handle.info().command().orElse(""));
+            }
             System.out.println("Minecraft のランチャーを終了してください。");
             
-            // GUI マネージャーがある場合は警告ダイアログを表示
+            CompletableFuture<Void> exit = watcher.awaitExit(timeout);
+
+            // GUI マネージャーがある場合は、終了を検知した時点で自動的に閉じる警告ダイアログを表示
             if (guiManager != null) {
                 try {
-                    guiManager.showWarningDialog("Minecraft のランチャーを終了してください。", "警告");
+                    guiManager.showWarningDialogUntil("Minecraft のランチャーを終了してください。", "警告", exit);
                 } catch (Exception e) {
                     System.err.println("警告ダイアログの表示に失敗しました: " + e.getMessage());
                 }
             }
             
-            Thread.sleep(1000); // 1秒待機
+            try {
+                exit.get();
+            } catch (InterruptedException e) {
+                exit.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    throw new RuntimeException("Minecraft の終了待機がタイムアウトしました。ランチャーを終了してから再実行してください。");
+                }
+                System.err.println("プロセス監視中にエラーが発生しました: " + e.getCause().getMessage());
+            }
         }
         
         System.out.println("Minecraft のランチャーが起動していない事を確認しました。");
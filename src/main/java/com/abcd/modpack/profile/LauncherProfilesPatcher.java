@@ -0,0 +1,565 @@
+package com.abcd.modpack.profile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * launcher_profiles.json をストリーミングで書き換えるクラス
+ * ファイル全体を文字列として読み込まず、"profiles" 内のアップデーターが管理するエントリだけを差し替え、
+ * それ以外（他のプロファイルのアイコンや設定など）は 1 文字も変更せずにそのまま書き出します
+ */
+public class LauncherProfilesPatcher {
+    private static final String PROFILES_KEY = "profiles";
+    private static final String LAST_USED_KEY = "lastUsed";
+    private static final Set<String> VOLATILE_FIELDS = Set.of("created");
+    
+    private final Reader in;
+    private Writer out;
+    private int peeked = -2;
+    
+    private LauncherProfilesPatcher(Reader in, Writer out) {
+        this.in = in;
+        this.out = out;
+    }
+    
+    /**
+     * 書き換えの結果
+     */
+    public static class Result {
+        private final boolean changed;
+        private final Map<String, String> previousProfile;
+        private final String latestOtherLastUsed;
+        
+        Result(boolean changed, Map<String, String> previousProfile, String latestOtherLastUsed) {
+            this.changed = changed;
+            this.previousProfile = previousProfile;
+            this.latestOtherLastUsed = latestOtherLastUsed;
+        }
+        
+        /**
+         * 書き換えによって内容が変化したかどうかを取得します
+         * @return 変化した場合は true
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+        
+        /**
+         * 書き換え前の管理対象プロファイルの内容を取得します
+         * @return 書き換え前のプロファイル。存在しなかった場合は null
+         */
+        public Map<String, String> getPreviousProfile() {
+            return previousProfile;
+        }
+        
+        /**
+         * 管理対象以外のプロファイルのうち、最も新しい "lastUsed" を取得します
+         * @return 最も新しい "lastUsed"。該当するプロファイルが無い場合は null
+         */
+        public String getLatestOtherLastUsed() {
+            return latestOtherLastUsed;
+        }
+    }
+    
+    /**
+     * launcher_profiles.json の管理対象プロファイルを差し替えます
+     * 一時ファイルに書き出してからアトミックに置き換え、内容が変わらない場合はファイルに書き込みません
+     * 生成するプロファイルの "created" は既存の値を引き継ぎ、"created" の違いは変更として扱いません
+     * "lastUsed" は管理対象プロファイルが既に最も新しい場合は既存の値を引き継ぎ、他のプロファイルのほうが新しい場合のみ更新します。
+     * これにより、ランチャーでは A-B-C-D プロファイルが最後に使用したものとして選択され、内容が同じ場合の書き込みも省略されます
+     * @param profilePath launcher_profiles.json のパス
+     * @param ownedKey 差し替えるプロファイルのキー
+     * @param removeKeys 削除するプロファイルのキー
+     * @param newProfile 新しいプロファイルの内容（値はすべて文字列）
+     * @return ファイルを書き換えた場合は true
+     * @throws IOException ファイル操作エラーまたは JSON 構文エラー
+     */
+    public static boolean patchFile(Path profilePath, String ownedKey, Set<String> removeKeys,
+            Map<String, String> newProfile) throws IOException {
+        Result current;
+        try (BufferedReader reader = Files.newBufferedReader(profilePath, StandardCharsets.UTF_8)) {
+            current = patch(reader, Writer.nullWriter(), ownedKey, Set.of(), null);
+        }
+        Map<String, String> previous = current.getPreviousProfile();
+        Map<String, String> profile = new LinkedHashMap<>(newProfile);
+        if (previous != null && previous.containsKey("created")) {
+            profile.put("created", previous.get("created"));
+        }
+        if (previous != null && previous.containsKey(LAST_USED_KEY) && profile.containsKey(LAST_USED_KEY)
+                && !isOlder(previous.get(LAST_USED_KEY), current.getLatestOtherLastUsed())) {
+            profile.put(LAST_USED_KEY, previous.get(LAST_USED_KEY));
+        }
+        
+        Path tempPath = profilePath.resolveSibling(profilePath.getFileName() + ".abcd-tmp");
+        Result result;
+        try (BufferedReader reader = Files.newBufferedReader(profilePath, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            result = patch(reader, writer, ownedKey, removeKeys, profile);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        
+        if (!result.isChanged()) {
+            Files.deleteIfExists(tempPath);
+            return false;
+        }
+        
+        try {
+            Files.move(tempPath, profilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, profilePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+    
+    /**
+     * launcher_profiles.json から指定されたキーのプロファイルを読み取ります（書き出しは行いません）
+     * @param profilePath launcher_profiles.json のパス
+     * @param key プロファイルのキー
+     * @return プロファイルの内容。存在しない場合は null
+     * @throws IOException ファイル読み込みエラーまたは JSON 構文エラー
+     */
+    public static Map<String, String> readProfile(Path profilePath, String key) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(profilePath, StandardCharsets.UTF_8)) {
+            return patch(reader, Writer.nullWriter(), key, Set.of(), null).getPreviousProfile();
+        }
+    }
+    
+    /**
+     * JSON をストリーミングで読み込み、管理対象プロファイルを差し替えて書き出します
+     * @param in 元の JSON
+     * @param out 書き出し先
+     * @param ownedKey 差し替えるプロファイルのキー
+     * @param removeKeys 削除するプロファイルのキー
+     * @param newProfile 新しいプロファイルの内容。null の場合は差し替えずに既存のものを残す
+     * @return 書き換えの結果
+     * @throws IOException 入出力エラーまたは JSON 構文エラー
+     */
+    public static Result patch(Reader in, Writer out, String ownedKey, Set<String> removeKeys,
+            Map<String, String> newProfile) throws IOException {
+        return new LauncherProfilesPatcher(in, out).patchRoot(ownedKey, removeKeys, newProfile);
+    }
+    
+    private Result patchRoot(String ownedKey, Set<String> removeKeys, Map<String, String> newProfile) throws IOException {
+        Result result = null;
+        copyWhitespace();
+        expect('{');
+        out.write('{');
+        while (true) {
+            copyWhitespace();
+            int c = peek();
+            if (c == '}') {
+                break;
+            }
+            if (c == ',') {
+                out.write(read());
+                continue;
+            }
+            String key = copyString();
+            copyWhitespace();
+            expect(':');
+            out.write(':');
+            copyWhitespace();
+            if (PROFILES_KEY.equals(key) && peek() == '{' && result == null) {
+                result = patchProfiles(ownedKey, removeKeys, newProfile);
+            } else {
+                copyValue(true);
+            }
+        }
+        out.write(read());
+        copyWhitespace();
+        
+        if (result == null) {
+            throw new RuntimeException("launcher_profiles.json の profiles セクションが見つかりません。");
+        }
+        return result;
+    }
+    
+    private Result patchProfiles(String ownedKey, Set<String> removeKeys, Map<String, String> newProfile) throws IOException {
+        boolean changed = false;
+        boolean wroteEntry = false;
+        Map<String, String> previous = null;
+        String latestOtherLastUsed = null;
+        
+        expect('{');
+        out.write('{');
+        if (newProfile != null) {
+            out.write("\n    ");
+            writeProfile(ownedKey, newProfile);
+            wroteEntry = true;
+        }
+        
+        String closingWhitespace = "";
+        while (true) {
+            String leadingWhitespace = readWhitespace();
+            int c = peek();
+            if (c == '}') {
+                closingWhitespace = leadingWhitespace;
+                break;
+            }
+            if (c == ',') {
+                read();
+                continue;
+            }
+            
+            StringBuilder rawKey = new StringBuilder();
+            String key = readString(rawKey);
+            String beforeColon = readWhitespace();
+            expect(':');
+            String afterColon = readWhitespace();
+            
+            if (key.equals(ownedKey)) {
+                StringBuilder raw = new StringBuilder();
+                captureValue(raw);
+                previous = parseFlatObject(raw.toString());
+                if (newProfile == null) {
+                    writeEntry(wroteEntry, leadingWhitespace, rawKey, beforeColon, afterColon, raw);
+                    wroteEntry = true;
+                }
+            } else if (removeKeys.contains(key)) {
+                skipValue();
+                changed = true;
+                System.out.println("プロファイルを削除しました: " + key);
+            } else {
+                writeEntry(wroteEntry, leadingWhitespace, rawKey, beforeColon, afterColon, null);
+                String lastUsed = copyProfile();
+                if (lastUsed != null && isOlder(latestOtherLastUsed, lastUsed)) {
+                    latestOtherLastUsed = lastUsed;
+                }
+                wroteEntry = true;
+            }
+        }
+        out.write(closingWhitespace);
+        out.write(read());
+        
+        if (newProfile != null && !sameProfile(previous, newProfile)) {
+            changed = true;
+        }
+        return new Result(changed, previous, latestOtherLastUsed);
+    }
+    
+    private void writeEntry(boolean needsComma, String leadingWhitespace, CharSequence rawKey,
+            String beforeColon, String afterColon, CharSequence rawValue) throws IOException {
+        if (needsComma) {
+            out.write(',');
+        }
+        out.write(leadingWhitespace);
+        out.append(rawKey);
+        out.write(beforeColon);
+        out.write(':');
+        out.write(afterColon);
+        if (rawValue != null) {
+            out.append(rawValue);
+        }
+    }
+    
+    private void writeProfile(String key, Map<String, String> profile) throws IOException {
+        out.write(quote(key));
+        out.write(": {");
+        boolean first = true;
+        for (Map.Entry<String, String> field : profile.entrySet()) {
+            out.write(first ? "\n      " : ",\n      ");
+            out.write(quote(field.getKey()));
+            out.write(": ");
+            out.write(quote(field.getValue()));
+            first = false;
+        }
+        out.write("\n    }");
+    }
+    
+    /**
+     * ランチャーが記録する日時（ISO-8601 形式）を比較します。解析できない場合は文字列として比較します
+     * @return a が b より古い場合、または a が無い場合は true。b が無い場合は false
+     */
+    private static boolean isOlder(String a, String b) {
+        if (b == null) {
+            return false;
+        }
+        if (a == null) {
+            return true;
+        }
+        try {
+            return Instant.parse(a).isBefore(Instant.parse(b));
+        } catch (DateTimeParseException e) {
+            return a.compareTo(b) < 0;
+        }
+    }
+    
+    private static boolean sameProfile(Map<String, String> previous, Map<String, String> generated) {
+        if (previous == null) {
+            return false;
+        }
+        Map<String, String> a = new LinkedHashMap<>(previous);
+        Map<String, String> b = new LinkedHashMap<>(generated);
+        a.keySet().removeAll(VOLATILE_FIELDS);
+        b.keySet().removeAll(VOLATILE_FIELDS);
+        return a.equals(b);
+    }
+    
+    // ---- 字句解析 ----
+    
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+    
+    private int read() throws IOException {
+        int c = peek();
+        peeked = -2;
+        if (c == -1) {
+            throw new IOException("JSON が途中で終了しています。");
+        }
+        return c;
+    }
+    
+    private void expect(char expected) throws IOException {
+        int c = read();
+        if (c != expected) {
+            throw new IOException("JSON の構文が不正です。'" + expected + "' が必要ですが '" + (char) c + "' がありました。");
+        }
+    }
+    
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+    
+    private void copyWhitespace() throws IOException {
+        while (isWhitespace(peek())) {
+            out.write(read());
+        }
+    }
+    
+    private String readWhitespace() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (isWhitespace(peek())) {
+            sb.append((char) read());
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 文字列をそのまま書き出し、デコードした内容を返します（キーなど短い文字列用）
+     */
+    private String copyString() throws IOException {
+        StringBuilder raw = new StringBuilder();
+        String value = readString(raw);
+        out.append(raw);
+        return value;
+    }
+    
+    /**
+     * 文字列を読み取り、元の表記を raw に追加してデコードした内容を返します
+     */
+    private String readString(StringBuilder raw) throws IOException {
+        expect('"');
+        raw.append('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            int c = read();
+            raw.append((char) c);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append((char) c);
+                continue;
+            }
+            int e = read();
+            raw.append((char) e);
+            switch (e) {
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    StringBuilder hex = new StringBuilder();
+                    for (int i = 0; i < 4; i++) {
+                        hex.append((char) read());
+                    }
+                    raw.append(hex);
+                    value.append((char) Integer.parseInt(hex.toString(), 16));
+                    break;
+                default: value.append((char) e); break;
+            }
+        }
+    }
+    
+    /**
+     * 任意の JSON 値を読み取ります。output が true の場合は書き出し先にそのままコピーします
+     * 値を保持しないため、大きなアイコンデータなどもメモリに載せずに処理できます
+     */
+    private void copyValue(boolean output) throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        while (true) {
+            int c = peek();
+            if (!inString && depth == 0 && (c == ',' || c == '}' || c == ']' || isWhitespace(c) || c == -1)) {
+                return;
+            }
+            c = read();
+            if (output) {
+                out.write(c);
+            }
+            if (inString) {
+                if (c == '\\') {
+                    int escaped = read();
+                    if (output) {
+                        out.write(escaped);
+                    }
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) {
+                        return;
+                    }
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * プロファイルのオブジェクトをそのままコピーし、"lastUsed" の値を返します
+     * アイコンなどの他の値は保持せずにコピーします
+     * @return "lastUsed" の値。無い場合やオブジェクトでない場合は null
+     */
+    private String copyProfile() throws IOException {
+        if (peek() != '{') {
+            copyValue(true);
+            return null;
+        }
+        out.write(read());
+        String lastUsed = null;
+        while (true) {
+            copyWhitespace();
+            int c = peek();
+            if (c == '}') {
+                out.write(read());
+                return lastUsed;
+            }
+            if (c == ',') {
+                out.write(read());
+                continue;
+            }
+            String key = copyString();
+            copyWhitespace();
+            expect(':');
+            out.write(':');
+            copyWhitespace();
+            if (LAST_USED_KEY.equals(key) && peek() == '"') {
+                lastUsed = copyString();
+            } else {
+                copyValue(true);
+            }
+        }
+    }
+    
+    private void skipValue() throws IOException {
+        copyValue(false);
+    }
+    
+    /**
+     * 任意の JSON 値を読み取り、元の表記を raw に追加します（管理対象プロファイルなど小さな値用）
+     */
+    private void captureValue(StringBuilder raw) throws IOException {
+        Writer original = out;
+        StringWriter capture = new StringWriter();
+        out = capture;
+        try {
+            copyValue(true);
+        } finally {
+            out = original;
+        }
+        raw.append(capture.getBuffer());
+    }
+    
+    /**
+     * フラットな JSON オブジェクトをキーと値の組に変換します
+     * 値が文字列でない場合（数値や入れ子のオブジェクトなど）は元の表記を値とします
+     */
+    private static Map<String, String> parseFlatObject(String json) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        LauncherProfilesPatcher parser = new LauncherProfilesPatcher(new StringReader(json), Writer.nullWriter());
+        parser.readWhitespace();
+        if (parser.peek() != '{') {
+            return result;
+        }
+        parser.read();
+        while (true) {
+            parser.readWhitespace();
+            int c = parser.peek();
+            if (c == '}') {
+                return result;
+            }
+            if (c == ',') {
+                parser.read();
+                continue;
+            }
+            String key = parser.readString(new StringBuilder());
+            parser.readWhitespace();
+            parser.expect(':');
+            parser.readWhitespace();
+            if (parser.peek() == '"') {
+                result.put(key, parser.readString(new StringBuilder()));
+            } else {
+                StringBuilder raw = new StringBuilder();
+                parser.captureValue(raw);
+                result.put(key, raw.toString());
+            }
+        }
+    }
+    
+    /**
+     * 文字列を JSON の文字列リテラルに変換します
+     * @param value 文字列
+     * @return ダブルクォートで囲まれ、エスケープされた文字列
+     */
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -1,12 +1,12 @@
 package com.abcd.modpack.profile;
 
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Minecraft ランチャープロファイルの管理を行うクラス
@@ -16,18 +16,37 @@ public class ProfileManager {
     private static final String PROFILE_ICON_BASE64 = 
         "data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAIAAAACABAMAAAAxEHz4AAAAGFBMVEUAAAA4NCrb0LTGvKW8spyAem2uppSakn5SsnMLAAAAAXRSTlMAQObYZgAAAJ5JREFUaIHt1MENgCAMRmFWYAVXcAVXcAVXcH3bhCYNkYjcKO8dSf7v1JASUWdZAlgb0PEmDSMAYYBdGkYApgf8ER3SbwRgesAf0RACMD1gB6S9IbkEEBfwY49oNj4lgLhA64C0o9R9RABTAvp4SX5kB2TA5y8EEAK4pRrxB9QcA4QBWkj3GCAMUCO/xwBhAI/kEsCagCHDY4AwAC3VA6t4zTAMj0OJAAAAAElFTkSuQmCC";
     
+    private static final String PROFILE_KEY = "A-B-C-D";
+    
     private static final String JAVA_ARGS = 
         "-Xmx4G -XX:+UnlockExperimentalVMOptions -XX:+UseG1GC -XX:G1NewSizePercent=20 " +
         "-XX:G1ReservePercent=20 -XX:MaxGCPauseMillis=50 -XX:G1HeapRegionSize=32M";
     
     /**
      * Minecraft ランチャープロファイルを更新します
+     * launcher_profiles.json はストリーミングで書き換え、A-B-C-D 以外のプロファイルには手を加えません
+     * プロファイルの内容に変化がない場合はファイルに書き込みません
      * @param minecraftVersion Minecraft バージョン
      * @param loaderVersion Fabric Loader バージョン
      * @param gameDir ゲームディレクトリのパス
      * @throws Exception ファイル操作エラーまたは JSON 処理エラー
      */
     public static void updateLauncherProfiles(String minecraftVersion, String loaderVersion, Path gameDir) throws Exception {
+        updateLauncherProfiles(minecraftVersion, loaderVersion, gameDir, null);
+    }
+    
+    /**
+     * インスタンスごとの Minecraft ランチャープロファイルを更新します
+     * 既定以外のインスタンスは "A-B-C-D-&lt;インスタンス名&gt;" を別のプロファイルとして作成するため、
+     * 複数のインスタンスのプロファイルが並んで表示されます
+     * @param minecraftVersion Minecraft バージョン
+     * @param loaderVersion Fabric Loader バージョン
+     * @param gameDir ゲームディレクトリのパス
+     * @param instanceName インスタンス名（既定のインスタンスの場合は null）
+     * @throws Exception ファイル操作エラーまたは JSON 処理エラー
+     */
+    public static void updateLauncherProfiles(String minecraftVersion, String loaderVersion, Path gameDir,
+            String instanceName) throws Exception {
         System.out.println("ランチャープロファイルを更新中...");
         System.out.println("Minecraft バージョン: " + minecraftVersion);
         System.out.println("Fabric Loader バージョン: " + loaderVersion);
@@ -39,130 +58,61 @@ public class ProfileManager {
             throw new RuntimeException("launcher_profiles.json が見つかりません: " + profilePath);
         }
         
-        // 既存のプロファイルファイルを読み込み
-        String jsonText = Files.readString(profilePath, StandardCharsets.UTF_8);
-        System.out.println("既存のプロファイルファイルを読み込みました。");
-        
-        // 既存の A-B-C-D 関連プロファイルを削除
-        jsonText = removeExistingProfiles(jsonText, minecraftVersion);
-        
-        // 新しいプロファイルを作成して追加
-        String newProfile = createNewProfile(minecraftVersion, loaderVersion, gameDir);
-        jsonText = addJsonProfile(jsonText, newProfile);
+        // fabric-loader-{version} 形式のプロファイルは Fabric インストーラーが追加するもので、A-B-C-D プロファイルと重複するため削除
+        Set<String> removeKeys = Set.of("fabric-loader-" + minecraftVersion);
+        Map<String, String> newProfile = createNewProfile(minecraftVersion, loaderVersion, gameDir);
+        String profileKey = PROFILE_KEY;
+        if (instanceName != null) {
+            profileKey = PROFILE_KEY + "-" + instanceName;
+            newProfile.put("name", getProfileName(minecraftVersion, instanceName));
+        }
         
-        // ファイルに書き戻し
-        Files.writeString(profilePath, jsonText, StandardCharsets.UTF_8);
-        System.out.println("ランチャープロファイルの更新が完了しました。");
+        boolean written = LauncherProfilesPatcher.patchFile(profilePath, profileKey, removeKeys, newProfile);
+        if (written) {
+            System.out.println("ランチャープロファイルの更新が完了しました。");
+        } else {
+            System.out.println("ランチャープロファイルは最新です。書き込みをスキップしました。");
+        }
     }
     
     /**
-     * launcher_profiles.json のパスを取得します
-     * @return プロファイルファイルのパス
+     * ランチャーに表示されるプロファイル名を取得します
+     * @param minecraftVersion Minecraft バージョン
+     * @param instanceName インスタンス名（既定のインスタンスの場合は null）
+     * @return プロファイル名
      */
-    private static Path getProfilePath() {
-        return Paths.get(System.getenv("APPDATA"), ".minecraft", "launcher_profiles.json");
+    public static String getProfileName(String minecraftVersion, String instanceName) {
+        return instanceName == null ? "A-B-C-D " + minecraftVersion : "A-B-C-D " + minecraftVersion + " (" + instanceName + ")";
     }
     
     /**
-     * 既存の A-B-C-D 関連プロファイルを削除します
-     * @param jsonText 元の JSON テキスト
-     * @param minecraftVersion Minecraft バージョン
-     * @return 既存プロファイルが削除された JSON テキスト
+     * launcher_profiles.json のパスを取得します
+     * @return プロファイルファイルのパス
      */
-    private static String removeExistingProfiles(String jsonText, String minecraftVersion) {
-        System.out.println("既存の A-B-C-D プロファイルを削除中...");
-        
-        // fabric-loader-{version} 形式のプロファイルキーを削除
-        String fabricProfileKey = "\"fabric-loader-" + minecraftVersion + "\"";
-        jsonText = removeJsonProfile(jsonText, fabricProfileKey);
-        
-        // A-B-C-D プロファイルキーを削除
-        String abcdProfileKey = "\"A-B-C-D\"";
-        jsonText = removeJsonProfile(jsonText, abcdProfileKey);
-        
-        System.out.println("既存プロファイルの削除が完了しました。");
-        return jsonText;
+    private static Path getProfilePath() {
+        return Paths.get(System.getenv("APPDATA"), ".minecraft", "launcher_profiles.json");
     }
     
     /**
      * 新しい A-B-C-D プロファイルを作成します
+     * "created" は既存のプロファイルがあれば {@link LauncherProfilesPatcher} が引き継ぎます
      * @param minecraftVersion Minecraft バージョン
      * @param loaderVersion Fabric Loader バージョン
      * @param gameDir ゲームディレクトリ
-     * @return 新しいプロファイルの JSON 文字列
+     * @return 新しいプロファイルの内容
      */
-    private static String createNewProfile(String minecraftVersion, String loaderVersion, Path gameDir) {
-        String profileId = "\"A-B-C-D\"";
+    private static Map<String, String> createNewProfile(String minecraftVersion, String loaderVersion, Path gameDir) {
         String created = Instant.now().toString();
-        String gameDirEscaped = gameDir.toString().replace("\\", "\\\\");
-        String versionId = "fabric-loader-" + loaderVersion + "-" + minecraftVersion;
-        String profileName = "A-B-C-D " + minecraftVersion;
-        
-        return String.format(
-            "    %s: {\n" +
-            "      \"created\": \"%s\",\n" +
-            "      \"gameDir\": \"%s\",\n" +
-            "      \"icon\": \"%s\",\n" +
-            "      \"javaArgs\": \"%s\",\n" +
-            "      \"lastUsed\": \"%s\",\n" +
-            "      \"lastVersionId\": \"%s\",\n" +
-            "      \"name\": \"%s\",\n" +
-            "      \"type\": \"custom\"\n" +
-            "    }",
-            profileId, created, gameDirEscaped, PROFILE_ICON_BASE64, 
-            JAVA_ARGS, created, versionId, profileName
-        );
-    }
-    
-    /**
-     * JSON から指定されたプロファイルキーを削除します
-     * @param jsonText 元の JSON テキスト
-     * @param profileKey 削除するプロファイルキー
-     * @return プロファイルが削除された JSON テキスト
-     */
-    private static String removeJsonProfile(String jsonText, String profileKey) {
-        // 指定されたプロファイルキーを含む行とその値を削除
-        String regex = "\\s*" + Pattern.quote(profileKey) + ":\\s*\\{[^{}]*(?:\\{[^{}]*\\}[^{}]*)*\\},?\\s*";
-        String result = jsonText.replaceAll(regex, "");
-        
-        if (!result.equals(jsonText)) {
-            System.out.println("プロファイルを削除しました: " + profileKey);
-        }
-        
-        return result;
-    }
-    
-    /**
-     * JSON の profiles セクションに新しいプロファイルを追加します
-     * @param jsonText 元の JSON テキスト
-     * @param newProfile 追加するプロファイルの JSON 文字列
-     * @return 新しいプロファイルが追加された JSON テキスト
-     */
-    private static String addJsonProfile(String jsonText, String newProfile) {
-        System.out.println("新しいプロファイルを追加中...");
-        
-        // "profiles" セクションを見つけて新しいプロファイルを追加
-        String profilesPattern = "(\"profiles\"\\s*:\\s*\\{)";
-        Matcher matcher = Pattern.compile(profilesPattern).matcher(jsonText);
-        
-        if (!matcher.find()) {
-            throw new RuntimeException("launcher_profiles.json の profiles セクションが見つかりません。");
-        }
-        
-        int insertPos = matcher.end();
-        String beforeInsert = jsonText.substring(0, insertPos);
-        String afterInsert = jsonText.substring(insertPos);
-        
-        // 既存のプロファイルの後にカンマが必要かチェック
-        String toInsert = newProfile;
-        if (afterInsert.trim().startsWith("\"")) {
-            toInsert = newProfile + ",";
-        }
-        if (!beforeInsert.trim().endsWith("{")) {
-            toInsert = "," + toInsert;
-        }
         
-        System.out.println("新しいプロファイルの追加が完了しました。");
-        return beforeInsert + "\n" + toInsert + afterInsert;
+        Map<String, String> profile = new LinkedHashMap<>();
+        profile.put("created", created);
+        profile.put("gameDir", gameDir.toString());
+        profile.put("icon", PROFILE_ICON_BASE64);
+        profile.put("javaArgs", JAVA_ARGS);
+        profile.put("lastUsed", created);
+        profile.put("lastVersionId", "fabric-loader-" + loaderVersion + "-" + minecraftVersion);
+        profile.put("name", getProfileName(minecraftVersion, null));
+        profile.put("type", "custom");
+        return profile;
     }
 }
@@ -0,0 +1,36 @@
+package com.abcd.modpack.progress;
+
+import java.time.Duration;
+
+/**
+ * 進捗を一定間隔でコンソール（およびログファイル）に 1 行ずつ出力するリスナー
+ * GUI を表示できない環境や、処理が遅い環境の調査に使用します
+ */
+public class ConsoleProgressListener implements ProgressListener {
+    private final long intervalNanos;
+    private long lastPrinted;
+    
+    /**
+     * リスナーを作成します
+     * @param interval 出力する最小間隔
+     */
+    public ConsoleProgressListener(Duration interval) {
+        this.intervalNanos = interval.toNanos();
+        this.lastPrinted = System.nanoTime();
+    }
+    
+    @Override
+    public void onProgress(ProgressSnapshot snapshot) {
+        long now = System.nanoTime();
+        if (now - lastPrinted < intervalNanos) {
+            return;
+        }
+        lastPrinted = now;
+        System.out.println(snapshot);
+    }
+    
+    @Override
+    public void onFinished(ProgressSnapshot snapshot) {
+        System.out.println(snapshot + " 完了");
+    }
+}
@@ -0,0 +1,22 @@
+package com.abcd.modpack.progress;
+
+/**
+ * 進捗の通知を受け取るインターフェース
+ * {@link ProgressTracker} のレポートスレッドから一定間隔で呼び出されるため、重い処理や UI の直接操作は行わないでください
+ */
+public interface ProgressListener {
+    
+    /**
+     * 進捗が更新された時に呼び出されます
+     * @param snapshot 現在の進捗
+     */
+    void onProgress(ProgressSnapshot snapshot);
+    
+    /**
+     * 処理が完了した時に 1 度だけ呼び出されます
+     * @param snapshot 最終的な進捗
+     */
+    default void onFinished(ProgressSnapshot snapshot) {
+        onProgress(snapshot);
+    }
+}
@@ -0,0 +1,134 @@
+package com.abcd.modpack.progress;
+
+import java.time.Duration;
+
+/**
+ * ある時点の進捗を表す不変クラス
+ */
+public class ProgressSnapshot {
+    private final String label;
+    private final long bytesDone;
+    private final long bytesTotal;
+    private final int itemsDone;
+    private final int itemsTotal;
+    private final double bytesPerSecond;
+    private final Duration eta;
+    
+    ProgressSnapshot(String label, long bytesDone, long bytesTotal, int itemsDone, int itemsTotal,
+            double bytesPerSecond, Duration eta) {
+        this.label = label;
+        this.bytesDone = bytesDone;
+        this.bytesTotal = bytesTotal;
+        this.itemsDone = itemsDone;
+        this.itemsTotal = itemsTotal;
+        this.bytesPerSecond = bytesPerSecond;
+        this.eta = eta;
+    }
+    
+    /**
+     * 処理の名前を取得します
+     * @return 処理の名前
+     */
+    public String getLabel() {
+        return label;
+    }
+    
+    /**
+     * 処理済みのバイト数を取得します
+     * @return 処理済みのバイト数
+     */
+    public long getBytesDone() {
+        return bytesDone;
+    }
+    
+    /**
+     * 全体のバイト数を取得します
+     * サイズが判明していない項目がある場合は、判明している項目の平均から推定した値です
+     * @return 全体のバイト数。推定できない場合は -1
+     */
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+    
+    /**
+     * 完了した項目（ファイル）の数を取得します
+     * @return 完了した項目の数
+     */
+    public int getItemsDone() {
+        return itemsDone;
+    }
+    
+    /**
+     * 項目（ファイル）の総数を取得します
+     * @return 項目の総数
+     */
+    public int getItemsTotal() {
+        return itemsTotal;
+    }
+    
+    /**
+     * 現在の処理速度を取得します
+     * @return 1 秒あたりのバイト数
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+    
+    /**
+     * 残り時間の見込みを取得します
+     * @return 残り時間。見込みが立たない場合は null
+     */
+    public Duration getEta() {
+        return eta;
+    }
+    
+    /**
+     * 進捗率を取得します
+     * @return 0.0 から 1.0 の進捗率。全体のバイト数が不明な場合は -1
+     */
+    public double getFraction() {
+        if (bytesTotal <= 0) {
+            return -1;
+        }
+        return Math.min(1.0, (double) bytesDone / bytesTotal);
+    }
+    
+    /**
+     * 進捗を 1 行の文字列で表します
+     * 例: "ダウンロード: 12.3 MB / 45.6 MB (27%) 1.2 MB/s 残り約 0:28 [3/10 ファイル]"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(label).append(": ").append(formatBytes(bytesDone));
+        if (bytesTotal > 0) {
+            sb.append(" / ").append(formatBytes(bytesTotal))
+                .append(" (").append((int) (getFraction() * 100)).append("%)");
+        }
+        sb.append(' ').append(formatBytes((long) bytesPerSecond)).append("/s");
+        if (eta != null) {
+            long seconds = eta.getSeconds();
+            sb.append(" 残り約 ").append(seconds / 60).append(':').append(String.format("%02d", seconds % 60));
+        }
+        sb.append(" [").append(itemsDone).append('/').append(itemsTotal).append(" ファイル]");
+        return sb.toString();
+    }
+    
+    /**
+     * バイト数を読みやすい単位の文字列に変換します
+     * @param bytes バイト数
+     * @return "12.3 MB" のような文字列
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = { "KB", "MB", "GB" };
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", value, units[unit]);
+    }
+}
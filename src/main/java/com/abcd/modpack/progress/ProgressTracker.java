@@ -0,0 +1,259 @@
+package com.abcd.modpack.progress;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 複数のワーカースレッドからの進捗をロックなしで集計し、一定間隔でリスナーに通知するクラス
+ * ワーカースレッドはカウンターを加算するだけで、処理速度と残り時間の計算や通知はレポートスレッドが行います
+ */
+public final class ProgressTracker implements AutoCloseable {
+    private static final double SMOOTHING = 0.3;
+    
+    private final String label;
+    private final int itemsTotal;
+    private final List<ProgressListener> listeners;
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder bytesKnownTotal = new LongAdder();
+    private final AtomicInteger itemsSized = new AtomicInteger();
+    private final AtomicInteger itemsDone = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ScheduledExecutorService reporter;
+    
+    // 以下はレポートスレッドからのみ更新する
+    private long lastSampleNanos;
+    private long lastSampleBytes;
+    private volatile double bytesPerSecond;
+    
+    /**
+     * 進捗の集計を開始します
+     * @param label 処理の名前
+     * @param itemsTotal 項目（ファイル）の総数
+     * @param interval リスナーに通知する間隔
+     * @param listeners 通知先のリスナー
+     */
+    public ProgressTracker(String label, int itemsTotal, Duration interval, List<ProgressListener> listeners) {
+        this.label = label;
+        this.itemsTotal = itemsTotal;
+        this.listeners = List.copyOf(listeners);
+        this.lastSampleNanos = System.nanoTime();
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "abcd-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = Math.max(50, interval.toMillis());
+        reporter.scheduleAtFixedRate(this::report, millis, millis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 項目のサイズが判明したことを記録します
+     * @param bytes 項目の処理で見込まれるバイト数
+     */
+    public void addExpectedBytes(long bytes) {
+        if (bytes >= 0) {
+            bytesKnownTotal.add(bytes);
+            itemsSized.incrementAndGet();
+        }
+    }
+    
+    /**
+     * 処理済みのバイト数を加算します
+     * @param bytes 加算するバイト数
+     */
+    public void addBytes(long bytes) {
+        bytesDone.add(bytes);
+    }
+    
+    /**
+     * 項目の処理が完了したことを記録します
+     */
+    public void itemCompleted() {
+        itemsDone.incrementAndGet();
+    }
+    
+    /**
+     * 受信したバイト数を数えながらファイルに保存する BodyHandler を作成します
+     * Content-Length が返された場合は、その weight 倍を項目の見込みバイト数として記録します
+     * （ダウンロード後に展開する ZIP は、展開時に読み込む分を含めて weight を 2 とします）
+     * 受信が失敗または中止された場合は、別のサーバーからの取得などで数え直すため、その受信で記録した分を差し引きます
+     * @param file 保存先のファイル
+     * @param weight Content-Length に掛ける倍率
+     * @return BodyHandler
+     */
+    public HttpResponse.BodyHandler<Path> ofFile(Path file, int weight) {
+        return responseInfo -> {
+            long expectedBytes = -1;
+            if (responseInfo.statusCode() == 200) {
+                expectedBytes = responseInfo.headers().firstValueAsLong("Content-Length").orElse(-1) * weight;
+                addExpectedBytes(expectedBytes);
+            }
+            return new CountingSubscriber(HttpResponse.BodySubscribers.ofFile(file), expectedBytes);
+        };
+    }
+    
+    /**
+     * 読み込んだバイト数を数える InputStream を作成します
+     * @param in 元の InputStream
+     * @return 読み込んだバイト数を処理済みとして加算する InputStream
+     */
+    public InputStream countingStream(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesDone.increment();
+                }
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesDone.add(read);
+                }
+                return read;
+            }
+        };
+    }
+    
+    /**
+     * 現在の進捗を取得します
+     * @return 現在の進捗
+     */
+    public ProgressSnapshot snapshot() {
+        long done = bytesDone.sum();
+        long total = estimateTotal(done);
+        double speed = bytesPerSecond;
+        Duration eta = null;
+        if (total > 0 && speed > 0 && done <= total) {
+            eta = Duration.ofSeconds((long) Math.ceil((total - done) / speed));
+        }
+        return new ProgressSnapshot(label, done, total, itemsDone.get(), itemsTotal, speed, eta);
+    }
+    
+    /**
+     * 集計を終了し、リスナーに完了を通知します
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        reporter.shutdownNow();
+        ProgressSnapshot snapshot = snapshot();
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.onFinished(snapshot);
+            } catch (RuntimeException e) {
+                System.err.println("進捗の通知中にエラーが発生しました: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 全体のバイト数を推定します
+     * サイズ不明の項目は、サイズが判明している項目の平均と同じ大きさとみなします
+     */
+    private long estimateTotal(long done) {
+        long known = bytesKnownTotal.sum();
+        int sized = itemsSized.get();
+        if (sized == 0) {
+            return -1;
+        }
+        long total = sized >= itemsTotal ? known : known + (itemsTotal - sized) * (known / sized);
+        return Math.max(total, done);
+    }
+    
+    /**
+     * 処理速度を更新してリスナーに通知します（レポートスレッドで実行）
+     */
+    private void report() {
+        long now = System.nanoTime();
+        long done = bytesDone.sum();
+        double seconds = (now - lastSampleNanos) / 1_000_000_000.0;
+        if (seconds > 0) {
+            double current = (done - lastSampleBytes) / seconds;
+            // 瞬間的な変動で残り時間が大きく揺れないよう、指数移動平均で平滑化する
+            bytesPerSecond = bytesPerSecond == 0 ? current : SMOOTHING * current + (1 - SMOOTHING) * bytesPerSecond;
+        }
+        lastSampleNanos = now;
+        lastSampleBytes = done;
+        
+        ProgressSnapshot snapshot = snapshot();
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.onProgress(snapshot);
+            } catch (RuntimeException e) {
+                System.err.println("進捗の通知中にエラーが発生しました: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 受信したバイト数を数えて元の BodySubscriber に渡す BodySubscriber
+     */
+    private class CountingSubscriber implements HttpResponse.BodySubscriber<Path> {
+        private final HttpResponse.BodySubscriber<Path> delegate;
+        private final long expectedBytes;
+        private long receivedBytes;
+        
+        CountingSubscriber(HttpResponse.BodySubscriber<Path> delegate, long expectedBytes) {
+            this.delegate = delegate;
+            this.expectedBytes = expectedBytes;
+        }
+        
+        @Override
+        public CompletionStage<Path> getBody() {
+            return delegate.getBody();
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+        
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            // 元の BodySubscriber がバッファを消費する前に数える
+            long received = 0;
+            for (ByteBuffer item : items) {
+                received += item.remaining();
+            }
+            delegate.onNext(items);
+            receivedBytes += received;
+            bytesDone.add(received);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+            bytesDone.add(-receivedBytes);
+            if (expectedBytes >= 0) {
+                bytesKnownTotal.add(-expectedBytes);
+                itemsSized.decrementAndGet();
+            }
+        }
+        
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+}
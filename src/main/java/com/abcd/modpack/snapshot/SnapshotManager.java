@@ -0,0 +1,409 @@
+package com.abcd.modpack.snapshot;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.verify.ModpackManifest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Modpack 更新前のゲームディレクトリのスナップショットを管理するクラス
+ * 管理対象のディレクトリのうち mods と resourcepacks のファイルは .abcd/snapshots/&lt;ID&gt; にハードリンクするため、
+ * ファイルの内容はコピーせず、作成にかかる時間とディスク容量はほぼファイル数分のディレクトリエントリだけです
+ * config のファイルは mod がその場で書き換えるため、リンクするとスナップショット側も書き換わってしまいます。小さいファイルなのでコピーします
+ *
+ * 更新は mods と resourcepacks のファイルを新しいファイルで置き換える（リネームする）ため、スナップショット側のリンクは更新前の内容を指したまま残ります。
+ * ロールバックは現在のディレクトリとスナップショットのディレクトリを入れ替えるリネームのみで行い、再ダウンロードはしません
+ */
+public class SnapshotManager {
+    private static final String INFO_FILE = "snapshot.properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /** ファイルが常にリネームで置き換えられ、スナップショットにハードリンクできるディレクトリ */
+    private static final List<String> LINKED_DIRECTORIES = List.of("mods", "resourcepacks");
+    
+    /**
+     * 保存されているスナップショット
+     */
+    public static class Snapshot {
+        private final Path dir;
+        private final long createdMillis;
+        private final String minecraftVersion;
+        private final String reason;
+        private final int fileCount;
+        
+        private Snapshot(Path dir, Properties info) {
+            this.dir = dir;
+            this.createdMillis = Long.parseLong(info.getProperty("created", "0"));
+            this.minecraftVersion = info.getProperty("minecraftVersion", "");
+            this.reason = info.getProperty("reason", "");
+            this.fileCount = Integer.parseInt(info.getProperty("files", "0"));
+        }
+        
+        public Path getDir() {
+            return dir;
+        }
+        
+        public String getId() {
+            return dir.getFileName().toString();
+        }
+        
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+        
+        public String getMinecraftVersion() {
+            return minecraftVersion;
+        }
+        
+        public int getFileCount() {
+            return fileCount;
+        }
+        
+        @Override
+        public String toString() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdMillis), ZoneId.systemDefault()).format(DISPLAY_FORMAT)
+                + " (" + minecraftVersion + " " + reason + "、" + fileCount + " ファイル)";
+        }
+    }
+    
+    /**
+     * 現在の管理対象ディレクトリのスナップショットを作成し、保持数を超えた古いスナップショットを削除します
+     * 最新のスナップショットと内容が同じ場合は作成しません
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion 記録する Minecraft バージョン
+     * @param keep 保持するスナップショットの数
+     * @return 作成した（または同じ内容の既存の）スナップショット
+     * @throws IOException ファイル操作エラー
+     */
+    public static Snapshot create(Path gameDir, String minecraftVersion, int keep) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<Snapshot> snapshots = list(gameDir);
+        if (!snapshots.isEmpty() && sameContent(gameDir, snapshots.get(0).getDir())) {
+            System.out.println("最新のスナップショットと内容が同じため、スナップショットの作成を省略します: " + snapshots.get(0).getId());
+            return snapshots.get(0);
+        }
+        
+        Path tempDir = newTempDir(gameDir);
+        int fileCount = 0;
+        int copiedCount = 0;
+        for (String name : ModpackManifest.MANAGED_DIRECTORIES) {
+            Path sourceDir = gameDir.resolve(name);
+            if (!Files.isDirectory(sourceDir)) {
+                continue;
+            }
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(sourceDir)) {
+                paths = stream.toList();
+            }
+            for (Path source : paths) {
+                Path target = tempDir.resolve(name).resolve(sourceDir.relativize(source).toString());
+                if (Files.isDirectory(source)) {
+                    Files.createDirectories(target);
+                } else if (Files.isRegularFile(source)) {
+                    if (!LINKED_DIRECTORIES.contains(name)) {
+                        Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+                    } else if (!link(target, source)) {
+                        copiedCount++;
+                    }
+                    fileCount++;
+                }
+            }
+        }
+        if (copiedCount > 0) {
+            System.err.println("警告: ハードリンクを作成できないため、" + copiedCount + " 個のファイルをコピーしました。");
+        }
+        
+        Snapshot snapshot = commit(gameDir, tempDir, minecraftVersion, "更新前", fileCount);
+        System.out.println("スナップショットを作成しました: " + snapshot.getId() + " ファイル数: " + fileCount
+            + " 処理時間: " + (System.currentTimeMillis() - startTime) + "ms");
+        prune(gameDir, keep);
+        return snapshot;
+    }
+    
+    /**
+     * 保存されているスナップショットを新しい順に取得します
+     * @param gameDir ゲームディレクトリ
+     * @return スナップショットの一覧（1 番目が最新）
+     * @throws IOException ファイル操作エラー
+     */
+    public static List<Snapshot> list(Path gameDir) throws IOException {
+        Path snapshotsDir = FileUtils.getUpdaterDir(gameDir, "snapshots");
+        List<Snapshot> snapshots = new ArrayList<>();
+        List<Path> dirs;
+        try (Stream<Path> stream = Files.list(snapshotsDir)) {
+            dirs = stream.filter(Files::isDirectory).toList();
+        }
+        for (Path dir : dirs) {
+            Path infoFile = dir.resolve(INFO_FILE);
+            if (dir.getFileName().toString().endsWith(TEMP_SUFFIX) || !Files.exists(infoFile)) {
+                // 作成の途中で中断されたもの
+                System.out.println("未完成のスナップショットを削除します: " + dir.getFileName());
+                deleteRecursively(dir);
+                continue;
+            }
+            Properties info = new Properties();
+            try (Reader reader = Files.newBufferedReader(infoFile, StandardCharsets.UTF_8)) {
+                info.load(reader);
+            }
+            snapshots.add(new Snapshot(dir, info));
+        }
+        snapshots.sort(Comparator.comparing(Snapshot::getId).reversed());
+        return snapshots;
+    }
+    
+    /**
+     * スナップショットの一覧をロールバックで指定する番号付きで説明する文字列にします
+     * @param snapshots list で取得したスナップショットの一覧
+     * @return 説明の文字列
+     */
+    public static String describe(List<Snapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return "保存されているスナップショットがありません。";
+        }
+        StringBuilder message = new StringBuilder("保存されているスナップショット:");
+        for (int i = 0; i < snapshots.size(); i++) {
+            message.append("\n  ").append(i + 1).append(": ").append(snapshots.get(i));
+        }
+        return message.toString();
+    }
+    
+    /**
+     * 管理対象ディレクトリを指定したスナップショットの状態に戻します
+     * 現在のディレクトリは新しいスナップショットとして保存するため、もう 1 度 1 番目に戻すとロールバック前の状態に戻ります。
+     * 戻したスナップショットは中身をゲームディレクトリに移すため、一覧から無くなります
+     * @param gameDir ゲームディレクトリ
+     * @param number 戻すスナップショットの番号（1 が最新）
+     * @param index ゲームディレクトリの索引（null 可）
+     * @return 戻したスナップショット
+     * @throws IOException ファイル操作エラー
+     */
+    public static Snapshot rollback(Path gameDir, int number, FileIndex index) throws IOException {
+        List<Snapshot> snapshots = list(gameDir);
+        if (number < 1 || number > snapshots.size()) {
+            throw new RuntimeException("スナップショット " + number + " はありません。" + describe(snapshots));
+        }
+        Snapshot target = snapshots.get(number - 1);
+        System.out.println("スナップショットに戻します: " + target.getId() + " " + target);
+        
+        // 現在のディレクトリをロールバック前のスナップショットに移し、スナップショットのディレクトリを元の場所に移す
+        Path tempDir = newTempDir(gameDir);
+        List<String> savedNames = new ArrayList<>();
+        List<String> restoredNames = new ArrayList<>();
+        int fileCount = 0;
+        try {
+            for (String name : ModpackManifest.MANAGED_DIRECTORIES) {
+                Path currentDir = gameDir.resolve(name);
+                if (Files.isDirectory(currentDir)) {
+                    fileCount += countFiles(currentDir);
+                    move(currentDir, tempDir.resolve(name));
+                    savedNames.add(name);
+                }
+                Path snapshotDir = target.getDir().resolve(name);
+                if (Files.isDirectory(snapshotDir)) {
+                    move(snapshotDir, currentDir);
+                    restoredNames.add(name);
+                }
+                if (index != null) {
+                    index.recordReplaceTree(name);
+                }
+            }
+            // 現在の状態は最新のスナップショットの時点からの更新で作られたものなので、その Minecraft バージョンを記録する
+            commit(gameDir, tempDir, snapshots.get(0).getMinecraftVersion(), "ロールバック前", fileCount);
+        } catch (IOException | RuntimeException e) {
+            undoRollback(gameDir, target, tempDir, savedNames, restoredNames, e);
+            throw e;
+        }
+        deleteRecursively(target.getDir());
+        
+        System.out.println("スナップショットに戻しました: " + target.getId());
+        return target;
+    }
+    
+    /**
+     * 途中で失敗したロールバックで移動済みのディレクトリを元の場所に戻します
+     * 作成中のスナップショット（.tmp）は次回の一覧の取得で削除されるため、現在のディレクトリを全て戻せた場合のみ削除します。
+     * 戻せなかった場合は、手動で復旧できるように残します
+     */
+    private static void undoRollback(Path gameDir, Snapshot target, Path tempDir,
+                                     List<String> savedNames, List<String> restoredNames, Exception cause) {
+        boolean undone = true;
+        for (String name : restoredNames) {
+            try {
+                move(gameDir.resolve(name), target.getDir().resolve(name));
+            } catch (IOException e) {
+                undone = false;
+                cause.addSuppressed(e);
+            }
+        }
+        for (String name : savedNames) {
+            try {
+                move(tempDir.resolve(name), gameDir.resolve(name));
+            } catch (IOException e) {
+                undone = false;
+                cause.addSuppressed(e);
+            }
+        }
+        if (undone) {
+            System.out.println("ロールバックに失敗したため、元の状態に戻しました");
+            try {
+                deleteRecursively(tempDir);
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+        } else {
+            System.err.println("ロールバックに失敗し、元の状態に戻せませんでした。ロールバック前のディレクトリ: " + tempDir);
+        }
+    }
+    
+    /**
+     * 保持数を超えた古いスナップショットを削除します
+     * ハードリンクを削除するだけなので、現在のゲームディレクトリのファイルには影響しません
+     */
+    private static void prune(Path gameDir, int keep) throws IOException {
+        List<Snapshot> snapshots = list(gameDir);
+        for (int i = Math.max(keep, 0); i < snapshots.size(); i++) {
+            System.out.println("古いスナップショットを削除します: " + snapshots.get(i).getId());
+            deleteRecursively(snapshots.get(i).getDir());
+        }
+    }
+    
+    /**
+     * 作成中のスナップショットのディレクトリを作成します
+     */
+    private static Path newTempDir(Path gameDir) throws IOException {
+        Path snapshotsDir = FileUtils.getUpdaterDir(gameDir, "snapshots");
+        String id = LocalDateTime.now().format(ID_FORMAT);
+        Path tempDir = snapshotsDir.resolve(id + TEMP_SUFFIX);
+        Files.createDirectories(tempDir);
+        return tempDir;
+    }
+    
+    /**
+     * 作成中のスナップショットに情報ファイルを書き込み、名前を変更して完成させます
+     */
+    private static Snapshot commit(Path gameDir, Path tempDir, String minecraftVersion, String reason, int fileCount) throws IOException {
+        Properties info = new Properties();
+        info.setProperty("created", String.valueOf(System.currentTimeMillis()));
+        info.setProperty("minecraftVersion", minecraftVersion);
+        info.setProperty("reason", reason);
+        info.setProperty("files", String.valueOf(fileCount));
+        try (Writer writer = Files.newBufferedWriter(tempDir.resolve(INFO_FILE), StandardCharsets.UTF_8)) {
+            info.store(writer, "A-B-C-D Modpack Updater snapshot");
+        }
+        String name = tempDir.getFileName().toString();
+        Path dir = tempDir.resolveSibling(name.substring(0, name.length() - TEMP_SUFFIX.length()));
+        move(tempDir, dir);
+        return new Snapshot(dir, info);
+    }
+    
+    /**
+     * ハードリンクを作成します。ファイルシステムが対応していない場合はコピーします
+     * @return ハードリンクを作成できた場合は true
+     */
+    private static boolean link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existing, link, StandardCopyOption.COPY_ATTRIBUTES);
+            return false;
+        }
+    }
+    
+    /**
+     * 管理対象ディレクトリとスナップショットの内容が同じかどうかをファイルの内容で比較します
+     * mods と resourcepacks は同じファイルへのハードリンクであれば内容を読まずに同じとみなします。
+     * config がハードリンクになっている古いスナップショットは、その後の書き換えを共有していて更新前の内容を保持していないため、異なるものとして扱います
+     */
+    private static boolean sameContent(Path gameDir, Path snapshotDir) throws IOException {
+        Map<String, Long> files = listFiles(gameDir);
+        if (!files.equals(listFiles(snapshotDir))) {
+            return false;
+        }
+        for (String relativePath : files.keySet()) {
+            Path current = gameDir.resolve(relativePath);
+            Path saved = snapshotDir.resolve(relativePath);
+            if (Files.isSameFile(current, saved)) {
+                if (LINKED_DIRECTORIES.contains(gameDir.relativize(current).getName(0).toString())) {
+                    continue;
+                }
+                return false;
+            }
+            if (Files.mismatch(current, saved) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 管理対象ディレクトリ内のファイルの相対パスとサイズの一覧を作成します
+     */
+    private static Map<String, Long> listFiles(Path baseDir) throws IOException {
+        Map<String, Long> files = new HashMap<>();
+        for (String name : ModpackManifest.MANAGED_DIRECTORIES) {
+            Path dir = baseDir.resolve(name);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        files.put(baseDir.relativize(file).toString(), attributes.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return files;
+    }
+    
+    private static int countFiles(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            return (int) stream.filter(Files::isRegularFile).count();
+        }
+    }
+    
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+    
+    private static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.abcd.modpack.store;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.utils.FileUtils;
+import com.abcd.modpack.utils.ProcessLock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 複数のインスタンス（ゲームディレクトリ）で共有するコンテンツストア
+ * mod や リソースパックのファイルを SHA-256 ごとに 1 つだけ objects/&lt;先頭 2 文字&gt;/&lt;SHA-256&gt; に保存し、
+ * 各インスタンスにはハードリンクで配置します。同じファイルを使用するインスタンスがいくつあっても、ディスク上の実体は 1 つです
+ *
+ * 各インスタンスは使用中のファイルの SHA-256 を refs/&lt;インスタンス&gt;.txt に記録し、
+ * どのインスタンスからも参照されないファイルは {@link #collectGarbage()} で削除します。
+ * 保存と参照の記録は共有ロック、削除は排他ロックの中で行うため、複数のアップデーターが同時に実行されても安全です
+ *
+ * 設定ファイルはゲームの実行中にその場で書き換えられるため、共有の対象は mods と resourcepacks のみです
+ */
+public class ContentStore {
+    private static final List<String> SHARED_DIRECTORIES = List.of("mods", "resourcepacks");
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    
+    private final Path storeDir;
+    private boolean linkSupported = true;
+    
+    private ContentStore(Path storeDir) {
+        this.storeDir = storeDir;
+    }
+    
+    /**
+     * コンテンツストアを開きます
+     * @param storeDir ストアのディレクトリ（存在しない場合は作成）
+     * @return コンテンツストア
+     * @throws IOException ディレクトリの作成エラー
+     */
+    public static ContentStore open(Path storeDir) throws IOException {
+        Files.createDirectories(storeDir.resolve("objects"));
+        Files.createDirectories(storeDir.resolve("refs"));
+        Files.createDirectories(storeDir.resolve("tmp"));
+        return new ContentStore(storeDir);
+    }
+    
+    /**
+     * ストアのディレクトリを取得します
+     * @return ストアのディレクトリ
+     */
+    public Path getStoreDir() {
+        return storeDir;
+    }
+    
+    /**
+     * 相対パスが共有の対象（mods または resourcepacks 内）かどうかを判定します
+     * @param relativePath ゲームディレクトリからの相対パス
+     * @return 共有の対象の場合は true
+     */
+    public static boolean isShareable(String relativePath) {
+        String normalized = relativePath.replace('\\', '/');
+        int slash = normalized.indexOf('/');
+        return slash > 0 && SHARED_DIRECTORIES.contains(normalized.substring(0, slash));
+    }
+    
+    /**
+     * ストアのロックを取得します
+     * ファイルの保存と参照の記録は共有ロック、不要なファイルの削除は排他ロックの中で行います
+     * @param shared 共有ロックの場合は true
+     * @return 取得したロック
+     * @throws IOException ファイル操作エラー
+     */
+    public ProcessLock lock(boolean shared) throws IOException {
+        return ProcessLock.acquire(storeDir.resolve("store.lock"), shared);
+    }
+    
+    /**
+     * ファイルをストアに保存し、ストア内のファイルのパスを返します
+     * 同じ内容のファイルが保存済みの場合はそれを返します。ストアが別のドライブにあるなどハードリンクを作成できない場合は、
+     * 保存せずに元のファイルを返します
+     * 呼び出し元は {@link #lock(boolean)} の共有ロックを保持している必要があります
+     * @param file 保存するファイル
+     * @return ストア内のファイル（保存できない場合は元のファイル）
+     * @throws IOException ファイル操作エラー
+     */
+    public Path intern(Path file) throws IOException {
+        if (!linkSupported) {
+            return file;
+        }
+        String hash = FileUtils.computeHash(file, "SHA-256");
+        Path object = objectPath(hash);
+        if (Files.isRegularFile(object) && Files.size(object) == Files.size(file)) {
+            return object;
+        }
+        
+        // 一時ファイルとしてリンクしてから移動するため、別のプロセスが途中の状態を見ることはない
+        Files.createDirectories(object.getParent());
+        Path temp = storeDir.resolve("tmp").resolve(UUID.randomUUID().toString());
+        try {
+            Files.createLink(temp, file);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            System.err.println("コンテンツストアにハードリンクを作成できないため、ストアを使用せずに続行します: " + e.getMessage());
+            linkSupported = false;
+            return file;
+        }
+        try {
+            Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // 別のプロセスが同じファイルを先に保存した
+            Files.deleteIfExists(temp);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return object;
+    }
+    
+    /**
+     * 保存済みのファイルを SHA-256 で探します
+     * @param sha256 小文字 16 進数の SHA-256
+     * @return ストア内のファイル。保存されていない場合や SHA-256 の形式が不正な場合は null
+     */
+    public Path findObject(String sha256) {
+        if (!SHA256_PATTERN.matcher(sha256).matches()) {
+            return null;
+        }
+        Path object = objectPath(sha256);
+        return Files.isRegularFile(object) ? object : null;
+    }
+    
+    /**
+     * インスタンスが使用中のファイルを記録します
+     * 呼び出し元は {@link #lock(boolean)} の共有ロックを保持している必要があります
+     * @param gameDir インスタンスのゲームディレクトリ
+     * @param hashes 使用中のファイルの SHA-256
+     * @throws IOException 書き込みエラー
+     */
+    public void writeRefs(Path gameDir, Collection<String> hashes) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(gameDir.toAbsolutePath().toString());
+        lines.addAll(new TreeSet<>(hashes));
+        Path refsFile = storeDir.resolve("refs").resolve(instanceKey(gameDir) + ".txt");
+        Path tempFile = refsFile.resolveSibling(refsFile.getFileName() + ".tmp");
+        Files.write(tempFile, lines, StandardCharsets.UTF_8);
+        Files.move(tempFile, refsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * インスタンスの共有対象のディレクトリにあるファイルの SHA-256 を索引から集めます
+     * ハッシュは索引に保存されるため、ファイルを読み込むのは初回と変更があった場合のみです
+     * @param index インスタンスのゲームディレクトリの索引
+     * @return SHA-256 の一覧
+     * @throws IOException ファイル読み込みエラー
+     */
+    public static Set<String> collectHashes(FileIndex index) throws IOException {
+        Set<String> hashes = new HashSet<>();
+        List<String> dirs = new ArrayList<>(SHARED_DIRECTORIES);
+        while (!dirs.isEmpty()) {
+            String dir = dirs.remove(dirs.size() - 1);
+            for (String name : index.list(dir)) {
+                hashes.add(index.sha256(dir + "/" + name));
+            }
+            for (String name : index.listDirectories(dir)) {
+                dirs.add(dir + "/" + name);
+            }
+        }
+        return hashes;
+    }
+    
+    /**
+     * どのインスタンスからも参照されていないファイルを削除します
+     * ゲームディレクトリが存在しなくなったインスタンスの記録も削除します。
+     * 別のアップデーターがストアを使用中の場合は何もしません
+     * @return 削除したファイル数。ストアが使用中の場合は -1
+     * @throws IOException ファイル操作エラー
+     */
+    public int collectGarbage() throws IOException {
+        try (ProcessLock lock = ProcessLock.tryAcquire(storeDir.resolve("store.lock"))) {
+            if (lock == null) {
+                System.out.println("コンテンツストアは別のアップデーターが使用中のため、整理を省略します。");
+                return -1;
+            }
+            
+            Set<String> referenced = new HashSet<>();
+            List<Path> refsFiles;
+            try (Stream<Path> stream = Files.list(storeDir.resolve("refs"))) {
+                refsFiles = stream.filter(path -> path.getFileName().toString().endsWith(".txt")).toList();
+            }
+            for (Path refsFile : refsFiles) {
+                List<String> lines = Files.readAllLines(refsFile, StandardCharsets.UTF_8);
+                if (lines.isEmpty() || !Files.isDirectory(Path.of(lines.get(0)))) {
+                    System.out.println("存在しないインスタンスの記録を削除します: " + (lines.isEmpty() ? refsFile : lines.get(0)));
+                    Files.delete(refsFile);
+                    continue;
+                }
+                referenced.addAll(lines.subList(1, lines.size()));
+            }
+            
+            int deletedCount = 0;
+            List<Path> objects;
+            try (Stream<Path> stream = Files.walk(storeDir.resolve("objects"))) {
+                objects = stream.filter(Files::isRegularFile).toList();
+            }
+            for (Path object : objects) {
+                if (!referenced.contains(object.getFileName().toString())) {
+                    Files.delete(object);
+                    deletedCount++;
+                }
+            }
+            try (Stream<Path> stream = Files.list(storeDir.resolve("tmp"))) {
+                for (Path temp : (Iterable<Path>) stream::iterator) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            System.out.println("コンテンツストアを整理しました。保存ファイル数: " + (objects.size() - deletedCount)
+                + " 削除ファイル数: " + deletedCount);
+            return deletedCount;
+        }
+    }
+    
+    private Path objectPath(String hash) {
+        return storeDir.resolve("objects").resolve(hash.substring(0, 2)).resolve(hash);
+    }
+    
+    /**
+     * ゲームディレクトリごとに一意な記録ファイルの名前を作成します
+     */
+    private static String instanceKey(Path gameDir) {
+        byte[] digest = sha256Digest().digest(gameDir.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, 8);
+    }
+    
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 が利用できません", e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.abcd.modpack.store;
+
+import com.abcd.modpack.utils.ProcessLock;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * コンテンツストアのファイルを LAN 内の他の PC に HTTP で配信するキャッシュサーバー（--serve-cache）
+ * GET /objects/&lt;SHA-256&gt; でストアに保存済みのファイルを返し、無い場合は 404 を返します。
+ * 受信側は配信元のマニフェストの SHA-256 と照合するため、このサーバーは内容の正しさを保証する必要はありません
+ *
+ * 配信中のファイルが削除されないよう、実行中はストアの共有ロックを保持します（不要なファイルの整理は行われません）
+ */
+public class ContentStoreServer implements Closeable {
+    private static final String OBJECTS_PREFIX = "/objects/";
+    
+    private final ContentStore store;
+    private final ProcessLock storeLock;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger notFound = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    
+    private ContentStoreServer(ContentStore store, ProcessLock storeLock, HttpServer server, ExecutorService executor) {
+        this.store = store;
+        this.storeLock = storeLock;
+        this.server = server;
+        this.executor = executor;
+    }
+    
+    /**
+     * キャッシュサーバーを開始します
+     * @param store 配信するコンテンツストア
+     * @param address 待ち受けるアドレスとポート（ポート 0 の場合は空いているポート）
+     * @param threads 同時に配信するクライアント数
+     * @return 開始したキャッシュサーバー
+     * @throws IOException ポートを使用できない場合、またはロックの取得エラー
+     */
+    public static ContentStoreServer start(ContentStore store, InetSocketAddress address, int threads) throws IOException {
+        ProcessLock storeLock = store.lock(true);
+        try {
+            HttpServer server = HttpServer.create(address, 0);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+            ContentStoreServer cacheServer = new ContentStoreServer(store, storeLock, server, executor);
+            server.createContext("/", cacheServer::handle);
+            server.setExecutor(executor);
+            server.start();
+            System.out.println("LAN キャッシュサーバーを開始しました: " + server.getAddress() + " ストア: " + store.getStoreDir());
+            return cacheServer;
+        } catch (IOException | RuntimeException e) {
+            storeLock.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * 待ち受けているポート番号を取得します
+     * @return ポート番号
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * 配信したファイル数と転送量の集計を取得します
+     * @return 集計のテキスト
+     */
+    public String getSummary() {
+        return "配信したファイル数: " + served.get() + " (" + bytes.get() / 1024 + " KiB) 見つからなかったファイル数: " + notFound.get();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            Path object = path.startsWith(OBJECTS_PREFIX) ? store.findObject(path.substring(OBJECTS_PREFIX.length())) : null;
+            if (object == null) {
+                notFound.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            
+            long size = Files.size(object);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(object, out);
+            }
+            served.incrementAndGet();
+            bytes.addAndGet(size);
+            System.out.println("配信: " + object.getFileName() + " (" + size / 1024 + " KiB) → " + exchange.getRemoteAddress().getAddress().getHostAddress());
+        } catch (IOException e) {
+            System.err.println("配信に失敗しました: " + exchange.getRequestURI() + " - " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        server.stop(1);
+        executor.shutdownNow();
+        storeLock.close();
+        System.out.println("LAN キャッシュサーバーを停止しました。" + getSummary());
+    }
+}
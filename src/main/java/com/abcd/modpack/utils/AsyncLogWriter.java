@@ -0,0 +1,251 @@
+package com.abcd.modpack.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ログファイルへの書き込みをバックグラウンドスレッドで行う OutputStream
+ * 呼び出し元のスレッドは書き込み内容をキューに追加するだけで、ディスクへの書き込みとフラッシュは専用スレッドがまとめて行います
+ * 書き込んだ内容は一定間隔ごと、{@link #sync(Duration)} の呼び出し時、および JVM 終了時にフラッシュされます
+ */
+public final class AsyncLogWriter extends OutputStream {
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+    private static final int BATCH_SIZE = 256;
+    private static final Object CLOSE = new Object();
+    
+    /**
+     * キューが一杯になった場合の動作
+     */
+    public enum OverflowPolicy {
+        /** 空きができるまで書き込み元のスレッドを待機させる */
+        BLOCK,
+        /** 書き込み内容を破棄し、破棄した件数をログに記録する */
+        DROP
+    }
+    
+    private final BlockingQueue<Object> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final OutputStream file;
+    private final PrintStream errorOut;
+    private final Thread writerThread;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean failed;
+    
+    /**
+     * ログファイルを上書きモードで開き、書き込みスレッドを開始します
+     * JVM 終了時に残りの内容を書き込んでファイルを閉じるシャットダウンフックも登録します
+     * @param logFile ログファイルのパス
+     * @param capacity キューに保持できる書き込みの最大件数
+     * @param overflowPolicy キューが一杯になった場合の動作
+     * @throws IOException ファイルを開けない場合
+     */
+    public AsyncLogWriter(Path logFile, int capacity, OverflowPolicy overflowPolicy) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.file = new BufferedOutputStream(new FileOutputStream(logFile.toFile(), false), 64 * 1024);
+        this.errorOut = System.err; // 書き込み失敗の通知先（ログファイル自身には書けないため）
+        
+        this.writerThread = new Thread(this::runWriter, "abcd-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                // 終了処理中のため無視
+            }
+        }, "abcd-log-shutdown"));
+    }
+    
+    @Override
+    public void write(int b) {
+        enqueue(new byte[] { (byte) b });
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(b, off, copy, 0, len);
+        enqueue(copy);
+    }
+    
+    /**
+     * 何もしません
+     * PrintStream の自動フラッシュのたびにディスクへ書き込まないよう、フラッシュは書き込みスレッドがまとめて行います
+     * 確実にディスクへ書き込む必要がある場合は {@link #sync(Duration)} を使用してください
+     */
+    @Override
+    public void flush() {
+    }
+    
+    /**
+     * これまでに書き込まれた内容がファイルにフラッシュされるまで待機します
+     * エラー発生時など、直後にプロセスが終了する可能性がある場合に使用します
+     * @param timeout 待機の上限時間
+     * @return 時間内にフラッシュが完了した場合は true
+     */
+    public boolean sync(Duration timeout) {
+        if (closed || failed) {
+            return false;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            if (!queue.offer(latch, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            return latch.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * 残りの内容をすべて書き込んでからファイルを閉じます
+     * @throws IOException ファイルを閉じる際のエラー
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(CLOSE);
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 破棄した書き込みの件数を取得します
+     * @return 破棄した件数
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+    
+    private void enqueue(byte[] record) {
+        if (closed || failed) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            if (!queue.offer(record)) {
+                droppedRecords.incrementAndGet();
+            }
+            return;
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            droppedRecords.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 書き込みスレッドの処理
+     * キューから取り出した内容をまとめて書き込み、一定間隔ごと・待機中・終了時にフラッシュします
+     */
+    private void runWriter() {
+        List<Object> batch = new ArrayList<>(BATCH_SIZE);
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        long reportedDrops = 0;
+        
+        try {
+            while (true) {
+                Object first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (dirty) {
+                        file.flush();
+                        dirty = false;
+                        lastFlush = System.currentTimeMillis();
+                    }
+                    continue;
+                }
+                
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                
+                boolean flushRequested = false;
+                boolean closeRequested = false;
+                List<CountDownLatch> waiters = new ArrayList<>();
+                for (Object item : batch) {
+                    if (item instanceof byte[] bytes) {
+                        file.write(bytes);
+                        dirty = true;
+                    } else if (item instanceof CountDownLatch latch) {
+                        waiters.add(latch);
+                        flushRequested = true;
+                    } else if (item == CLOSE) {
+                        closeRequested = true;
+                    }
+                }
+                batch.clear();
+                
+                long drops = droppedRecords.get();
+                if (drops != reportedDrops) {
+                    file.write(("[ログ] キューが一杯のため " + (drops - reportedDrops) + " 件の出力を破棄しました。"
+                        + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                    reportedDrops = drops;
+                    dirty = true;
+                }
+                
+                if (closeRequested) {
+                    // CLOSE より後に追加された内容も取りこぼさないよう、残りをすべて書き込む
+                    Object item;
+                    while ((item = queue.poll()) != null) {
+                        if (item instanceof byte[] bytes) {
+                            file.write(bytes);
+                        } else if (item instanceof CountDownLatch latch) {
+                            waiters.add(latch);
+                        }
+                    }
+                    file.flush();
+                    waiters.forEach(CountDownLatch::countDown);
+                    file.close();
+                    return;
+                }
+                
+                long now = System.currentTimeMillis();
+                if (dirty && (flushRequested || now - lastFlush >= FLUSH_INTERVAL_MILLIS)) {
+                    file.flush();
+                    dirty = false;
+                    lastFlush = now;
+                }
+                waiters.forEach(CountDownLatch::countDown);
+            }
+        } catch (IOException e) {
+            failed = true;
+            errorOut.println("ログファイルへの書き込みに失敗しました。以降のログはファイルに記録されません: " + e.getMessage());
+            queue.clear();
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // 既に書き込みに失敗しているため無視
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
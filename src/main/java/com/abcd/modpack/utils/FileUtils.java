@@ -2,16 +2,20 @@ package com.abcd.modpack.utils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.progress.ProgressTracker;
 
 import dev.dewy.nbt.Nbt;
 import dev.dewy.nbt.tags.collection.CompoundTag;
@@ -32,10 +36,25 @@ public class FileUtils {
      * @throws IOException ファイル操作エラー
      */
     public static void unzip(Path zipFile, Path destinationDir) throws IOException {
+        unzip(zipFile, destinationDir, null);
+    }
+    
+    /**
+     * ZIP ファイルを指定されたディレクトリに展開し、読み込んだ ZIP ファイルのバイト数を進捗として加算します
+     * @param zipFile 展開する ZIP ファイルのパス
+     * @param destinationDir 展開先ディレクトリ
+     * @param progress 進捗の集計先。null の場合は集計しない
+     * @throws IOException ファイル操作エラー
+     */
+    public static void unzip(Path zipFile, Path destinationDir, ProgressTracker progress) throws IOException {
         System.out.println("ZIP ファイルを展開中: " + zipFile);
         System.out.println("展開先: " + destinationDir);
         
-        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zipFile))) {
+        InputStream in = Files.newInputStream(zipFile);
+        if (progress != null) {
+            in = progress.countingStream(in);
+        }
+        try (ZipInputStream zis = new ZipInputStream(in)) {
             ZipEntry entry;
             int extractedCount = 0;
             
@@ -75,6 +94,18 @@ public class FileUtils {
      * @throws IOException ファイル操作エラー
      */
     public static void removeFilesWithPattern(Path baseDir, String pattern) throws IOException {
+        removeFilesWithPattern(baseDir, pattern, null);
+    }
+    
+    /**
+     * 指定されたパターンに一致するファイルを削除します
+     * 索引を指定した場合は、ディレクトリを走査せずに索引のファイル名一覧から削除対象を探し、削除を索引に記録します
+     * @param baseDir 検索開始ディレクトリ（索引を指定する場合はゲームディレクトリ）
+     * @param pattern ファイルパターン（ワイルドカードを含む可能性がある）
+     * @param index ゲームディレクトリの索引。null の場合はディレクトリを走査する
+     * @throws IOException ファイル操作エラー
+     */
+    public static void removeFilesWithPattern(Path baseDir, String pattern, FileIndex index) throws IOException {
         System.out.println("パターンに一致するファイルを削除中: " + pattern);
         System.out.println("検索ディレクトリ: " + baseDir);
         
@@ -102,32 +133,45 @@ public class FileUtils {
             }
         }
         
-        // ディレクトリが存在しない場合は何もしない
-        if (!Files.exists(searchDir) || !Files.isDirectory(searchDir)) {
-            System.out.println("削除対象ディレクトリが見つかりません: " + searchDir);
-            return;
-        }
-        
         // ワイルドカードパターンを正規表現に変換
         String regex = convertWildcardToRegex(fileName);
         Pattern filePattern = Pattern.compile(regex);
         
-        // ディレクトリ内のファイルを検索して削除
+        // ディレクトリ内のファイルを検索
+        List<Path> filesToDelete;
+        if (index != null) {
+            String relativeDir = parentPath != null ? parentPath : "";
+            filesToDelete = index.list(relativeDir).stream()
+                .filter(name -> filePattern.matcher(name).matches())
+                .map(searchDir::resolve)
+                .toList();
+        } else {
+            // ディレクトリが存在しない場合は何もしない
+            if (!Files.exists(searchDir) || !Files.isDirectory(searchDir)) {
+                System.out.println("削除対象ディレクトリが見つかりません: " + searchDir);
+                return;
+            }
+            try (var stream = Files.list(searchDir)) {
+                filesToDelete = stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> filePattern.matcher(path.getFileName().toString()).matches())
+                    .toList(); // Java 16+ の toList() を使用
+            }
+        }
+        
+        // 一致したファイルを削除
         int deletedCount = 0;
-        try (var stream = Files.list(searchDir)) {
-            var filesToDelete = stream
-                .filter(Files::isRegularFile)
-                .filter(path -> filePattern.matcher(path.getFileName().toString()).matches())
-                .toList(); // Java 16+ の toList() を使用
-            
-            for (Path path : filesToDelete) {
-                try {
-                    System.out.println("ファイルを削除: " + path);
-                    Files.delete(path);
+        for (Path path : filesToDelete) {
+            try {
+                System.out.println("ファイルを削除: " + path);
+                if (Files.deleteIfExists(path)) {
                     deletedCount++;
-                } catch (IOException e) {
-                    System.err.println("ファイル削除に失敗: " + path + " - " + e.getMessage());
                 }
+                if (index != null) {
+                    index.recordDelete(baseDir.relativize(path).toString());
+                }
+            } catch (IOException e) {
+                System.err.println("ファイル削除に失敗: " + path + " - " + e.getMessage());
             }
         }
         
@@ -197,6 +241,58 @@ public class FileUtils {
         }
     }
     
+    /**
+     * アップデーターの作業用ディレクトリ（ゲームディレクトリ直下の .abcd）内のパスを取得し、存在しない場合は作成します
+     * キャッシュなどアップデーター自身が管理するファイルはすべてこの配下に置きます
+     * @param gameDir ゲームディレクトリ
+     * @param name .abcd 配下のディレクトリ名（"cache/fabric" のような相対パスも可）
+     * @return 作業用ディレクトリのパス
+     * @throws IOException ディレクトリ作成エラー
+     */
+    public static Path getUpdaterDir(Path gameDir, String name) throws IOException {
+        Path dir = gameDir.resolve(".abcd").resolve(name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+    
+    /**
+     * ファイルのハッシュ値を計算します
+     * @param filePath 対象ファイルのパス
+     * @param algorithm ハッシュアルゴリズム名（"SHA-1"、"SHA-256" など）
+     * @return 小文字 16 進数のハッシュ文字列
+     * @throws IOException ファイル読み込みエラー
+     */
+    public static String computeHash(Path filePath, String algorithm) throws IOException {
+        MessageDigest digest = createDigest(algorithm);
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(filePath)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    /**
+     * 文字列（UTF-8）のハッシュ値を計算します
+     * @param text 対象文字列
+     * @param algorithm ハッシュアルゴリズム名
+     * @return 小文字 16 進数のハッシュ文字列
+     */
+    public static String computeHash(String text, String algorithm) {
+        MessageDigest digest = createDigest(algorithm);
+        return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    private static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("ハッシュアルゴリズムが利用できません: " + algorithm, e);
+        }
+    }
+    
    /**
      * server.dat (NBT 形式) にサーバーエントリを含むかどうかを確認します。
      * @param serverDatPath server.dat のパス
@@ -318,115 +414,5 @@ public class FileUtils {
             System.err.println("servers.dat へのサーバー追加に失敗しました: " + e.getMessage());
         }
     }
-
-    private static String findResourceFile(Path gameDir, String pattern) {
-        // gameDir の resourcepacks ディレクトリをスキャンし、パターンにマッチするファイルを result に格納します
-        try {
-            return Files.list(gameDir.resolve("resourcepacks"))
-                .filter(Files::isRegularFile)
-                .map(Path::getFileName)
-                .map(Path::toString)
-                .filter(name -> name.matches(pattern))
-                .map(name -> "file/" + name) // "file/" プレフィックスを追加
-                .findFirst() // 最初に見つかったマッチを取得
-                .orElse(null); // マッチがない場合は null を返す
-        } catch (IOException e) {
-            System.err.println("リソースパックのスキャン中にエラーが発生しました: " + e.getMessage());
-            return null; // エラーが発生した場合は null を返す
-        }
-    }
-
-    /**
-     * options.txt ファイルを更新します。
-     * @param gameDir ゲームディレクトリのパス
-     * 
-     * options.txt の設定項目：
-version:4435
-resourcePacks:["vanilla","fabric","file/Faithful-64x-Java-1.21.6.zip","file/AngelWing.zip"]
-lang:ja_jp
-skipMultiplayerWarning:true
-joinedFirstServer:true
-onboardAccessibility:false
-key_key.saveToolbarActivator:key.keyboard.unknown
-key_key.loadToolbarActivator:key.keyboard.unknown
-key_key.quickActions:key.keyboard.unknown
-soundCategory_master:0.1
-     */
-    public static void updateOptions(Path gameDir) {
-        Path optionsFile = gameDir.resolve("options.txt");
-
-        // 書き換えたい内容 options-modify.txt をリソースから読み込む
-        InputStream inputStream = FileUtils.class.getResourceAsStream("/options-modify.txt");
-        if (inputStream == null) {
-            System.err.println("options-modify.txt がリソースに見つかりません。");
-            return;
-        }
-        if (!Files.exists(optionsFile)) {
-            System.out.println("options.txt が見つかりません。新規作成します: " + optionsFile);
-            // inputStream を options.txt としてコピー
-            try {
-                Files.copy(inputStream, optionsFile, StandardCopyOption.REPLACE_EXISTING);
-                System.out.println("新しい options.txt を作成しました: " + optionsFile);
-            } catch (IOException e) {
-                System.err.println("options.txt の作成に失敗しました: " + e.getMessage());
-            }
-            return;
-        }
-        
-        // 
-        // resourcePacks:["vanilla","fabric","file/Faithful-64x-Java-1.21.6.zip","file/AngelWing.zip"]
-        //
-        List<String> entries = new ArrayList<>();
-        entries.add("vanilla");
-        entries.add("fabric");
-        // オーダーとしては、Faithful, AngelWing の順にする必要がある
-        String faithfulPack = findResourceFile(gameDir, "Faithful.*\\.zip");
-        if (faithfulPack != null) {
-            entries.add(faithfulPack);
-        }
-        String angelWingPack = findResourceFile(gameDir, "AngelWing.*\\.zip");
-        if (angelWingPack != null) {
-            entries.add(angelWingPack);
-        }
-        String resourcePacks = "[" + entries.stream()
-            .map(entry -> "\"" + entry + "\"") // 各要素をダブルクォートで囲む
-            .collect(Collectors.joining(",")) + "]";
-
-        // options.txt の内容を設定
-        Map<String, String> dict = new java.util.HashMap<>();
-        dict.put("resourcePacks", resourcePacks);
-        dict.put("lang", "ja_jp");
-        dict.put("skipMultiplayerWarning", "true");
-        dict.put("joinedFirstServer", "true");
-        dict.put("onboardAccessibility", "false");
-        dict.put("key_key.saveToolbarActivator", "key.keyboard.unknown");
-        dict.put("key_key.loadToolbarActivator", "key.keyboard.unknown");
-        dict.put("key_key.quickActions", "key.keyboard.unknown");
-        dict.put("soundCategory_master", "0.10264900662251655");
-        
-        // options.txt を１行ずつ読み込み
-        // dict のキーが存在する場合は上書き、存在しない場合はそのまま書き込む
-        try {
-            List<String> lines = Files.readAllLines(optionsFile);
-            List<String> newLines = new ArrayList<>();
-            
-            for (String line : lines) {
-                String[] parts = line.split(":", 2);
-                if (parts.length == 2 && dict.containsKey(parts[0])) {
-                    // キーが存在する場合は上書き
-                    newLines.add(parts[0] + ":" + dict.get(parts[0]));
-                } else {
-                    // キーが存在しない場合はそのまま追加
-                    newLines.add(line);
-                }
-            }
-            
-            // 新しい内容を options.txt に書き込む
-            Files.write(optionsFile, newLines);
-            System.out.println("options.txt を更新しました: " + optionsFile);
-        } catch (IOException e) {
-            System.err.println("options.txt の更新に失敗しました: " + e.getMessage());
-        }
-    }
         
 }
@@ -0,0 +1,272 @@
+package com.abcd.modpack.utils;
+
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.network.HttpCache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * options.txt を options-modify.txt の内容に従って書き換えるクラス
+ * 書き換える項目はコードに持たず、"キー:値" 形式の定義ファイル（リソースまたはサーバー上のファイル）から読み込みます
+ *
+ * 定義ファイルの書式:
+ * <ul>
+ *   <li>1 行に 1 項目を "キー:値" の形式で記述します。空行と # で始まる行は無視されます</li>
+ *   <li>"version" は options.txt を新規作成する場合にのみ使用し、既存のファイルでは書き換えません</li>
+ *   <li>JSON 配列の値に含まれる "file/名前" は resourcepacks ディレクトリ内のファイルに解決されます。
+ *       名前には * と ? のワイルドカードを使用でき、一致するファイルが無い要素は取り除かれます</li>
+ *   <li>既存の options.txt に存在しないキーは追加しません</li>
+ * </ul>
+ */
+public class OptionsPatcher {
+    private static final String RESOURCE_NAME = "/options-modify.txt";
+    private static final String VERSION_KEY = "version";
+    private static final String FILE_PREFIX = "file/";
+    
+    private final Map<String, String> entries;
+    private List<String> resourcePackNames;
+    
+    private OptionsPatcher(Map<String, String> entries) {
+        this.entries = entries;
+    }
+    
+    /**
+     * 定義ファイルの内容から書き換え内容を作成します
+     * @param text 定義ファイルの内容
+     * @return 書き換え内容
+     */
+    public static OptionsPatcher parse(String text) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String line : text.split("\\r?\\n")) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                System.err.println("options-modify.txt の不正な行を無視します: " + line);
+                continue;
+            }
+            entries.put(line.substring(0, colon), line.substring(colon + 1));
+        }
+        return new OptionsPatcher(entries);
+    }
+    
+    /**
+     * リソースに同梱された options-modify.txt から書き換え内容を作成します
+     * @return 書き換え内容
+     * @throws IOException リソースの読み込みエラー
+     */
+    public static OptionsPatcher fromResource() throws IOException {
+        try (InputStream in = OptionsPatcher.class.getResourceAsStream(RESOURCE_NAME)) {
+            if (in == null) {
+                throw new IOException("options-modify.txt がリソースに見つかりません。");
+            }
+            return parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+    
+    /**
+     * サーバー上の定義ファイルから書き換え内容を作成します
+     * 取得できない場合は前回取得したキャッシュ、それも無い場合はリソースの定義ファイルを使用します
+     * @param httpCache HTTP キャッシュ
+     * @param url 定義ファイルの URL。null または空の場合はリソースを使用
+     * @param ttl キャッシュの有効期限
+     * @return 書き換え内容
+     * @throws IOException リソースの読み込みエラー
+     */
+    public static OptionsPatcher load(HttpCache httpCache, String url, Duration ttl) throws IOException {
+        if (url == null || url.isBlank()) {
+            return fromResource();
+        }
+        try {
+            return parse(httpCache.get(url, ttl).readText());
+        } catch (Exception e) {
+            System.err.println("options-modify.txt の取得に失敗しました: " + e.getMessage());
+        }
+        HttpCache.Entry cached = httpCache.getCached(url);
+        if (cached != null) {
+            System.out.println("前回取得した options-modify.txt を使用します。");
+            return parse(cached.readText());
+        }
+        System.out.println("同梱の options-modify.txt を使用します。");
+        return fromResource();
+    }
+    
+    /**
+     * ゲームディレクトリの options.txt に書き換え内容を適用します
+     * ファイルは 1 行ずつ読み込みながら一時ファイルに書き出し、値が変化した場合のみアトミックに置き換えます
+     * @param gameDir ゲームディレクトリ
+     * @return options.txt を書き込んだ場合は true
+     * @throws IOException ファイル操作エラー
+     */
+    public boolean apply(Path gameDir) throws IOException {
+        return apply(gameDir, null);
+    }
+    
+    /**
+     * ゲームディレクトリの options.txt に書き換え内容を適用します
+     * リソースパックの指定は、索引を指定した場合は resourcepacks ディレクトリを走査せずに索引から解決します
+     * @param gameDir ゲームディレクトリ
+     * @param index ゲームディレクトリの索引。null の場合はディレクトリを走査する
+     * @return options.txt を書き込んだ場合は true
+     * @throws IOException ファイル操作エラー
+     */
+    public boolean apply(Path gameDir, FileIndex index) throws IOException {
+        Path optionsFile = gameDir.resolve("options.txt");
+        Path tempFile = gameDir.resolve("options.txt.abcd-tmp");
+        
+        if (!Files.exists(optionsFile)) {
+            System.out.println("options.txt が見つかりません。新規作成します: " + optionsFile);
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    writer.write(entry.getKey() + ":" + resolveValue(gameDir, index, entry.getValue()));
+                    writer.newLine();
+                }
+            }
+            replace(tempFile, optionsFile);
+            System.out.println("新しい options.txt を作成しました: " + optionsFile);
+            return true;
+        }
+        
+        boolean changed = false;
+        try (BufferedReader reader = Files.newBufferedReader(optionsFile, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    String key = line.substring(0, colon);
+                    if (!VERSION_KEY.equals(key) && entries.containsKey(key)) {
+                        String value = resolveValue(gameDir, index, entries.get(key));
+                        if (!value.equals(line.substring(colon + 1))) {
+                            line = key + ":" + value;
+                            changed = true;
+                        }
+                    }
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        
+        if (!changed) {
+            Files.deleteIfExists(tempFile);
+            System.out.println("options.txt は最新です。書き込みをスキップしました。");
+            return false;
+        }
+        
+        replace(tempFile, optionsFile);
+        System.out.println("options.txt を更新しました: " + optionsFile);
+        return true;
+    }
+    
+    /**
+     * 値に含まれるリソースパックの指定を resourcepacks ディレクトリ内のファイル名に解決します
+     * JSON 配列以外の値はそのまま返します
+     */
+    private String resolveValue(Path gameDir, FileIndex index, String value) throws IOException {
+        if (!value.startsWith("[") || !value.endsWith("]") || !value.contains("\"" + FILE_PREFIX)) {
+            return value;
+        }
+        
+        List<String> resolved = new ArrayList<>();
+        for (String element : splitJsonArray(value)) {
+            if (!element.startsWith("\"" + FILE_PREFIX)) {
+                resolved.add(element);
+                continue;
+            }
+            String name = resolveResourcePack(gameDir, index, element.substring(FILE_PREFIX.length() + 1, element.length() - 1));
+            if (name != null) {
+                resolved.add("\"" + FILE_PREFIX + name + "\"");
+            }
+        }
+        return "[" + String.join(",", resolved) + "]";
+    }
+    
+    /**
+     * resourcepacks ディレクトリ内でパターンに一致するファイル名を検索します
+     * ディレクトリの一覧は最初の呼び出しで 1 度だけ取得し、名前順で最初に一致したものを返します
+     */
+    private String resolveResourcePack(Path gameDir, FileIndex index, String pattern) throws IOException {
+        if (resourcePackNames == null) {
+            Path resourcePacksDir = gameDir.resolve("resourcepacks");
+            if (index != null) {
+                resourcePackNames = index.list("resourcepacks");
+            } else if (Files.isDirectory(resourcePacksDir)) {
+                try (Stream<Path> stream = Files.list(resourcePacksDir)) {
+                    resourcePackNames = stream
+                        .filter(Files::isRegularFile)
+                        .map(path -> path.getFileName().toString())
+                        .sorted()
+                        .toList();
+                }
+            } else {
+                resourcePackNames = List.of();
+            }
+        }
+        
+        Pattern filePattern = Pattern.compile(FileUtils.convertWildcardToRegex(pattern));
+        for (String name : resourcePackNames) {
+            if (filePattern.matcher(name).matches()) {
+                return name;
+            }
+        }
+        System.out.println("リソースパックが見つからないため options.txt から除外します: " + pattern);
+        return null;
+    }
+    
+    /**
+     * 文字列要素からなる JSON 配列を、引用符を含んだままの要素に分割します
+     */
+    private static List<String> splitJsonArray(String array) {
+        List<String> elements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inString = false;
+        for (int i = 1; i < array.length() - 1; i++) {
+            char c = array.charAt(i);
+            if (inString && c == '\\' && i + 1 < array.length() - 1) {
+                current.append(c).append(array.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                inString = !inString;
+            }
+            if (c == ',' && !inString) {
+                elements.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (!current.toString().isBlank()) {
+            elements.add(current.toString().trim());
+        }
+        return elements;
+    }
+    
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.abcd.modpack.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ファイルロックによるプロセス間の排他制御
+ * 同じロックファイルを使用する別のアップデーターのプロセスとの間で、共有ロックまたは排他ロックを取得します。
+ * プロセスが異常終了した場合もロックは OS によって解放されます
+ */
+public class ProcessLock implements Closeable {
+    private final FileChannel channel;
+    private final FileLock lock;
+    
+    private ProcessLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+    
+    /**
+     * ロックを取得します。別のプロセスが競合するロックを保持している場合は解放されるまで待機します
+     * @param lockFile ロックファイル（存在しない場合は作成）
+     * @param shared 共有ロックの場合は true、排他ロックの場合は false
+     * @return 取得したロック
+     * @throws IOException ファイル操作エラー
+     */
+    public static ProcessLock acquire(Path lockFile, boolean shared) throws IOException {
+        FileChannel channel = openChannel(lockFile);
+        try {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock == null) {
+                System.out.println("別のアップデーターの処理が終わるのを待っています: " + lockFile.getFileName());
+                lock = channel.lock(0, Long.MAX_VALUE, shared);
+            }
+            return new ProcessLock(channel, lock);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * 待機せずに排他ロックの取得を試みます
+     * @param lockFile ロックファイル（存在しない場合は作成）
+     * @return 取得したロック。別のプロセス（または同じプロセス内の別の箇所）がロックを保持している場合は null
+     * @throws IOException ファイル操作エラー
+     */
+    public static ProcessLock tryAcquire(Path lockFile) throws IOException {
+        FileChannel channel = openChannel(lockFile);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            return new ProcessLock(channel, lock);
+        } catch (OverlappingFileLockException e) {
+            // 同じプロセス内で既にロックを保持している
+            channel.close();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private static FileChannel openChannel(Path lockFile) throws IOException {
+        Files.createDirectories(lockFile.getParent());
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
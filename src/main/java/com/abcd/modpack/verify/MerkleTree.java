@@ -0,0 +1,210 @@
+package com.abcd.modpack.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ファイルの相対パスと SHA-256 から作成する Merkle ツリー
+ * ディレクトリのハッシュは、名前順に並べた子要素の「種類・名前・ハッシュ」を連結した SHA-256 です。
+ * ファイルを含まないディレクトリはツリーに現れないため、同じファイル集合からは常に同じルートハッシュが得られます
+ */
+public class MerkleTree {
+    private final Node root;
+    
+    private MerkleTree(Node root) {
+        this.root = root;
+    }
+    
+    /**
+     * ツリーのノード（ファイルまたはディレクトリ）
+     */
+    public static class Node {
+        private final String path;
+        private final TreeMap<String, Node> children;
+        private byte[] hash;
+        
+        private Node(String path, byte[] fileHash) {
+            this.path = path;
+            this.children = fileHash == null ? new TreeMap<>() : null;
+            this.hash = fileHash;
+        }
+        
+        /**
+         * ゲームディレクトリからの相対パスを取得します
+         * @return 相対パス（ルートは ""）
+         */
+        public String getPath() {
+            return path;
+        }
+        
+        public boolean isDirectory() {
+            return children != null;
+        }
+        
+        public byte[] getHash() {
+            return hash;
+        }
+        
+        /**
+         * 子ノードを名前順で取得します
+         * @return 子ノードの名前と子ノード（ファイルの場合は空）
+         */
+        public Map<String, Node> getChildren() {
+            return children == null ? Map.of() : children;
+        }
+        
+        private void computeHash() {
+            if (children == null) {
+                return;
+            }
+            MessageDigest digest = ModpackManifest.sha256Digest();
+            for (Map.Entry<String, Node> child : children.entrySet()) {
+                child.getValue().computeHash();
+                digest.update((byte) (child.getValue().isDirectory() ? 'D' : 'F'));
+                digest.update(child.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(child.getValue().hash);
+            }
+            hash = digest.digest();
+        }
+    }
+    
+    /**
+     * ファイルのハッシュからツリーを作成します
+     * @param fileHashes "/" 区切りの相対パスと SHA-256 の対応
+     * @return Merkle ツリー
+     */
+    public static MerkleTree build(Map<String, byte[]> fileHashes) {
+        Node root = new Node("", null);
+        for (Map.Entry<String, byte[]> file : fileHashes.entrySet()) {
+            String[] parts = file.getKey().split("/");
+            Node dir = root;
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < parts.length - 1; i++) {
+                if (path.length() > 0) {
+                    path.append('/');
+                }
+                path.append(parts[i]);
+                String dirPath = path.toString();
+                dir = dir.children.computeIfAbsent(parts[i], name -> new Node(dirPath, null));
+            }
+            dir.children.put(parts[parts.length - 1], new Node(file.getKey(), file.getValue()));
+        }
+        root.computeHash();
+        return new MerkleTree(root);
+    }
+    
+    public Node getRoot() {
+        return root;
+    }
+    
+    /**
+     * ルートハッシュを 16 進数で取得します
+     * @return 小文字 16 進数のルートハッシュ
+     */
+    public String getRootHex() {
+        return HexFormat.of().formatHex(root.hash);
+    }
+    
+    /**
+     * 2 つのツリーを比較し、内容が異なるファイルの相対パスを取得します
+     * ハッシュが一致するサブツリーには降りないため、比較の手間は差分の大きさに比例します
+     * @param expected 期待するツリー（マニフェストから作成したもの）
+     * @param actual 実際のツリー（ゲームディレクトリから作成したもの）
+     * @return 差分
+     */
+    public static Difference diff(MerkleTree expected, MerkleTree actual) {
+        Difference difference = new Difference();
+        diff(expected.root, actual.root, difference);
+        return difference;
+    }
+    
+    private static void diff(Node expected, Node actual, Difference difference) {
+        if (expected == null && actual == null) {
+            return;
+        }
+        if (expected != null && actual != null && Arrays.equals(expected.hash, actual.hash)
+                && expected.isDirectory() == actual.isDirectory()) {
+            return;
+        }
+        if (expected != null && !expected.isDirectory() && actual != null && !actual.isDirectory()) {
+            difference.changed.add(expected.path);
+            return;
+        }
+        if (expected != null && !expected.isDirectory()) {
+            difference.missing.add(expected.path);
+            diff(null, actual, difference);
+            return;
+        }
+        if (actual != null && !actual.isDirectory()) {
+            difference.extra.add(actual.path);
+            diff(expected, null, difference);
+            return;
+        }
+        
+        difference.visitedDirectories++;
+        TreeMap<String, Node> names = new TreeMap<>();
+        if (expected != null) {
+            names.putAll(expected.children);
+        }
+        if (actual != null) {
+            names.putAll(actual.children);
+        }
+        for (String name : names.keySet()) {
+            diff(expected == null ? null : expected.children.get(name),
+                actual == null ? null : actual.children.get(name), difference);
+        }
+    }
+    
+    /**
+     * ツリーの差分
+     */
+    public static class Difference {
+        private final List<String> missing = new ArrayList<>();
+        private final List<String> changed = new ArrayList<>();
+        private final List<String> extra = new ArrayList<>();
+        private int visitedDirectories;
+        
+        /**
+         * 期待するツリーにのみ存在するファイルを取得します
+         * @return 相対パスの一覧
+         */
+        public List<String> getMissing() {
+            return missing;
+        }
+        
+        /**
+         * 両方に存在し内容が異なるファイルを取得します
+         * @return 相対パスの一覧
+         */
+        public List<String> getChanged() {
+            return changed;
+        }
+        
+        /**
+         * 実際のツリーにのみ存在するファイルを取得します
+         * @return 相対パスの一覧
+         */
+        public List<String> getExtra() {
+            return extra;
+        }
+        
+        /**
+         * 比較のために降りたディレクトリの数を取得します
+         * @return ディレクトリ数
+         */
+        public int getVisitedDirectories() {
+            return visitedDirectories;
+        }
+        
+        public boolean isEmpty() {
+            return missing.isEmpty() && changed.isEmpty() && extra.isEmpty();
+        }
+    }
+}
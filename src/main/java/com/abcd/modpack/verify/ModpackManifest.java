@@ -0,0 +1,272 @@
+package com.abcd.modpack.verify;
+
+import com.abcd.modpack.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Modpack の管理対象ファイルの一覧（マニフェスト）
+ * パック定義ファイルと同じ場所に abcd-update-packs-&lt;バージョン&gt;.manifest として配置し、
+ * マニフェストから計算したルートハッシュを abcd-update-packs-&lt;バージョン&gt;.root として配置します
+ *
+ * 形式: 1 行目が "# abcd-manifest 1"、以降は 1 ファイル 1 行で
+ * "SHA-256（16 進数）&lt;TAB&gt;サイズ&lt;TAB&gt;取得元&lt;TAB&gt;ゲームディレクトリからの相対パス" です。
+ * 取得元はファイルを単体でダウンロードする場合は "-"、ZIP から展開する場合はその ZIP のパスです
+ */
+public class ModpackManifest {
+    static final String HEADER = "# abcd-manifest 1";
+    static final String DIRECT_SOURCE = "-";
+    
+    /**
+     * 管理対象のディレクトリ。このディレクトリ以下のファイルのみマニフェストに含めます
+     */
+    public static final List<String> MANAGED_DIRECTORIES = List.of("mods", "resourcepacks", "config");
+    
+    private final Map<String, Entry> entries;
+    
+    private ModpackManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+    
+    /**
+     * マニフェストの 1 ファイル分の情報
+     */
+    public static class Entry {
+        private final String path;
+        private final String sha256;
+        private final long size;
+        private final String source;
+        
+        Entry(String path, String sha256, long size, String source) {
+            this.path = path;
+            this.sha256 = sha256;
+            this.size = size;
+            this.source = source;
+        }
+        
+        public String getPath() {
+            return path;
+        }
+        
+        public String getSha256() {
+            return sha256;
+        }
+        
+        public long getSize() {
+            return size;
+        }
+        
+        /**
+         * ファイルの取得元を取得します
+         * @return 単体でダウンロードする場合は "-"、ZIP から展開する場合は ZIP のパス
+         */
+        public String getSource() {
+            return source;
+        }
+        
+        public boolean isDirect() {
+            return DIRECT_SOURCE.equals(source);
+        }
+    }
+    
+    /**
+     * マニフェストのテキストを解析します
+     * @param text マニフェストのテキスト
+     * @return マニフェスト
+     * @throws IOException 形式が不正な場合
+     */
+    public static ModpackManifest parse(String text) throws IOException {
+        return parse(new StringReader(text));
+    }
+    
+    /**
+     * マニフェストを読み込みます
+     * @param reader マニフェストの入力
+     * @return マニフェスト
+     * @throws IOException 読み込みエラーまたは形式が不正な場合
+     */
+    public static ModpackManifest parse(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        String header = in.readLine();
+        if (header == null || !header.trim().equals(HEADER)) {
+            throw new IOException("マニフェストの形式が不正です。ヘッダー: " + header);
+        }
+        
+        Map<String, Entry> entries = new TreeMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", 4);
+            if (fields.length != 4 || fields[0].length() != 64) {
+                throw new IOException("マニフェストの行が不正です: " + line);
+            }
+            try {
+                entries.put(fields[3], new Entry(fields[3], fields[0].toLowerCase(), Long.parseLong(fields[1]), fields[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("マニフェストの行が不正です: " + line);
+            }
+        }
+        return new ModpackManifest(entries);
+    }
+    
+    /**
+     * マニフェストに含まれるファイルを相対パス順で取得します
+     * @return ファイルの一覧
+     */
+    public List<Entry> getEntries() {
+        return List.copyOf(entries.values());
+    }
+    
+    /**
+     * 相対パスに対応するファイルを取得します
+     * @param path ゲームディレクトリからの相対パス
+     * @return ファイルの情報（含まれない場合は null）
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+    
+    /**
+     * マニフェストから Merkle ツリーを作成します
+     * @return Merkle ツリー
+     */
+    public MerkleTree toTree() {
+        Map<String, byte[]> hashes = new TreeMap<>();
+        for (Entry entry : entries.values()) {
+            hashes.put(entry.getPath(), HexFormat.of().parseHex(entry.getSha256()));
+        }
+        return MerkleTree.build(hashes);
+    }
+    
+    /**
+     * マニフェストを書き出します
+     * @param writer 出力先
+     * @throws IOException 書き込みエラー
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Entry entry : entries.values()) {
+            writer.write(entry.getSha256() + "\t" + entry.getSize() + "\t" + entry.getSource() + "\t" + entry.getPath() + "\n");
+        }
+    }
+    
+    /**
+     * 配信ディレクトリのパック定義ファイルを先頭から適用した結果のファイル一覧からマニフェストを作成します
+     * "+" 行のファイルは単体のファイルとして、ZIP は中身を展開した結果として扱い、"-" 行はそれまでに追加されたファイルから削除します
+     * @param downloadsDir パック定義ファイルと配信ファイルを置いたディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @return マニフェスト
+     * @throws IOException ファイル読み込みエラー
+     */
+    public static ModpackManifest fromDownloads(Path downloadsDir, String minecraftVersion) throws IOException {
+        Path packsPath = downloadsDir.resolve("abcd-update-packs-" + minecraftVersion + ".txt");
+        Map<String, Entry> entries = new TreeMap<>();
+        
+        for (String line : Files.readAllLines(packsPath, StandardCharsets.UTF_8)) {
+            if (line.length() < 2 || line.startsWith("#")) {
+                continue;
+            }
+            String value = line.substring(1).replace('\\', '/');
+            if (line.charAt(0) == '-') {
+                int slash = value.lastIndexOf('/');
+                String dir = slash < 0 ? "" : value.substring(0, slash + 1);
+                Pattern pattern = Pattern.compile(FileUtils.convertWildcardToRegex(value.substring(slash + 1)));
+                entries.keySet().removeIf(path -> path.startsWith(dir) && path.indexOf('/', dir.length()) < 0
+                    && pattern.matcher(path.substring(dir.length())).matches());
+            } else if (line.charAt(0) == '+') {
+                Path file = downloadsDir.resolve(value);
+                if (value.toLowerCase().endsWith(".zip")) {
+                    addZipEntries(entries, file, value);
+                } else if (isManaged(value)) {
+                    try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), sha256Digest())) {
+                        long size = in.transferTo(OutputStream.nullOutputStream());
+                        entries.put(value, new Entry(value, HexFormat.of().formatHex(in.getMessageDigest().digest()), size, DIRECT_SOURCE));
+                    }
+                }
+            }
+        }
+        return new ModpackManifest(entries);
+    }
+    
+    private static void addZipEntries(Map<String, Entry> entries, Path zipFile, String source) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zipFile))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zis.getNextEntry()) != null) {
+                String path = zipEntry.getName().replace('\\', '/');
+                if (zipEntry.isDirectory() || !isManaged(path)) {
+                    continue;
+                }
+                MessageDigest digest = sha256Digest();
+                long size = 0;
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = zis.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    size += read;
+                }
+                entries.put(path, new Entry(path, HexFormat.of().formatHex(digest.digest()), size, source));
+            }
+        }
+    }
+    
+    /**
+     * 相対パスが管理対象のディレクトリ内かどうかを判定します
+     * @param path ゲームディレクトリからの相対パス（"/" 区切り）
+     * @return 管理対象の場合は true
+     */
+    public static boolean isManaged(String path) {
+        int slash = path.indexOf('/');
+        return slash > 0 && MANAGED_DIRECTORIES.contains(path.substring(0, slash)) && !path.contains("..");
+    }
+    
+    static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 が利用できません", e);
+        }
+    }
+    
+    /**
+     * 配信ディレクトリからマニフェストとルートハッシュのファイルを作成します（配信側で使用）
+     * 使い方: java -cp abcd-modpack.jar com.abcd.modpack.verify.ModpackManifest &lt;配信ディレクトリ&gt; &lt;Minecraft バージョン&gt;
+     * @param args 配信ディレクトリと Minecraft バージョン
+     * @throws IOException ファイル読み書きエラー
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("使い方: ModpackManifest <配信ディレクトリ> <Minecraft バージョン>");
+            System.exit(2);
+        }
+        Path downloadsDir = Path.of(args[0]);
+        ModpackManifest manifest = fromDownloads(downloadsDir, args[1]);
+        String baseName = "abcd-update-packs-" + args[1];
+        try (Writer writer = Files.newBufferedWriter(downloadsDir.resolve(baseName + ".manifest"), StandardCharsets.UTF_8)) {
+            manifest.write(writer);
+        }
+        String root = manifest.toTree().getRootHex();
+        Files.writeString(downloadsDir.resolve(baseName + ".root"), root + "\n", StandardCharsets.UTF_8);
+        System.out.println("マニフェストを作成しました。ファイル数: " + manifest.entries.size() + " ルートハッシュ: " + root);
+    }
+}
@@ -0,0 +1,339 @@
+package com.abcd.modpack.verify;
+
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.index.FileIndex;
+import com.abcd.modpack.network.HttpCache;
+import com.abcd.modpack.network.MirrorSet;
+import com.abcd.modpack.network.NetworkUtils;
+import com.abcd.modpack.utils.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * ゲームディレクトリの Modpack が配信内容と一致しているかを検証するクラス
+ * 管理対象ディレクトリの Merkle ツリーのルートハッシュを、パック定義ファイルと同じ場所に配置されたルートハッシュと比較し、
+ * 異なる場合のみマニフェストのツリーと比較して、ハッシュが異なるサブツリーに降りて差分のファイルを特定します
+ * ファイルの SHA-256 は {@link FileIndex} に記録されるため、サイズと更新日時が変わらないファイルは読み込みません
+ */
+public class ModpackVerifier {
+    /**
+     * 配信内容にないファイルも差分として扱うディレクトリ
+     * その他の管理対象ディレクトリ（resourcepacks、config）は、利用者や mod が作成するファイルがあるため配信内容のファイルのみ比較します
+     */
+    private static final Set<String> STRICT_DIRECTORIES = Set.of("mods");
+    private static final String REPAIR_DIR = "staging-repair";
+    
+    /**
+     * 検証結果
+     */
+    public static class Result {
+        private final String expectedRoot;
+        private final String actualRoot;
+        private final MerkleTree.Difference difference;
+        private final List<String> repaired = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+        
+        Result(String expectedRoot, String actualRoot, MerkleTree.Difference difference) {
+            this.expectedRoot = expectedRoot;
+            this.actualRoot = actualRoot;
+            this.difference = difference;
+        }
+        
+        public String getExpectedRoot() {
+            return expectedRoot;
+        }
+        
+        public String getActualRoot() {
+            return actualRoot;
+        }
+        
+        public boolean isInSync() {
+            return expectedRoot.equals(actualRoot);
+        }
+        
+        public MerkleTree.Difference getDifference() {
+            return difference;
+        }
+        
+        public List<String> getRepaired() {
+            return repaired;
+        }
+        
+        public List<String> getFailed() {
+            return failed;
+        }
+        
+        /**
+         * 検証結果の要約を取得します
+         * @return 利用者向けの要約
+         */
+        public String getSummary() {
+            if (isInSync()) {
+                return "Modpack は配信内容と一致しています。";
+            }
+            StringBuilder sb = new StringBuilder("Modpack が配信内容と一致しません。\n");
+            sb.append("不足しているファイル: ").append(difference.getMissing().size()).append("\n");
+            sb.append("内容が異なるファイル: ").append(difference.getChanged().size()).append("\n");
+            sb.append("配信内容にないファイル: ").append(difference.getExtra().size()).append("\n");
+            if (!repaired.isEmpty() || !failed.isEmpty()) {
+                sb.append("修復したファイル: ").append(repaired.size()).append("\n");
+                sb.append("修復できなかったファイル: ").append(failed.size()).append("\n");
+            }
+            if (!difference.getExtra().isEmpty()) {
+                sb.append("配信内容にないファイルは削除しません。不要な場合は手動で削除してください。");
+            }
+            return sb.toString().trim();
+        }
+    }
+    
+    /**
+     * ゲームディレクトリの Modpack を検証し、必要に応じて差分のファイルのみを修復します
+     * @param gameDir ゲームディレクトリ
+     * @param minecraftVersion Minecraft バージョン
+     * @param httpCache マニフェストのキャッシュ
+     * @param index ゲームディレクトリの索引
+     * @param repair 不足しているファイルと内容が異なるファイルを修復する場合は true
+     * @return 検証結果
+     * @throws Exception ネットワークエラーまたはファイル処理エラー
+     */
+    public static Result verify(Path gameDir, String minecraftVersion, HttpCache httpCache, FileIndex index,
+            boolean repair) throws Exception {
+        String baseUrl = Endpoints.current().getDownloadBaseUrl() + "abcd-update-packs-" + minecraftVersion;
+        String expectedRoot = NetworkUtils.fetchText(baseUrl + ".root").trim().toLowerCase();
+        System.out.println("配信内容のルートハッシュ: " + expectedRoot);
+        
+        ModpackManifest manifest = loadManifest(httpCache, baseUrl + ".manifest", expectedRoot);
+        return compare(gameDir, manifest, expectedRoot, index, repair);
+    }
+    
+    /**
+     * ゲームディレクトリの Modpack を取得済みのマニフェストと比較して検証します。ネットワークには接続しません
+     * 修復はファイルのダウンロードを伴うため行いません
+     * @param gameDir ゲームディレクトリ
+     * @param manifest 配信内容のマニフェスト
+     * @param index ゲームディレクトリの索引
+     * @return 検証結果
+     * @throws Exception ファイル処理エラー
+     */
+    public static Result verify(Path gameDir, ModpackManifest manifest, FileIndex index) throws Exception {
+        return compare(gameDir, manifest, manifest.toTree().getRootHex(), index, false);
+    }
+    
+    /**
+     * マニフェストのツリーとゲームディレクトリのツリーを比較し、必要に応じて差分のファイルを修復します
+     */
+    private static Result compare(Path gameDir, ModpackManifest manifest, String expectedRoot, FileIndex index,
+            boolean repair) throws Exception {
+        MerkleTree expected = manifest.toTree();
+        
+        MerkleTree actual = MerkleTree.build(collectLocalHashes(index, manifest));
+        System.out.println("ゲームディレクトリのルートハッシュ: " + actual.getRootHex());
+        
+        MerkleTree.Difference difference = MerkleTree.diff(expected, actual);
+        Result result = new Result(expectedRoot, actual.getRootHex(), difference);
+        if (result.isInSync()) {
+            System.out.println("Modpack は配信内容と一致しています。");
+            return result;
+        }
+        
+        System.out.println("差分を確認したディレクトリ数: " + difference.getVisitedDirectories());
+        difference.getMissing().forEach(path -> System.out.println("不足: " + path));
+        difference.getChanged().forEach(path -> System.out.println("変更: " + path));
+        difference.getExtra().forEach(path -> System.out.println("配信内容にないファイル: " + path));
+        
+        if (repair) {
+            List<String> broken = new ArrayList<>(difference.getMissing());
+            broken.addAll(difference.getChanged());
+            repair(gameDir, manifest, broken, index, result);
+        }
+        return result;
+    }
+    
+    /**
+     * マニフェストを取得します
+     * キャッシュ済みのマニフェストが配信中のルートハッシュと一致する場合はダウンロードしません
+     */
+    private static ModpackManifest loadManifest(HttpCache httpCache, String url, String expectedRoot) throws Exception {
+        HttpCache.Entry cached = httpCache.getCached(url);
+        if (cached != null) {
+            ModpackManifest manifest = ModpackManifest.parse(cached.readText());
+            if (manifest.toTree().getRootHex().equals(expectedRoot)) {
+                System.out.println("キャッシュ済みのマニフェストを使用します。");
+                return manifest;
+            }
+        }
+        
+        ModpackManifest manifest = ModpackManifest.parse(httpCache.get(url, Duration.ZERO).readText());
+        if (!manifest.toTree().getRootHex().equals(expectedRoot)) {
+            throw new RuntimeException("マニフェストの内容がルートハッシュと一致しません。配信内容の更新中の可能性があります。");
+        }
+        return manifest;
+    }
+    
+    /**
+     * ゲームディレクトリのファイルの SHA-256 を集めます
+     * マニフェストのファイルに加え、配信内容にないファイルも差分とするディレクトリはすべてのファイルを対象にします
+     */
+    private static Map<String, byte[]> collectLocalHashes(FileIndex index, ModpackManifest manifest) throws IOException {
+        Map<String, byte[]> hashes = new TreeMap<>();
+        for (ModpackManifest.Entry entry : manifest.getEntries()) {
+            try {
+                hashes.put(entry.getPath(), HexFormat.of().parseHex(index.sha256(entry.getPath())));
+            } catch (NoSuchFileException e) {
+                // 不足しているファイルは差分として扱う
+            }
+        }
+        for (String dir : STRICT_DIRECTORIES) {
+            collectDirectory(index, dir, hashes);
+        }
+        return hashes;
+    }
+    
+    private static void collectDirectory(FileIndex index, String dir, Map<String, byte[]> hashes) throws IOException {
+        for (String name : index.list(dir)) {
+            String path = dir + "/" + name;
+            if (!hashes.containsKey(path)) {
+                hashes.put(path, HexFormat.of().parseHex(index.sha256(path)));
+            }
+        }
+        for (String name : index.listDirectories(dir)) {
+            collectDirectory(index, dir + "/" + name, hashes);
+        }
+    }
+    
+    /**
+     * 不足しているファイルと内容が異なるファイルのみを取得し直します
+     * 単体で配信されるファイルはそのファイルのみを、ZIP に含まれるファイルは ZIP を 1 度だけダウンロードして必要なエントリのみを展開します
+     */
+    private static void repair(Path gameDir, ModpackManifest manifest, List<String> broken, FileIndex index,
+            Result result) throws IOException {
+        Map<String, List<ModpackManifest.Entry>> bySource = new LinkedHashMap<>();
+        for (String path : broken) {
+            ModpackManifest.Entry entry = manifest.get(path);
+            bySource.computeIfAbsent(entry.getSource(), source -> new ArrayList<>()).add(entry);
+        }
+        
+        // ミラーサーバーから取得したファイルは、ルートハッシュで確認済みのマニフェストと照合する
+        MirrorSet mirrors = MirrorSet.forDownloads(List.of(), manifest);
+        Path repairDir = FileUtils.getUpdaterDir(gameDir, REPAIR_DIR);
+        try {
+            for (Map.Entry<String, List<ModpackManifest.Entry>> group : bySource.entrySet()) {
+                try {
+                    if (ModpackManifest.DIRECT_SOURCE.equals(group.getKey())) {
+                        for (ModpackManifest.Entry entry : group.getValue()) {
+                            Path staged = repairDir.resolve("file");
+                            download(mirrors, entry.getPath(), staged);
+                            install(gameDir, entry, staged, index, result);
+                        }
+                    } else {
+                        Path zipFile = repairDir.resolve("source.zip");
+                        download(mirrors, group.getKey(), zipFile);
+                        extractEntries(gameDir, zipFile, group.getValue(), repairDir, index, result);
+                        Files.deleteIfExists(zipFile);
+                    }
+                } catch (Exception e) {
+                    System.err.println("修復に失敗しました: " + group.getKey() + " - " + e.getMessage());
+                    group.getValue().forEach(entry -> result.failed.add(entry.getPath()));
+                }
+            }
+        } finally {
+            deleteRecursively(repairDir);
+        }
+        System.out.println("修復したファイル数: " + result.repaired.size() + " 失敗: " + result.failed.size());
+    }
+    
+    private static void extractEntries(Path gameDir, Path zipFile, List<ModpackManifest.Entry> entries, Path repairDir,
+            FileIndex index, Result result) throws IOException {
+        Map<String, ModpackManifest.Entry> wanted = new TreeMap<>();
+        entries.forEach(entry -> wanted.put(entry.getPath(), entry));
+        
+        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zipFile))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zis.getNextEntry()) != null && !wanted.isEmpty()) {
+                ModpackManifest.Entry entry = wanted.remove(zipEntry.getName().replace('\\', '/'));
+                if (entry == null || zipEntry.isDirectory()) {
+                    continue;
+                }
+                Path staged = repairDir.resolve("entry");
+                Files.copy(zis, staged, StandardCopyOption.REPLACE_EXISTING);
+                install(gameDir, entry, staged, index, result);
+            }
+        }
+        for (String path : wanted.keySet()) {
+            System.err.println("ZIP にファイルが見つかりません: " + path);
+            result.failed.add(path);
+        }
+    }
+    
+    /**
+     * 取得したファイルの SHA-256 をマニフェストと照合してからゲームディレクトリに配置します
+     */
+    private static void install(Path gameDir, ModpackManifest.Entry entry, Path staged, FileIndex index,
+            Result result) throws IOException {
+        String actual;
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(staged), ModpackManifest.sha256Digest())) {
+            in.transferTo(OutputStream.nullOutputStream());
+            actual = HexFormat.of().formatHex(in.getMessageDigest().digest());
+        }
+        if (!actual.equals(entry.getSha256())) {
+            System.err.println("取得したファイルがマニフェストと一致しません: " + entry.getPath());
+            result.failed.add(entry.getPath());
+            return;
+        }
+        
+        Path target = gameDir.resolve(entry.getPath()).normalize();
+        if (!target.startsWith(gameDir.normalize())) {
+            throw new IOException("パスが対象ディレクトリ外を指しています: " + entry.getPath());
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        index.recordWrite(entry.getPath());
+        result.repaired.add(entry.getPath());
+        System.out.println("修復しました: " + entry.getPath());
+    }
+    
+    private static void download(MirrorSet mirrors, String relativePath, Path target) throws Exception {
+        System.out.println("修復用にダウンロード中: " + relativePath);
+        try {
+            mirrors.download(relativePath, target, HttpResponse.BodyHandlers::ofFile);
+        } catch (Exception e) {
+            throw new RuntimeException("ダウンロードに失敗しました: " + e.getMessage(), e);
+        }
+    }
+    
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (var stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
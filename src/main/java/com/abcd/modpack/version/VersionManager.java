@@ -1,9 +1,12 @@
 package com.abcd.modpack.version;
 
+import com.abcd.modpack.config.Endpoints;
+import com.abcd.modpack.network.HttpCache;
 import com.abcd.modpack.network.NetworkUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Properties;
 
 /**
@@ -12,11 +15,12 @@ import java.util.Properties;
  */
 public class VersionManager {
     private static final String DEFAULT_VERSION = "0.0-SNAPSHOT";
-    private static final String VERSION_URL = "https://a-b-c-d.com/downloads/abcd-mods-latest.txt";
     
     private String currentVersion;
     private String latestVersion;
     private String minecraftVersion;
+    private String nextMinecraftVersion;
+    private boolean cachedOnly;
     
     /**
      * バージョン管理を初期化します
@@ -49,6 +53,14 @@ public class VersionManager {
         return minecraftVersion;
     }
     
+    /**
+     * 次に切り替える予定の Minecraft バージョンを取得します
+     * @return 次の Minecraft バージョン。予告されていない場合は null
+     */
+    public String getNextMinecraftVersion() {
+        return nextMinecraftVersion;
+    }
+    
     /**
      * pom.properties からアプリケーションの現在のバージョンを読み込みます
      */
@@ -77,11 +89,57 @@ public class VersionManager {
      */
     public void fetchLatestVersionInfo() throws Exception {
         System.out.println("最新バージョン情報を取得中...");
+        parseVersionInfo(NetworkUtils.fetchText(Endpoints.current().getVersionUrl()));
+    }
+    
+    /**
+     * キャッシュを利用して最新バージョン情報を取得します
+     * 前回の取得から TTL 以内であればネットワークにアクセスしません
+     * オフラインモードではサーバーに接続できない場合でも、期限切れのキャッシュを使用して続行します
+     * @param cache HTTP キャッシュ
+     * @param ttl キャッシュの有効期限
+     * @param offline オフラインモードの場合は true
+     * @throws Exception ネットワークエラー（オフラインモードでキャッシュもない場合を含む）またはデータ解析エラー
+     */
+    public void fetchLatestVersionInfo(HttpCache cache, Duration ttl, boolean offline) throws Exception {
+        System.out.println("最新バージョン情報を取得中...");
         
-        // 最新バージョン取得
-        // １行目：マイクラバージョン
-        // ２行目：アップデーターバージョン
-        String text = NetworkUtils.fetchText(VERSION_URL);
+        String versionUrl = Endpoints.current().getVersionUrl();
+        HttpCache.Entry entry;
+        try {
+            entry = cache.get(versionUrl, ttl);
+        } catch (Exception e) {
+            entry = offline ? cache.getCached(versionUrl) : null;
+            if (entry == null) {
+                if (!offline) {
+                    System.err.println("サーバーに接続できない場合は --offline オプションで前回の情報を使用できます。");
+                }
+                throw e;
+            }
+            System.err.println("サーバーに接続できません: " + e.getMessage());
+            System.out.println("オフラインモード: " + entry.getFetchedAt() + " に取得したバージョン情報を使用します。");
+            cachedOnly = true;
+        }
+        
+        parseVersionInfo(entry.readText());
+    }
+    
+    /**
+     * 最新バージョン情報がサーバーに接続できずキャッシュのみから得られたかどうかを取得します
+     * @return キャッシュのみから得られた場合は true
+     */
+    public boolean isCachedOnly() {
+        return cachedOnly;
+    }
+    
+    /**
+     * バージョン情報テキストを解析します
+     * １行目：マイクラバージョン
+     * ２行目：アップデーターバージョン
+     * ３行目：次に切り替える予定のマイクラバージョン（任意。予告する場合のみ）
+     * @param text バージョン情報テキスト
+     */
+    private void parseVersionInfo(String text) {
         String[] lines = text.split(text.contains("\r\n") ? "\r\n" : "\n");
         
         if (lines.length < 2) {
@@ -90,9 +148,14 @@ public class VersionManager {
         
         minecraftVersion = lines[0].trim();
         latestVersion = lines[1].trim();
+        nextMinecraftVersion = lines.length >= 3 && !lines[2].isBlank() && !lines[2].trim().equals(minecraftVersion)
+            ? lines[2].trim() : null;
         
         System.out.println("Minecraft Version: " + minecraftVersion);
         System.out.println("Latest Version: " + latestVersion);
+        if (nextMinecraftVersion != null) {
+            System.out.println("Next Minecraft Version: " + nextMinecraftVersion);
+        }
     }
     
     /**